@@ -0,0 +1,257 @@
+package vtables_example.batch;
+
+import vtables_example.codegen.AsciiWriter;
+import vtables_example.codegen.ClassMetadata;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.ClassDefinition;
+import vtables_example.syntax.ClassName;
+import vtables_example.syntax.Program;
+import vtables_example.syntax.Stmt;
+import vtables_example.typechecker.TypeErrorException;
+import vtables_example.typechecker.Typechecker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+// Compiles many programs, each as a job of its own: typechecking,
+// generating code, and writing it out.  At most maxConcurrent jobs run at
+// once, on the executor given; programs are only taken from the batch as
+// jobs finish, so a batch can be arbitrarily long.  Each job's outcome is
+// collected, in batch order, and a job failing doesn't stop the rest.
+//
+// Jobs run on workers, each with a code generator, and output buffers
+// for when there are no sinks, that are reset and reused from one job to
+// the next, rather than allocated afresh for every program.  With sinks,
+// each job streams its code straight to its own.  Jobs in a row whose
+// programs share the very same class array share its typechecking and
+// metadata too.  A worker whose job failed after
+// generating code may be left half way through, so it's dropped instead.
+// Errors specific to one program, like a stack overflow on one nested
+// too deeply, are that job's failure; any other Error stops the batch.
+//
+// Any executor will do; with many jobs that mostly wait on their sinks,
+// one with plenty of threads, or a thread per task, makes sense.
+public class BatchCompiler {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    // workers not running a job; never more than maxConcurrent in all
+    private final ConcurrentLinkedQueue<Worker> idle;
+
+    private static class Worker {
+        private final MIPSCodeGenerator generator;
+        private final ByteArrayOutputStream bytes;
+        private final AsciiWriter output;
+
+        private Worker(final ClassMetadata metadata) {
+            generator = new MIPSCodeGenerator(metadata);
+            bytes = new ByteArrayOutputStream();
+            output = new AsciiWriter(Channels.newChannel(bytes));
+        }
+
+        // the generator must already be reset for program
+        private byte[] compile(final Program program) throws IOException {
+            generator.compileProgram(program);
+            bytes.reset();
+            generator.writeTo(output);
+            output.flush();
+            return bytes.toByteArray();
+        }
+    } // Worker
+
+    public BatchCompiler(final ExecutorService executor, final int maxConcurrent) {
+        assert(maxConcurrent > 0);
+        this.executor = executor;
+        permits = new Semaphore(maxConcurrent);
+        idle = new ConcurrentLinkedQueue<Worker>();
+        lastClasses = null;
+    }
+
+    // the classes of the job that most recently got as far as
+    // typechecking; guarded by this
+    private SharedClasses lastClasses;
+
+    // A class array and what's worked out from it once, for every job
+    // whose program has that very array, as when compiling many entry
+    // points against one set of classes.  Typechecking annotates the
+    // classes, so they can't be checked a second time anyway; only the
+    // first job to get here checks them, and the rest wait on it.
+    private static class SharedClasses {
+        private final ClassDefinition[] classes;
+        // all guarded by this; none are set until the classes are checked
+        private Typechecker typechecker;
+        private ClassMetadata metadata;
+        private TypeErrorException error;
+
+        private SharedClasses(final ClassDefinition[] classes) {
+            this.classes = classes;
+            typechecker = null;
+            metadata = null;
+            error = null;
+        }
+
+        private void checkClasses() throws TypeErrorException {
+            if (typechecker == null && error == null) {
+                try {
+                    final Map<ClassName, ClassDefinition> mapping = Typechecker.classMapping(classes);
+                    final Typechecker checked = new Typechecker(mapping);
+                    checked.typecheckAllClasses();
+                    metadata = ClassMetadata.compute(mapping);
+                    typechecker = checked;
+                } catch (final TypeErrorException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        } // checkClasses
+
+        // The typechecker's caches fill in as it goes, so entry points are
+        // checked one at a time.  Returns the metadata to compile with.
+        private synchronized ClassMetadata typecheckEntryPoint(final Stmt entryPoint) throws TypeErrorException {
+            checkClasses();
+            typechecker.typecheckEntryPoint(entryPoint);
+            return metadata;
+        }
+    } // SharedClasses
+
+    // Only the latest array is remembered, which is enough for a batch
+    // that goes through one set of classes after another.  A batch that
+    // comes back to an array after moving on would check it again, which
+    // trips the typechecker's assertions, so batches don't do that.
+    private synchronized SharedClasses sharedClassesFor(final ClassDefinition[] classes) {
+        if (lastClasses == null || lastClasses.classes != classes) {
+            lastClasses = new SharedClasses(classes);
+        }
+        return lastClasses;
+    }
+
+    private void release(final AtomicBoolean jobReleased) {
+        if (jobReleased.compareAndSet(false, true)) {
+            permits.release();
+        }
+    }
+
+    // Runs one job, returning its outcome rather than throwing.  The
+    // worker goes back to idle only if it's known to be in a clean state:
+    // the job succeeded, or the program was ill-typed, so the worker was
+    // never touched.
+    private CompileResult compileOne(final int index,
+                                     final Program program,
+                                     final SinkFactory sinks) {
+        Worker worker = idle.poll();
+        boolean reusable = false;
+        try {
+            final ClassMetadata metadata;
+            try {
+                metadata = sharedClassesFor(program.classes).typecheckEntryPoint(program.entryPoint);
+            } catch (final TypeErrorException e) {
+                reusable = true;
+                return CompileResult.failure(index, program, e);
+            }
+            if (worker == null) {
+                worker = new Worker(metadata);
+            } else {
+                worker.generator.reset(metadata);
+            }
+            if (sinks == null) {
+                final byte[] asm = worker.compile(program);
+                reusable = true;
+                return CompileResult.success(index, program, asm);
+            }
+            // closes the sink, whatever happens
+            worker.generator.compileProgramTo(program, null, sinks.sinkFor(index, program));
+            reusable = true;
+            return CompileResult.success(index, program, null);
+        } catch (final Exception e) {
+            return CompileResult.failure(index, program, e);
+        } catch (final StackOverflowError e) {
+            // a program nested too deeply; the next one may be fine
+            return CompileResult.failure(index, program, e);
+        } catch (final AssertionError e) {
+            return CompileResult.failure(index, program, e);
+        } finally {
+            if (worker != null && reusable) {
+                idle.offer(worker);
+            }
+        }
+    } // compileOne
+
+    // Compiles every program, writing each to the sink sinks gives it, or
+    // keeping its assembly in its result if sinks is null.  Returns once
+    // every job is done, with one result per program, in batch order.
+    public List<CompileResult> compileAll(final Iterable<Program> programs,
+                                          final SinkFactory sinks) throws InterruptedException {
+        final List<Future<CompileResult>> jobs = new ArrayList<Future<CompileResult>>();
+        // whether each job's permit has been given back; a job cancelled
+        // before it starts never gets to give back its own
+        final List<AtomicBoolean> released = new ArrayList<AtomicBoolean>();
+        boolean finished = false;
+        try {
+            for (final Program program : programs) {
+                permits.acquire();
+                final int index = jobs.size();
+                final AtomicBoolean jobReleased = new AtomicBoolean(false);
+                released.add(jobReleased);
+                try {
+                    jobs.add(executor.submit(() -> {
+                                try {
+                                    return compileOne(index, program, sinks);
+                                } finally {
+                                    release(jobReleased);
+                                }
+                            }));
+                } catch (final RejectedExecutionException e) {
+                    release(jobReleased);
+                    throw e;
+                }
+            }
+
+            final List<CompileResult> results = new ArrayList<CompileResult>(jobs.size());
+            for (final Future<CompileResult> job : jobs) {
+                try {
+                    results.add(job.get());
+                } catch (final ExecutionException e) {
+                    // compileOne only throws Errors it can't report
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error)cause;
+                    } else {
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            }
+            finished = true;
+            return results;
+        } finally {
+            if (!finished) {
+                for (int index = 0; index < jobs.size(); index++) {
+                    jobs.get(index).cancel(true);
+                    release(released.get(index));
+                }
+            }
+        }
+    } // compileAll
+
+    public List<CompileResult> compileAll(final Iterable<Program> programs) throws InterruptedException {
+        return compileAll(programs, null);
+    }
+
+    public List<CompileResult> compileAll(final Stream<Program> programs,
+                                          final SinkFactory sinks) throws InterruptedException {
+        final Iterable<Program> asIterable = programs::iterator;
+        return compileAll(asIterable, sinks);
+    }
+} // BatchCompiler
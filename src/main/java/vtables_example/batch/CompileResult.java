@@ -0,0 +1,46 @@
+package vtables_example.batch;
+
+import vtables_example.syntax.Program;
+
+// The outcome of one job in a batch: either the assembly written, or why
+// there isn't any.
+public class CompileResult {
+    public final int index; // position in the batch
+    public final Program program;
+    // null if this failed, or if the assembly went to a sink instead
+    public final byte[] asm;
+    // null if this succeeded; either an exception, or an Error which only
+    // concerns this program, like one nested too deeply to compile
+    public final Throwable error;
+
+    private CompileResult(final int index,
+                          final Program program,
+                          final byte[] asm,
+                          final Throwable error) {
+        this.index = index;
+        this.program = program;
+        this.asm = asm;
+        this.error = error;
+    }
+
+    public static CompileResult success(final int index,
+                                        final Program program,
+                                        final byte[] asm) {
+        return new CompileResult(index, program, asm, null);
+    }
+
+    public static CompileResult failure(final int index,
+                                        final Program program,
+                                        final Throwable error) {
+        assert(error != null);
+        return new CompileResult(index, program, null, error);
+    }
+
+    public boolean succeeded() {
+        return error == null;
+    }
+
+    public String toString() {
+        return "job " + index + ": " + ((succeeded()) ? "ok" : error.toString());
+    }
+} // CompileResult
@@ -0,0 +1,13 @@
+package vtables_example.batch;
+
+import vtables_example.codegen.AsmSink;
+import vtables_example.syntax.Program;
+
+import java.io.IOException;
+
+// Where each job in a batch writes its assembly.  Called from whichever
+// thread runs the job, so implementations must be thread-safe.
+public interface SinkFactory {
+    // index is the program's position in the batch
+    public AsmSink sinkFor(int index, Program program) throws IOException;
+} // SinkFactory
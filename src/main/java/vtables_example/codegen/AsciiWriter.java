@@ -0,0 +1,165 @@
+package vtables_example.codegen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Renders assembly text straight into a byte array, one byte per
+// character, writing integers and registers without building Strings
+// along the way.  Whenever the array fills, it's written out to either a
+// channel, after which it's reused, or a sink, which keeps it, in which
+// case a fresh one is allocated.
+//
+// Assembly is ASCII in practice; anything else is written as UTF-8.
+public final class AsciiWriter {
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final byte[] LINE_SEPARATOR =
+        System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    // enough for any int, including its sign
+    private static final int MAX_INT_CHARS = 11;
+
+    // exactly one of these is null
+    private final WritableByteChannel channel;
+    private final AsmSink sink;
+    private byte[] bytes;
+    private int position;
+
+    public AsciiWriter(final WritableByteChannel channel) {
+        this(channel, null, DEFAULT_CAPACITY);
+    }
+
+    public AsciiWriter(final AsmSink sink) {
+        this(null, sink, DEFAULT_CAPACITY);
+    }
+
+    // capacity is mostly there for tests, which use it to force flushes
+    public AsciiWriter(final WritableByteChannel channel,
+                       final AsmSink sink,
+                       final int capacity) {
+        assert((channel == null) != (sink == null));
+        assert(capacity >= MAX_INT_CHARS);
+        this.channel = channel;
+        this.sink = sink;
+        bytes = new byte[capacity];
+        position = 0;
+    }
+
+    // writes out everything buffered so far
+    public void flush() throws IOException {
+        if (position == 0) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, position);
+        if (channel != null) {
+            // channels may write less than asked
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } else {
+            sink.write(buffer);
+            bytes = new byte[bytes.length];
+        }
+        position = 0;
+    } // flush
+
+    private void ensureRoom(final int numBytes) throws IOException {
+        if (bytes.length - position < numBytes) {
+            flush();
+        }
+    }
+
+    public AsciiWriter append(final char c) throws IOException {
+        if (c < 0x80) {
+            ensureRoom(1);
+            bytes[position++] = (byte)c;
+            return this;
+        } else {
+            return appendBytes(String.valueOf(c).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public AsciiWriter append(final String text) throws IOException {
+        final int length = text.length();
+        int index = 0;
+        while (index < length) {
+            if (position == bytes.length) {
+                flush();
+            }
+            // as much as fits without checking for room on every character
+            final int end = Math.min(length, index + (bytes.length - position));
+            for (; index < end; index++) {
+                final char c = text.charAt(index);
+                if (c >= 0x80) {
+                    // rare enough that the rest can go the slow way
+                    return appendBytes(text.substring(index).getBytes(StandardCharsets.UTF_8));
+                }
+                bytes[position++] = (byte)c;
+            }
+        }
+        return this;
+    } // append
+
+    private AsciiWriter appendBytes(final byte[] more) throws IOException {
+        int offset = 0;
+        while (offset < more.length) {
+            if (position == bytes.length) {
+                flush();
+            }
+            final int amount = Math.min(bytes.length - position, more.length - offset);
+            System.arraycopy(more, offset, bytes, position, amount);
+            position += amount;
+            offset += amount;
+        }
+        return this;
+    }
+
+    // the same digits as Integer.toString, written backwards into place
+    public AsciiWriter appendInt(final int value) throws IOException {
+        ensureRoom(MAX_INT_CHARS);
+        // negative values are negated as longs, so MIN_VALUE is fine
+        long remaining = (value < 0) ? -(long)value : value;
+        int numChars = (value < 0) ? 1 : 0;
+        long scratch = remaining;
+        do {
+            numChars++;
+            scratch /= 10;
+        } while (scratch != 0);
+        int index = position + numChars;
+        do {
+            bytes[--index] = (byte)('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            bytes[--index] = '-';
+        }
+        position += numChars;
+        return this;
+    } // appendInt
+
+    public AsciiWriter append(final MIPSRegister register) throws IOException {
+        return append('$').append(register.baseRegisterName);
+    }
+
+    public AsciiWriter newline() throws IOException {
+        ensureRoom(LINE_SEPARATOR.length);
+        for (final byte b : LINE_SEPARATOR) {
+            bytes[position++] = b;
+        }
+        return this;
+    }
+
+    public AsciiWriter appendLine(final String line) throws IOException {
+        return append(line).newline();
+    }
+
+    // each entry on a line of its own, as println(entry.toString()) would
+    public AsciiWriter appendLines(final List<MIPSEntry> entries) throws IOException {
+        for (final MIPSEntry entry : entries) {
+            entry.writeTo(this);
+            newline();
+        }
+        return this;
+    }
+} // AsciiWriter
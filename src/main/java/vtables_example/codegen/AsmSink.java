@@ -0,0 +1,12 @@
+package vtables_example.codegen;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Somewhere assembly is written to, a chunk at a time.  Chunks are
+// written in order, from one thread at a time, and belong to the sink
+// once written; callers never touch them again.
+public interface AsmSink extends Closeable {
+    public void write(ByteBuffer chunk) throws IOException;
+} // AsmSink
@@ -0,0 +1,104 @@
+package vtables_example.codegen;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Writes chunks to another sink from a thread of its own, so the caller
+// can keep compiling while earlier code is written out.  At most
+// capacity chunks wait to be written; past that, write blocks until the
+// writer catches up, so a fast producer can't fill the heap.
+//
+// If the underlying sink fails, later chunks are dropped, and the
+// failure is thrown from the next write or from close.  close always
+// waits for everything queued to be written.
+public class BackgroundWriter implements AsmSink {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // marks the end of the queue; never written
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final AsmSink sink;
+    private final BlockingQueue<ByteBuffer> queue;
+    private final Thread thread;
+    private volatile IOException failure;
+    private boolean closed;
+
+    public BackgroundWriter(final AsmSink sink) {
+        this(sink, DEFAULT_CAPACITY);
+    }
+
+    public BackgroundWriter(final AsmSink sink, final int capacity) {
+        this.sink = sink;
+        queue = new ArrayBlockingQueue<ByteBuffer>(capacity);
+        failure = null;
+        closed = false;
+        thread = new Thread(this::drain, "asm-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void drain() {
+        while (true) {
+            final ByteBuffer chunk;
+            try {
+                chunk = queue.take();
+            } catch (final InterruptedException e) {
+                // only close stops this thread; nothing else has it
+                continue;
+            }
+            if (chunk == END) {
+                return;
+            } else if (failure == null) {
+                try {
+                    sink.write(chunk);
+                } catch (final IOException e) {
+                    failure = e;
+                }
+            }
+        }
+    } // drain
+
+    private void throwIfFailed() throws IOException {
+        final IOException current = failure;
+        if (current != null) {
+            throw new IOException("background write failed", current);
+        }
+    }
+
+    private void enqueue(final ByteBuffer chunk) throws IOException {
+        try {
+            queue.put(chunk);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while queueing output");
+        }
+    }
+
+    public void write(final ByteBuffer chunk) throws IOException {
+        assert(!closed);
+        throwIfFailed();
+        enqueue(chunk);
+    }
+
+    // waits for everything queued to be written, and then closes the
+    // underlying sink
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            enqueue(END);
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while finishing output");
+        } finally {
+            sink.close();
+        }
+        throwIfFailed();
+    } // close
+} // BackgroundWriter
@@ -0,0 +1,24 @@
+package vtables_example.codegen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class ChannelSink implements AsmSink {
+    private final WritableByteChannel channel;
+
+    public ChannelSink(final WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    public void write(final ByteBuffer chunk) throws IOException {
+        // channels may write less than asked
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+} // ChannelSink
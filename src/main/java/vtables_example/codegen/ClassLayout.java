@@ -0,0 +1,73 @@
+package vtables_example.codegen;
+
+import vtables_example.syntax.ClassName;
+import vtables_example.syntax.ClassDefinition;
+import vtables_example.syntax.VarDec;
+import vtables_example.syntax.Variable;
+import vtables_example.util.PersistentMap;
+
+// Object layout for a single class, including everything inherited.
+// Layouts are built parent-first, and each one shares its parent's
+// field offsets rather than copying them.
+//
+// Each variable can hold either an int (4 bytes), or a reference to a
+// class (4 bytes).  If the class has a vtable, the pointer to it is
+// stored at offset 0.
+public class ClassLayout {
+    public final ClassName className;
+    public final int sizeWithoutVTable;
+    public final boolean hasVTablePointer;
+    public final int size;
+    private final PersistentMap<Variable, Integer> fieldOffsets;
+
+    public ClassLayout(final ClassName className,
+                       final int sizeWithoutVTable,
+                       final boolean hasVTablePointer,
+                       final PersistentMap<Variable, Integer> fieldOffsets) {
+        this.className = className;
+        this.sizeWithoutVTable = sizeWithoutVTable;
+        this.hasVTablePointer = hasVTablePointer;
+        this.size = sizeWithoutVTable + ((hasVTablePointer) ? 4 : 0);
+        this.fieldOffsets = fieldOffsets;
+    }
+
+    // parentLayout is null if def has no parent
+    public static ClassLayout layoutFor(final ClassDefinition def,
+                                        final ClassLayout parentLayout,
+                                        final boolean hasVTablePointer) {
+        final int parentSizeWithoutVTable =
+            (parentLayout == null) ? 0 : parentLayout.sizeWithoutVTable;
+        final int sizeWithoutVTable = parentSizeWithoutVTable + def.instanceVariables.length * 4;
+        final int size = sizeWithoutVTable + ((hasVTablePointer) ? 4 : 0);
+
+        // Our own fields come right after everything the parent has, plus
+        // the pointer to the vtable if we're the first in the chain to need
+        // one.  Equivalently, they are the last fields in the object.
+        PersistentMap<Variable, Integer> offsets =
+            (parentLayout == null) ? PersistentMap.<Variable, Integer>empty() : parentLayout.fieldOffsets;
+        int offset = size - def.instanceVariables.length * 4;
+        for (final VarDec dec : def.instanceVariables) {
+            // the first definition wins, starting from the parent
+            offsets = offsets.putIfAbsent(dec.variable, Integer.valueOf(offset));
+            offset += 4;
+        }
+
+        return new ClassLayout(def.myName,
+                               sizeWithoutVTable,
+                               hasVTablePointer,
+                               offsets);
+    }
+
+    // returns -1 if this class doesn't contain this field
+    public int fieldOffset(final Variable field) {
+        final Integer offset = fieldOffsets.get(field);
+        return (offset == null) ? -1 : offset.intValue();
+    }
+
+    public String toString() {
+        return ("ClassLayout(" +
+                className + ", " +
+                size + ", " +
+                hasVTablePointer + ")");
+    }
+} // ClassLayout
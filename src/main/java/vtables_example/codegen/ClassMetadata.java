@@ -0,0 +1,222 @@
+package vtables_example.codegen;
+
+import vtables_example.syntax.ClassName;
+import vtables_example.syntax.ClassDefinition;
+import vtables_example.syntax.Name;
+import vtables_example.util.IdTable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+
+// The dispatch table and layout of every class in a program.  Once
+// computed this is never modified, so any number of code generators, on
+// any number of threads, can share one snapshot.
+//
+// Each class's metadata depends only on its parent's, so the roots of the
+// inheritance forest are independent, and a class can be handled as soon
+// as its parent has been.  This can be computed on one thread, or on a
+// ForkJoinPool with a task per class forked once its parent is done.
+//
+// A lazy snapshot instead computes each class the first time it's asked
+// for, along with any of its ancestors not yet done, so large libraries
+// only pay for the classes a program actually reaches.  Lazy snapshots
+// are still safe to share: computing takes a lock, and lookups of classes
+// already done don't.
+public class ClassMetadata {
+    private final Map<ClassName, ClassDefinition> classes;
+    private final boolean lazy;
+    // both indexed by class name ID
+    private final IdTable<DispatchTable> dispatchTables;
+    private final IdTable<ClassLayout> layouts;
+
+    private ClassMetadata(final Map<ClassName, ClassDefinition> classes,
+                          final boolean lazy) {
+        this.lazy = lazy;
+        // copied, keeping iteration order, so later changes can't leak in
+        this.classes = Collections.unmodifiableMap(new LinkedHashMap<ClassName, ClassDefinition>(classes));
+        int maxId = 0;
+        for (final ClassName name : classes.keySet()) {
+            maxId = Math.max(maxId, name.id());
+        }
+        // sized up front, so tasks never resize the tables
+        dispatchTables = new IdTable<DispatchTable>(maxId + 1);
+        layouts = new IdTable<ClassLayout>(maxId + 1);
+    }
+
+    // computes everything on the calling thread
+    public static ClassMetadata compute(final Map<ClassName, ClassDefinition> classes) {
+        final ClassMetadata result = new ClassMetadata(classes, false);
+        final Map<ClassName, List<ClassDefinition>> children = result.childrenOf();
+        // parents-first by walking down from each root; iterative, so
+        // very deep hierarchies don't exhaust the stack
+        final List<ClassDefinition> pending = new ArrayList<ClassDefinition>(result.roots());
+        while (!pending.isEmpty()) {
+            final ClassDefinition def = pending.remove(pending.size() - 1);
+            result.computeFor(def);
+            pending.addAll(children.getOrDefault(def.myName, Collections.<ClassDefinition>emptyList()));
+        }
+        return result;
+    }
+
+    // computes each class as a separate task on the given pool
+    public static ClassMetadata compute(final Map<ClassName, ClassDefinition> classes,
+                                        final ForkJoinPool pool) {
+        final ClassMetadata result = new ClassMetadata(classes, false);
+        final Map<ClassName, List<ClassDefinition>> children = result.childrenOf();
+        pool.invoke(new ForestTask(result, children));
+        return result;
+    }
+
+    // Computes every root, each of which forks its children once done.
+    // Nothing ever waits on a subtask; each task's pending count covers
+    // its children, and the whole forest completes once every task has.
+    private static class ForestTask extends CountedCompleter<Void> {
+        private final ClassMetadata metadata;
+        private final Map<ClassName, List<ClassDefinition>> children;
+
+        public ForestTask(final ClassMetadata metadata,
+                          final Map<ClassName, List<ClassDefinition>> children) {
+            this.metadata = metadata;
+            this.children = children;
+        }
+
+        public void compute() {
+            for (final ClassDefinition root : metadata.roots()) {
+                addToPendingCount(1);
+                new ClassTask(this, metadata, children, root).fork();
+            }
+            tryComplete();
+        }
+    } // ForestTask
+
+    private static class ClassTask extends CountedCompleter<Void> {
+        private final ClassMetadata metadata;
+        private final Map<ClassName, List<ClassDefinition>> children;
+        private final ClassDefinition def;
+
+        public ClassTask(final CountedCompleter<?> completer,
+                         final ClassMetadata metadata,
+                         final Map<ClassName, List<ClassDefinition>> children,
+                         final ClassDefinition def) {
+            super(completer);
+            this.metadata = metadata;
+            this.children = children;
+            this.def = def;
+        }
+
+        public void compute() {
+            metadata.computeFor(def);
+            final List<ClassDefinition> mine = children.get(def.myName);
+            if (mine != null) {
+                for (final ClassDefinition child : mine) {
+                    addToPendingCount(1);
+                    new ClassTask(this, metadata, children, child).fork();
+                }
+            }
+            tryComplete();
+        }
+    } // ClassTask
+
+    // computes nothing until it's needed
+    public static ClassMetadata lazy(final Map<ClassName, ClassDefinition> classes) {
+        return new ClassMetadata(classes, true);
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    // whether className's metadata has been computed yet; always true for
+    // defined classes unless this is lazy
+    public boolean isComputed(final ClassName className) {
+        return dispatchTables.get(className.id()) != null;
+    }
+
+    // Computes className and any of its ancestors not yet done, walking up
+    // iteratively and then computing back down.
+    private synchronized void computeLazily(final ClassName className) {
+        final List<ClassDefinition> chain = new ArrayList<ClassDefinition>();
+        ClassName current = className;
+        while (current != null && !isComputed(current)) {
+            final ClassDefinition def = classes.get(current);
+            assert(def != null);
+            assert(chain.size() <= classes.size()); // typechecker ensures acyclic
+            chain.add(def);
+            current = (classes.containsKey(def.extendsName)) ? def.extendsName : null;
+        }
+        for (int index = chain.size() - 1; index >= 0; index--) {
+            computeFor(chain.get(index));
+        }
+    }
+
+    // the subclasses of each class
+    private Map<ClassName, List<ClassDefinition>> childrenOf() {
+        final Map<ClassName, List<ClassDefinition>> result = new HashMap<ClassName, List<ClassDefinition>>();
+        for (final ClassDefinition def : classes.values()) {
+            if (def.extendsName != null && classes.containsKey(def.extendsName)) {
+                result.computeIfAbsent(def.extendsName, k -> new ArrayList<ClassDefinition>()).add(def);
+            }
+        }
+        return result;
+    }
+
+    // classes without a (defined) parent
+    private List<ClassDefinition> roots() {
+        final List<ClassDefinition> result = new ArrayList<ClassDefinition>();
+        for (final ClassDefinition def : classes.values()) {
+            if (def.extendsName == null || !classes.containsKey(def.extendsName)) {
+                result.add(def);
+            }
+        }
+        return result;
+    }
+
+    // def's parent, if any, must already be done
+    private void computeFor(final ClassDefinition def) {
+        final int parentId = (def.extendsName == null) ? Name.NO_ID : def.extendsName.id();
+        final DispatchTable table =
+            DispatchTable.tableFor(def, (parentId == Name.NO_ID) ? null : dispatchTables.get(parentId));
+        dispatchTables.put(def.myName.id(), table);
+        layouts.put(def.myName.id(),
+                    ClassLayout.layoutFor(def,
+                                          (parentId == Name.NO_ID) ? null : layouts.get(parentId),
+                                          table.hasVtableEntries()));
+    }
+
+    // returns null if there is no such class
+    public ClassDefinition classDefinition(final ClassName className) {
+        return classes.get(className);
+    }
+
+    // in the iteration order of the map this was computed from
+    public Collection<ClassDefinition> classDefinitions() {
+        return classes.values();
+    }
+
+    public DispatchTable dispatchTableOf(final ClassName className) {
+        DispatchTable table = dispatchTables.get(className.id());
+        if (table == null && lazy) {
+            computeLazily(className);
+            table = dispatchTables.get(className.id());
+        }
+        assert(table != null);
+        return table;
+    }
+
+    public ClassLayout layoutOf(final ClassName className) {
+        ClassLayout layout = layouts.get(className.id());
+        if (layout == null && lazy) {
+            computeLazily(className);
+            layout = layouts.get(className.id());
+        }
+        assert(layout != null);
+        return layout;
+    }
+} // ClassMetadata
@@ -0,0 +1,108 @@
+package vtables_example.codegen;
+
+import vtables_example.syntax.ClassName;
+import vtables_example.syntax.ClassDefinition;
+import vtables_example.syntax.MethodDefinition;
+import vtables_example.syntax.MethodName;
+import vtables_example.util.PersistentMap;
+import vtables_example.util.PrefixArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.HashSet;
+
+// Resolved methods for a single class, including everything inherited.
+// Tables are built parent-first.  Every method callable on the class
+// maps to whether it is virtual, which class provides the implementation,
+// and its slot in the vtable.  The vtable itself is the parent's slots
+// followed by any virtual methods this class introduces.  Slots are held
+// in a PrefixArray extended from the parent's, so a deep hierarchy shares
+// one array of slots instead of copying it into every class; the class
+// implementing each slot is whichever the method map resolves it to.
+public class DispatchTable {
+    public final ClassName className;
+    private final PersistentMap<MethodName, FindMethodResult> methods;
+    private final PrefixArray<MethodName> slotMethods;
+
+    private DispatchTable(final ClassName className,
+                          final PersistentMap<MethodName, FindMethodResult> methods,
+                          final PrefixArray<MethodName> slotMethods) {
+        this.className = className;
+        this.methods = methods;
+        this.slotMethods = slotMethods;
+    }
+
+    // parentTable is null if def has no parent
+    public static DispatchTable tableFor(final ClassDefinition def,
+                                         final DispatchTable parentTable) {
+        PersistentMap<MethodName, FindMethodResult> methods;
+        final PrefixArray<MethodName> parentSlots;
+        if (parentTable == null) {
+            methods = PersistentMap.empty();
+            parentSlots = PrefixArray.empty();
+        } else {
+            methods = parentTable.methods;
+            parentSlots = parentTable.slotMethods;
+        }
+
+        // virtual methods that aren't in the parent table
+        final List<MethodName> newSlots = new ArrayList<MethodName>();
+        final Set<MethodName> seen = new HashSet<MethodName>();
+        for (final MethodDefinition method : def.methods) {
+            if (!seen.add(method.name)) {
+                // if defined twice, the first definition wins
+                continue;
+            }
+            final FindMethodResult inherited = methods.get(method.name);
+            int slot = (inherited == null) ? -1 : inherited.vtableSlot;
+            if (slot == -1 && method.isVirtual) {
+                slot = parentSlots.length() + newSlots.size();
+                newSlots.add(method.name);
+            }
+            methods = methods.put(method.name,
+                                  new FindMethodResult(method.isVirtual, def.myName, slot));
+        }
+
+        return new DispatchTable(def.myName,
+                                 methods,
+                                 parentSlots.append(newSlots));
+    }
+
+    // returns null if there is no such method
+    public FindMethodResult findMethod(final MethodName methodName) {
+        return methods.get(methodName);
+    }
+
+    public int numSlots() {
+        return slotMethods.length();
+    }
+
+    public boolean hasVtableEntries() {
+        return !slotMethods.isEmpty();
+    }
+
+    public MethodName slotMethod(final int slot) {
+        return slotMethods.get(slot);
+    }
+
+    // the most derived class defining the slot's method
+    public ClassName slotImplementation(final int slot) {
+        return methods.get(slotMethods.get(slot)).providesImplementation;
+    }
+
+    // whether this table's slots share storage with other's
+    public boolean sharesSlotsWith(final DispatchTable other) {
+        return slotMethods.sharesWith(other.slotMethods);
+    }
+
+    // offset in bytes into the vtable; returns -1 if it's not in there
+    public int methodOffset(final MethodName methodName) {
+        final FindMethodResult find = methods.get(methodName);
+        if (find == null || find.vtableSlot == -1) {
+            return -1;
+        } else {
+            return find.vtableSlot * 4;
+        }
+    }
+} // DispatchTable
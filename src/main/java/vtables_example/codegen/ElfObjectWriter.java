@@ -0,0 +1,547 @@
+package vtables_example.codegen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Writes compiled code straight to an ELF32 relocatable object for
+// MIPS32, encoding each instruction into machine words, rather than
+// writing text for an assembler to parse all over again.
+//
+// Every reference to a label becomes a relocation against that label's
+// symbol, so instructions can be encoded as they're added, without
+// knowing where labels end up.  Pseudo-instructions are expanded here:
+// li becomes one or two instructions depending on the immediate, la
+// becomes lui/addiu with HI16/LO16 relocations, and an addi, lw, or sw
+// whose immediate doesn't fit in 16 bits goes through $at.
+//
+// The code generator assumes SPIM's default of no branch delay slots, so
+// every jump is followed by a nop, and the object is marked noreorder.
+//
+// main is the only global symbol, along with any label used but never
+// defined, which is left for the linker.  Every other label is local.
+public class ElfObjectWriter {
+    // ---BEGIN CONSTANTS---
+    private static final int ELF_HEADER_SIZE = 52;
+    private static final int SECTION_HEADER_SIZE = 40;
+    private static final int SYMBOL_SIZE = 16;
+    private static final int RELOCATION_SIZE = 8;
+
+    private static final int ET_REL = 1;
+    private static final int EM_MIPS = 8;
+    private static final int EF_MIPS_NOREORDER = 0x00000001;
+    private static final int EF_MIPS_ARCH_32 = 0x50000000;
+
+    private static final int SHT_PROGBITS = 1;
+    private static final int SHT_SYMTAB = 2;
+    private static final int SHT_STRTAB = 3;
+    private static final int SHT_REL = 9;
+    private static final int SHF_WRITE = 0x1;
+    private static final int SHF_ALLOC = 0x2;
+    private static final int SHF_EXECINSTR = 0x4;
+    private static final int SHF_INFO_LINK = 0x40;
+
+    private static final int STB_LOCAL = 0;
+    private static final int STB_GLOBAL = 1;
+    private static final int STT_NOTYPE = 0;
+    private static final int STT_OBJECT = 1;
+    private static final int STT_FUNC = 2;
+    private static final int STT_SECTION = 3;
+
+    private static final int R_MIPS_32 = 2;
+    private static final int R_MIPS_26 = 4;
+    private static final int R_MIPS_HI16 = 5;
+    private static final int R_MIPS_LO16 = 6;
+
+    // section header indices, in the order written
+    private static final int TEXT = 1;
+    private static final int DATA = 2;
+    private static final int REL_TEXT = 3;
+    private static final int REL_DATA = 4;
+    private static final int SYMTAB = 5;
+    private static final int STRTAB = 6;
+    private static final int SHSTRTAB = 7;
+    private static final int NUM_SECTIONS = 8;
+    private static final String[] SECTION_NAMES = new String[] {
+        "", ".text", ".data", ".rel.text", ".rel.data", ".symtab", ".strtab", ".shstrtab"
+    };
+    private static final int UNDEFINED = 0;
+
+    private static final int AT = MIPSRegister.AT.registerNumber;
+    private static final int RA = MIPSRegister.RA.registerNumber;
+    private static final int NOP = 0;
+    // ---END CONSTANTS---
+
+    // ---BEGIN SECTIONS---
+    // The contents of .text or .data, and the relocations against it,
+    // three ints each: offset, type, and label ID.
+    private static class Section {
+        private final int index;
+        private ByteBuffer bytes;
+        private int[] relocations;
+        private int relocationsUsed;
+
+        private Section(final int index, final ByteOrder order) {
+            this.index = index;
+            bytes = ByteBuffer.allocate(4096).order(order);
+            relocations = new int[192];
+            relocationsUsed = 0;
+        }
+
+        private int size() {
+            return bytes.position();
+        }
+
+        private int numRelocations() {
+            return relocationsUsed / 3;
+        }
+
+        private void ensureRoom(final int amount) {
+            if (bytes.remaining() < amount) {
+                final ByteBuffer bigger =
+                    ByteBuffer.allocate(Math.max(bytes.capacity() * 2, bytes.position() + amount))
+                    .order(bytes.order());
+                bytes.flip();
+                bigger.put(bytes);
+                bytes = bigger;
+            }
+        }
+
+        private void word(final int word) {
+            ensureRoom(4);
+            bytes.putInt(word);
+        }
+
+        private void bytes(final byte[] contents) {
+            ensureRoom(contents.length);
+            bytes.put(contents);
+        }
+
+        private void align(final int alignment) {
+            while (bytes.position() % alignment != 0) {
+                ensureRoom(1);
+                bytes.put((byte)0);
+            }
+        }
+
+        // the next word refers to label
+        private void relocate(final int type, final int label) {
+            if (relocationsUsed == relocations.length) {
+                relocations = Arrays.copyOf(relocations, relocations.length * 2);
+            }
+            relocations[relocationsUsed++] = size();
+            relocations[relocationsUsed++] = type;
+            relocations[relocationsUsed++] = label;
+        }
+    } // Section
+    // ---END SECTIONS---
+
+    private final LabelTable labels;
+    private final ByteOrder order;
+    private final Section text;
+    private final Section data;
+    // where each label is defined, indexed by label ID; UNDEFINED if not
+    private int[] labelSections;
+    private int[] labelOffsets;
+
+    public ElfObjectWriter(final LabelTable labels) {
+        this(labels, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public ElfObjectWriter(final LabelTable labels, final ByteOrder order) {
+        this.labels = labels;
+        this.order = order;
+        text = new Section(TEXT, order);
+        data = new Section(DATA, order);
+        labelSections = new int[64];
+        labelOffsets = new int[64];
+    }
+
+    private void define(final int label, final Section section) {
+        if (label >= labelSections.length) {
+            final int newLength = Math.max(labelSections.length * 2, label + 1);
+            labelSections = Arrays.copyOf(labelSections, newLength);
+            labelOffsets = Arrays.copyOf(labelOffsets, newLength);
+        }
+        if (labelSections[label] != UNDEFINED) {
+            throw new IllegalArgumentException("Label defined twice: " + labels.name(label));
+        }
+        labelSections[label] = section.index;
+        labelOffsets[label] = section.size();
+    }
+
+    private int sectionOf(final int label) {
+        return (label < labelSections.length) ? labelSections[label] : UNDEFINED;
+    }
+
+    // ---BEGIN ENCODING---
+    private static boolean fitsSigned16(final int value) {
+        return value == (short)value;
+    }
+
+    private static int iType(final int opcode, final int rs, final int rt, final int immediate) {
+        return (opcode << 26) | (rs << 21) | (rt << 16) | (immediate & 0xFFFF);
+    }
+
+    private static int rType(final int rs, final int rt, final int rd, final int funct) {
+        return (rs << 21) | (rt << 16) | (rd << 11) | funct;
+    }
+
+    private static int addi(final int rt, final int rs, final int immediate) {
+        return iType(0x08, rs, rt, immediate);
+    }
+
+    private static int addiu(final int rt, final int rs, final int immediate) {
+        return iType(0x09, rs, rt, immediate);
+    }
+
+    private static int ori(final int rt, final int rs, final int immediate) {
+        return iType(0x0D, rs, rt, immediate);
+    }
+
+    private static int lui(final int rt, final int immediate) {
+        return iType(0x0F, 0, rt, immediate);
+    }
+
+    private static int add(final int rd, final int rs, final int rt) {
+        return rType(rs, rt, rd, 0x20);
+    }
+
+    private static int addu(final int rd, final int rs, final int rt) {
+        return rType(rs, rt, rd, 0x21);
+    }
+
+    // loads any 32 bit value into rt
+    private void loadImmediate(final Section section, final int rt, final int value) {
+        if (fitsSigned16(value)) {
+            section.word(addiu(rt, 0, value));
+        } else if ((value & 0xFFFF0000) == 0) {
+            section.word(ori(rt, 0, value));
+        } else {
+            section.word(lui(rt, value >>> 16));
+            if ((value & 0xFFFF) != 0) {
+                section.word(ori(rt, rt, value));
+            }
+        }
+    }
+
+    // lw or sw; offsets too large for the instruction are added to the
+    // base in $at first, leaving the low half, which is sign extended
+    private void memory(final Section section,
+                        final int opcode,
+                        final int rt,
+                        final int offset,
+                        final int base) {
+        if (fitsSigned16(offset)) {
+            section.word(iType(opcode, base, rt, offset));
+        } else {
+            final int low = (short)offset;
+            section.word(lui(AT, (offset - low) >>> 16));
+            section.word(addu(AT, AT, base));
+            section.word(iType(opcode, AT, rt, low));
+        }
+    }
+
+    private void jump(final Section section, final int word) {
+        section.word(word);
+        section.word(NOP);
+    }
+
+    private void encode(final Section section, final InstructionBuffer code) {
+        for (int index = 0; index < code.size(); index++) {
+            final InstructionBuffer.Opcode opcode = code.opcode(index);
+            if (opcode == InstructionBuffer.Opcode.LABEL) {
+                define(code.immediate(index), section);
+            } else if (opcode == InstructionBuffer.Opcode.COMMENT) {
+                // nothing to encode
+            } else if (opcode == InstructionBuffer.Opcode.WORD_LABEL) {
+                section.relocate(R_MIPS_32, code.immediate(index));
+                section.word(0);
+            } else if (opcode == InstructionBuffer.Opcode.ADDI) {
+                final int rt = code.first(index).registerNumber;
+                final int rs = code.second(index).registerNumber;
+                final int immediate = code.immediate(index);
+                if (fitsSigned16(immediate)) {
+                    section.word(addi(rt, rs, immediate));
+                } else {
+                    loadImmediate(section, AT, immediate);
+                    section.word(add(rt, rs, AT));
+                }
+            } else if (opcode == InstructionBuffer.Opcode.LW ||
+                       opcode == InstructionBuffer.Opcode.SW) {
+                memory(section,
+                       (opcode == InstructionBuffer.Opcode.LW) ? 0x23 : 0x2B,
+                       code.first(index).registerNumber,
+                       code.immediate(index),
+                       code.second(index).registerNumber);
+            } else if (opcode == InstructionBuffer.Opcode.LA) {
+                final int rd = code.first(index).registerNumber;
+                final int label = code.immediate(index);
+                section.relocate(R_MIPS_HI16, label);
+                section.word(lui(rd, 0));
+                section.relocate(R_MIPS_LO16, label);
+                section.word(addiu(rd, rd, 0));
+            } else if (opcode == InstructionBuffer.Opcode.LI) {
+                loadImmediate(section, code.first(index).registerNumber, code.immediate(index));
+            } else if (opcode == InstructionBuffer.Opcode.JAL) {
+                section.relocate(R_MIPS_26, code.immediate(index));
+                jump(section, 0x03 << 26);
+            } else if (opcode == InstructionBuffer.Opcode.JALR) {
+                jump(section, rType(code.first(index).registerNumber, 0, RA, 0x09));
+            } else if (opcode == InstructionBuffer.Opcode.JR) {
+                jump(section, rType(code.first(index).registerNumber, 0, 0, 0x08));
+            } else {
+                assert(opcode == InstructionBuffer.Opcode.SYSCALL);
+                section.word(0x0000000C);
+            }
+        }
+    } // encode
+    // ---END ENCODING---
+
+    // appends code to .text; its labels must come from this writer's table
+    public void addText(final InstructionBuffer code) {
+        assert(code.labels() == labels);
+        encode(text, code);
+    }
+
+    // appends labels and .words to .data, word aligned
+    public void addData(final InstructionBuffer code) {
+        assert(code.labels() == labels);
+        data.align(4);
+        encode(data, code);
+    }
+
+    // appends a zero-terminated string to .data, labelled with label
+    public void addAsciiz(final int label, final String contents) {
+        data.align(4);
+        define(label, data);
+        data.bytes(contents.getBytes(StandardCharsets.UTF_8));
+        data.bytes(new byte[] { 0 });
+    }
+
+    public int textSize() {
+        return text.size();
+    }
+
+    public int dataSize() {
+        return data.size();
+    }
+
+    // ---BEGIN WRITING---
+    // A string table under construction; offset 0 is the empty string.
+    private static class StringTable {
+        private final ByteBuffer bytes;
+
+        private StringTable(final int capacity) {
+            bytes = ByteBuffer.allocate(capacity + 1);
+            bytes.put((byte)0);
+        }
+
+        private int add(final byte[] string) {
+            final int offset = bytes.position();
+            bytes.put(string);
+            bytes.put((byte)0);
+            return offset;
+        }
+    } // StringTable
+
+    private static int align4(final int value) {
+        return (value + 3) & ~3;
+    }
+
+    private static void sectionHeader(final ByteBuffer output,
+                                      final int name,
+                                      final int type,
+                                      final int flags,
+                                      final int offset,
+                                      final int size,
+                                      final int link,
+                                      final int info,
+                                      final int alignment,
+                                      final int entrySize) {
+        output.putInt(name);
+        output.putInt(type);
+        output.putInt(flags);
+        output.putInt(0); // address; relocatable, so not yet placed
+        output.putInt(offset);
+        output.putInt(size);
+        output.putInt(link);
+        output.putInt(info);
+        output.putInt(alignment);
+        output.putInt(entrySize);
+    }
+
+    private static void symbol(final ByteBuffer output,
+                               final int name,
+                               final int value,
+                               final int binding,
+                               final int type,
+                               final int section) {
+        output.putInt(name);
+        output.putInt(value);
+        output.putInt(0); // size; not tracked
+        output.put((byte)((binding << 4) | type));
+        output.put((byte)0);
+        output.putShort((short)section);
+    }
+
+    private static void relocations(final ByteBuffer output,
+                                    final Section section,
+                                    final int[] symbolIndices) {
+        for (int index = 0; index < section.relocationsUsed; index += 3) {
+            output.putInt(section.relocations[index]);
+            output.putInt((symbolIndices[section.relocations[index + 2]] << 8) |
+                          section.relocations[index + 1]);
+        }
+    }
+
+    private boolean isGlobal(final int label) {
+        return sectionOf(label) == UNDEFINED || labels.name(label).equals("main");
+    }
+
+    // Symbols are the null symbol, one per section with contents, each
+    // local label, and then each global, as ELF requires locals first.
+    // Only labels defined or referred to get symbols.
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        final int numLabels = labels.size();
+        final boolean[] used = new boolean[numLabels];
+        for (int label = 0; label < numLabels; label++) {
+            used[label] = sectionOf(label) != UNDEFINED;
+        }
+        for (final Section section : new Section[] { text, data }) {
+            for (int index = 2; index < section.relocationsUsed; index += 3) {
+                used[section.relocations[index]] = true;
+            }
+        }
+
+        final byte[][] names = new byte[numLabels][];
+        int namesSize = 0;
+        for (int label = 0; label < numLabels; label++) {
+            if (used[label]) {
+                names[label] = labels.name(label).getBytes(StandardCharsets.UTF_8);
+                namesSize += names[label].length + 1;
+            }
+        }
+
+        // index 0 is the null symbol, then the two section symbols
+        final int[] symbolIndices = new int[numLabels];
+        int numSymbols = 3;
+        int firstGlobal = 0;
+        for (final boolean global : new boolean[] { false, true }) {
+            if (global) {
+                firstGlobal = numSymbols;
+            }
+            for (int label = 0; label < numLabels; label++) {
+                if (used[label] && isGlobal(label) == global) {
+                    symbolIndices[label] = numSymbols++;
+                }
+            }
+        }
+
+        final StringTable sectionNames = new StringTable(64);
+        final int[] sectionNameOffsets = new int[NUM_SECTIONS];
+        for (int section = 1; section < NUM_SECTIONS; section++) {
+            sectionNameOffsets[section] =
+                sectionNames.add(SECTION_NAMES[section].getBytes(StandardCharsets.US_ASCII));
+        }
+        final StringTable symbolNames = new StringTable(namesSize);
+
+        // file layout: header, then each section in order, then the
+        // section headers
+        final int[] offsets = new int[NUM_SECTIONS];
+        final int[] sizes = new int[NUM_SECTIONS];
+        sizes[TEXT] = text.size();
+        sizes[DATA] = data.size();
+        sizes[REL_TEXT] = text.numRelocations() * RELOCATION_SIZE;
+        sizes[REL_DATA] = data.numRelocations() * RELOCATION_SIZE;
+        sizes[SYMTAB] = numSymbols * SYMBOL_SIZE;
+        sizes[STRTAB] = namesSize + 1;
+        sizes[SHSTRTAB] = sectionNames.bytes.position();
+        int position = ELF_HEADER_SIZE;
+        for (int section = 1; section < NUM_SECTIONS; section++) {
+            position = align4(position);
+            offsets[section] = position;
+            position += sizes[section];
+        }
+        final int sectionHeadersOffset = align4(position);
+        final int fileSize = sectionHeadersOffset + NUM_SECTIONS * SECTION_HEADER_SIZE;
+
+        final ByteBuffer output = ByteBuffer.allocate(fileSize).order(order);
+        // ELF header
+        output.put(new byte[] { 0x7F, 'E', 'L', 'F' });
+        output.put((byte)1); // 32 bit
+        output.put((byte)((order == ByteOrder.LITTLE_ENDIAN) ? 1 : 2));
+        output.put((byte)1); // version
+        output.position(16);
+        output.putShort((short)ET_REL);
+        output.putShort((short)EM_MIPS);
+        output.putInt(1); // version
+        output.putInt(0); // entry point; none, since this isn't linked
+        output.putInt(0); // no program headers
+        output.putInt(sectionHeadersOffset);
+        output.putInt(EF_MIPS_ARCH_32 | EF_MIPS_NOREORDER);
+        output.putShort((short)ELF_HEADER_SIZE);
+        output.putShort((short)0);
+        output.putShort((short)0);
+        output.putShort((short)SECTION_HEADER_SIZE);
+        output.putShort((short)NUM_SECTIONS);
+        output.putShort((short)SHSTRTAB);
+
+        output.position(offsets[TEXT]);
+        output.put(text.bytes.array(), 0, text.size());
+        output.position(offsets[DATA]);
+        output.put(data.bytes.array(), 0, data.size());
+        output.position(offsets[REL_TEXT]);
+        relocations(output, text, symbolIndices);
+        output.position(offsets[REL_DATA]);
+        relocations(output, data, symbolIndices);
+
+        output.position(offsets[SYMTAB]);
+        symbol(output, 0, 0, STB_LOCAL, STT_NOTYPE, UNDEFINED);
+        symbol(output, 0, 0, STB_LOCAL, STT_SECTION, TEXT);
+        symbol(output, 0, 0, STB_LOCAL, STT_SECTION, DATA);
+        for (final boolean global : new boolean[] { false, true }) {
+            for (int label = 0; label < numLabels; label++) {
+                if (used[label] && isGlobal(label) == global) {
+                    final int section = sectionOf(label);
+                    symbol(output,
+                           symbolNames.add(names[label]),
+                           (section == UNDEFINED) ? 0 : labelOffsets[label],
+                           (global) ? STB_GLOBAL : STB_LOCAL,
+                           (section == TEXT) ? STT_FUNC : (section == DATA) ? STT_OBJECT : STT_NOTYPE,
+                           section);
+                }
+            }
+        }
+        output.position(offsets[STRTAB]);
+        output.put(symbolNames.bytes.array(), 0, symbolNames.bytes.position());
+        output.position(offsets[SHSTRTAB]);
+        output.put(sectionNames.bytes.array(), 0, sectionNames.bytes.position());
+
+        output.position(sectionHeadersOffset);
+        output.put(new byte[SECTION_HEADER_SIZE]); // the null section
+        sectionHeader(output, sectionNameOffsets[TEXT], SHT_PROGBITS, SHF_ALLOC | SHF_EXECINSTR,
+                      offsets[TEXT], sizes[TEXT], 0, 0, 4, 0);
+        sectionHeader(output, sectionNameOffsets[DATA], SHT_PROGBITS, SHF_ALLOC | SHF_WRITE,
+                      offsets[DATA], sizes[DATA], 0, 0, 4, 0);
+        sectionHeader(output, sectionNameOffsets[REL_TEXT], SHT_REL, SHF_INFO_LINK,
+                      offsets[REL_TEXT], sizes[REL_TEXT], SYMTAB, TEXT, 4, RELOCATION_SIZE);
+        sectionHeader(output, sectionNameOffsets[REL_DATA], SHT_REL, SHF_INFO_LINK,
+                      offsets[REL_DATA], sizes[REL_DATA], SYMTAB, DATA, 4, RELOCATION_SIZE);
+        sectionHeader(output, sectionNameOffsets[SYMTAB], SHT_SYMTAB, 0,
+                      offsets[SYMTAB], sizes[SYMTAB], STRTAB, firstGlobal, 4, SYMBOL_SIZE);
+        sectionHeader(output, sectionNameOffsets[STRTAB], SHT_STRTAB, 0,
+                      offsets[STRTAB], sizes[STRTAB], 0, 0, 1, 0);
+        sectionHeader(output, sectionNameOffsets[SHSTRTAB], SHT_STRTAB, 0,
+                      offsets[SHSTRTAB], sizes[SHSTRTAB], 0, 0, 1, 0);
+
+        output.flip();
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+    } // writeTo
+    // ---END WRITING---
+} // ElfObjectWriter
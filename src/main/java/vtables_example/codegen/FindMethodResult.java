@@ -5,10 +5,13 @@ import vtables_example.syntax.ClassName;
 public class FindMethodResult {
     public final boolean isVirtual;
     public final ClassName providesImplementation;
+    public final int vtableSlot; // -1 if the method isn't in the vtable
 
     public FindMethodResult(final boolean isVirtual,
-                            final ClassName providesImplementation) {
+                            final ClassName providesImplementation,
+                            final int vtableSlot) {
         this.isVirtual = isVirtual;
         this.providesImplementation = providesImplementation;
+        this.vtableSlot = vtableSlot;
     }
 }
@@ -0,0 +1,376 @@
+package vtables_example.codegen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compiled code, packed one entry per long rather than one object per
+// entry.  Each word holds an opcode, up to two registers, and either an
+// immediate, a label ID from the compilation's LabelTable, or the index of
+// a comment in a side table.  Words live in a growable long array, or, for very large
+// programs, in a growable direct buffer off the heap entirely.
+//
+// Codegen appends to this directly, and rendering reads it back without
+// building any MIPSEntry objects.  toEntries builds the equivalent list
+// of entries, for tests and anything else wanting objects.
+public final class InstructionBuffer {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final MIPSRegister[] REGISTERS = MIPSRegister.values();
+
+    public enum Opcode {
+        LABEL(null),
+        COMMENT(null),
+        WORD_LABEL(".word"),
+        ADDI("addi"),
+        LW("lw"),
+        SW("sw"),
+        LA("la"),
+        LI("li"),
+        JAL("jal"),
+        JALR("jalr"),
+        JR("jr"),
+        SYSCALL("syscall");
+
+        public final String mnemonic; // null for entries without one
+
+        Opcode(final String mnemonic) {
+            this.mnemonic = mnemonic;
+        }
+
+        // whether the operand is a label ID
+        public boolean hasLabel() {
+            return this == LABEL || this == WORD_LABEL || this == LA || this == JAL;
+        }
+    } // Opcode
+    private static final Opcode[] OPCODES = Opcode.values();
+
+    // ---BEGIN WORD LAYOUT---
+    // bits 0-31: immediate, label ID, or comment index
+    // bits 32-36: first register
+    // bits 37-41: second register
+    // bits 48-55: opcode
+    private static long pack(final Opcode opcode,
+                             final MIPSRegister first,
+                             final MIPSRegister second,
+                             final int operand) {
+        return (((long)opcode.ordinal() << 48) |
+                ((long)((second == null) ? 0 : second.ordinal()) << 37) |
+                ((long)((first == null) ? 0 : first.ordinal()) << 32) |
+                (operand & 0xFFFFFFFFL));
+    }
+
+    private static Opcode opcodeOf(final long word) {
+        return OPCODES[(int)(word >>> 48) & 0xFF];
+    }
+
+    private static MIPSRegister firstOf(final long word) {
+        return REGISTERS[(int)(word >>> 32) & 0x1F];
+    }
+
+    private static MIPSRegister secondOf(final long word) {
+        return REGISTERS[(int)(word >>> 37) & 0x1F];
+    }
+
+    private static int operandOf(final long word) {
+        return (int)word;
+    }
+    // ---END WORD LAYOUT---
+
+    private final boolean offHeap;
+    // exactly one of these is null
+    private long[] words;
+    private ByteBuffer offHeapWords;
+    private int size;
+    private final LabelTable labels;
+    private final List<String> comments;
+
+    public InstructionBuffer() {
+        this(new LabelTable(), false);
+    }
+
+    public InstructionBuffer(final boolean offHeap) {
+        this(new LabelTable(), offHeap);
+    }
+
+    public InstructionBuffer(final LabelTable labels, final boolean offHeap) {
+        this.labels = labels;
+        this.offHeap = offHeap;
+        if (offHeap) {
+            offHeapWords = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 8);
+        } else {
+            words = new long[INITIAL_CAPACITY];
+        }
+        size = 0;
+        comments = new ArrayList<String>();
+    }
+
+    public LabelTable labels() {
+        return labels;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+        comments.clear();
+    }
+
+    // ---BEGIN STORAGE---
+    private long word(final int index) {
+        assert(index < size);
+        return (offHeap) ? offHeapWords.getLong(index * 8) : words[index];
+    }
+
+    private void append(final long word) {
+        if (offHeap) {
+            if ((size + 1) * 8 > offHeapWords.capacity()) {
+                final ByteBuffer bigger = ByteBuffer.allocateDirect(offHeapWords.capacity() * 2);
+                offHeapWords.clear();
+                bigger.put(offHeapWords);
+                offHeapWords = bigger;
+            }
+            offHeapWords.putLong(size * 8, word);
+        } else {
+            if (size == words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            words[size] = word;
+        }
+        size++;
+    }
+
+    private int addComment(final String comment) {
+        comments.add(comment);
+        return comments.size() - 1;
+    }
+    // ---END STORAGE---
+
+    // ---BEGIN APPENDING---
+    public void label(final int label) {
+        append(pack(Opcode.LABEL, null, null, label));
+    }
+
+    public void label(final String name) {
+        label(labels.label(name));
+    }
+
+    public void comment(final String comment) {
+        append(pack(Opcode.COMMENT, null, null, addComment(comment)));
+    }
+
+    public void wordLabel(final int label) {
+        append(pack(Opcode.WORD_LABEL, null, null, label));
+    }
+
+    public void addi(final MIPSRegister rt, final MIPSRegister rs, final int immediate) {
+        append(pack(Opcode.ADDI, rt, rs, immediate));
+    }
+
+    public void lw(final MIPSRegister left, final int offset, final MIPSRegister right) {
+        append(pack(Opcode.LW, left, right, offset));
+    }
+
+    public void sw(final MIPSRegister left, final int offset, final MIPSRegister right) {
+        append(pack(Opcode.SW, left, right, offset));
+    }
+
+    public void la(final MIPSRegister rd, final int label) {
+        append(pack(Opcode.LA, rd, null, label));
+    }
+
+    public void li(final MIPSRegister rd, final int immediate) {
+        append(pack(Opcode.LI, rd, null, immediate));
+    }
+
+    public void jal(final int label) {
+        append(pack(Opcode.JAL, null, null, label));
+    }
+
+    public void jalr(final MIPSRegister rd) {
+        append(pack(Opcode.JALR, rd, null, 0));
+    }
+
+    public void jr(final MIPSRegister rd) {
+        append(pack(Opcode.JR, rd, null, 0));
+    }
+
+    public void syscall() {
+        append(pack(Opcode.SYSCALL, null, null, 0));
+    }
+
+    // packs an entry object
+    public void add(final MIPSEntry entry) {
+        if (entry instanceof Addi) {
+            final Addi asAddi = (Addi)entry;
+            addi(asAddi.rt, asAddi.rs, asAddi.immediate);
+        } else if (entry instanceof Lw) {
+            final Lw asLw = (Lw)entry;
+            lw(asLw.left, asLw.offset, asLw.right);
+        } else if (entry instanceof Sw) {
+            final Sw asSw = (Sw)entry;
+            sw(asSw.left, asSw.offset, asSw.right);
+        } else if (entry instanceof La) {
+            final La asLa = (La)entry;
+            la(asLa.rd, labels.label(asLa.label.name));
+        } else if (entry instanceof Li) {
+            final Li asLi = (Li)entry;
+            li(asLi.rd, asLi.immediate);
+        } else if (entry instanceof Jal) {
+            jal(labels.label(((Jal)entry).label.name));
+        } else if (entry instanceof Jalr) {
+            jalr(((Jalr)entry).rd);
+        } else if (entry instanceof Jr) {
+            jr(((Jr)entry).rd);
+        } else if (entry instanceof Syscall) {
+            syscall();
+        } else if (entry instanceof MIPSLabel) {
+            label(((MIPSLabel)entry).name);
+        } else if (entry instanceof MIPSComment) {
+            comment(((MIPSComment)entry).comment);
+        } else if (entry instanceof MIPSWordLabel) {
+            wordLabel(labels.label(((MIPSWordLabel)entry).label.name));
+        } else {
+            throw new IllegalArgumentException("Cannot pack entry: " + entry);
+        }
+    } // add
+
+    // appends everything in other, which is unchanged, and must share
+    // this buffer's labels
+    public void addAll(final InstructionBuffer other) {
+        assert(other.labels == labels);
+        final int commentBase = comments.size();
+        comments.addAll(other.comments);
+        for (int index = 0; index < other.size; index++) {
+            final long word = other.word(index);
+            if (opcodeOf(word) == Opcode.COMMENT) {
+                append(pack(Opcode.COMMENT, null, null, operandOf(word) + commentBase));
+            } else {
+                append(word);
+            }
+        }
+    } // addAll
+    // ---END APPENDING---
+
+    // ---BEGIN READING---
+    public Opcode opcode(final int index) {
+        return opcodeOf(word(index));
+    }
+
+    public MIPSRegister first(final int index) {
+        return firstOf(word(index));
+    }
+
+    public MIPSRegister second(final int index) {
+        return secondOf(word(index));
+    }
+
+    // the immediate, offset, or label ID
+    public int immediate(final int index) {
+        return operandOf(word(index));
+    }
+
+    // the label name or comment
+    public String string(final int index) {
+        return text(word(index));
+    }
+
+    private String text(final long word) {
+        if (opcodeOf(word) == Opcode.COMMENT) {
+            return comments.get(operandOf(word));
+        } else {
+            assert(opcodeOf(word).hasLabel());
+            return labels.name(operandOf(word));
+        }
+    }
+
+    // builds the entry object equivalent to the given entry
+    public MIPSEntry entry(final int index) {
+        final long word = word(index);
+        final Opcode opcode = opcodeOf(word);
+        if (opcode == Opcode.LABEL) {
+            return new MIPSLabel(text(word));
+        } else if (opcode == Opcode.COMMENT) {
+            return new MIPSComment(text(word));
+        } else if (opcode == Opcode.WORD_LABEL) {
+            return new MIPSWordLabel(new MIPSLabel(text(word)));
+        } else if (opcode == Opcode.ADDI) {
+            return new Addi(firstOf(word), secondOf(word), operandOf(word));
+        } else if (opcode == Opcode.LW) {
+            return new Lw(firstOf(word), operandOf(word), secondOf(word));
+        } else if (opcode == Opcode.SW) {
+            return new Sw(firstOf(word), operandOf(word), secondOf(word));
+        } else if (opcode == Opcode.LA) {
+            return new La(firstOf(word), new MIPSLabel(text(word)));
+        } else if (opcode == Opcode.LI) {
+            return new Li(firstOf(word), operandOf(word));
+        } else if (opcode == Opcode.JAL) {
+            return new Jal(new MIPSLabel(text(word)));
+        } else if (opcode == Opcode.JALR) {
+            return new Jalr(firstOf(word));
+        } else if (opcode == Opcode.JR) {
+            return new Jr(firstOf(word));
+        } else {
+            assert(opcode == Opcode.SYSCALL);
+            return new Syscall();
+        }
+    } // entry
+
+    public List<MIPSEntry> toEntries() {
+        final List<MIPSEntry> result = new ArrayList<MIPSEntry>(size);
+        for (int index = 0; index < size; index++) {
+            result.add(entry(index));
+        }
+        return result;
+    }
+
+    // each entry on a line of its own, exactly as the entry objects write
+    // themselves
+    public void writeTo(final AsciiWriter output) throws IOException {
+        for (int index = 0; index < size; index++) {
+            final long word = word(index);
+            final Opcode opcode = opcodeOf(word);
+            if (opcode == Opcode.LABEL) {
+                output.append(text(word)).append(':');
+            } else if (opcode == Opcode.COMMENT) {
+                output.append("# ").append(text(word));
+            } else {
+                output.append(MIPSInstruction.INDENT).append(opcode.mnemonic);
+                if (opcode == Opcode.WORD_LABEL || opcode == Opcode.JAL) {
+                    output.append(' ').append(text(word));
+                } else if (opcode == Opcode.ADDI) {
+                    output.append(' ').append(firstOf(word))
+                        .append(", ").append(secondOf(word))
+                        .append(", ").appendInt(operandOf(word));
+                } else if (opcode == Opcode.LW || opcode == Opcode.SW) {
+                    output.append(' ').append(firstOf(word))
+                        .append(", ").appendInt(operandOf(word))
+                        .append('(').append(secondOf(word)).append(')');
+                } else if (opcode == Opcode.LA) {
+                    output.append(' ').append(firstOf(word))
+                        .append(", ").append(text(word));
+                } else if (opcode == Opcode.LI) {
+                    output.append(' ').append(firstOf(word))
+                        .append(", ").appendInt(operandOf(word));
+                } else if (opcode == Opcode.JALR || opcode == Opcode.JR) {
+                    output.append(' ').append(firstOf(word));
+                } else {
+                    assert(opcode == Opcode.SYSCALL);
+                }
+            }
+            output.newline();
+        }
+    } // writeTo
+    // ---END READING---
+} // InstructionBuffer
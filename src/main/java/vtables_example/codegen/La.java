@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 public class La implements MIPSInstruction {
     public final MIPSRegister rd;
     public final MIPSLabel label;
@@ -16,6 +18,12 @@ public class La implements MIPSInstruction {
                 label.name);
     } // toString
 
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append(MIPSInstruction.INDENT).append("la ")
+            .append(rd).append(", ")
+            .append(label.name);
+    } // writeTo
+
     public int hashCode() {
         return rd.hashCode() + label.hashCode();
     } // hashCode
@@ -0,0 +1,193 @@
+package vtables_example.codegen;
+
+import vtables_example.syntax.ClassName;
+import vtables_example.syntax.MethodName;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// The labels of one compilation.  Each label is given a small integer ID
+// the first time it's asked for, and its name is built then and cached,
+// so instructions can refer to labels by ID and names are only built
+// once however often a function is called.  IDs are dense, from 0, in
+// the order labels were first asked for.
+//
+// With compact names, constructor, method and vtable labels are written
+// as an underscore and their ID in base 36, rather than being spelled
+// out, which shrinks the output considerably since they're repeated on
+// every call, allocation and vtable slot.  writeSymbolMap writes what
+// each one stands for.  Other labels, such as main, are written as-is.
+//
+// Generators compiling different functions at the same time share a
+// table, so it's synchronized.
+public class LabelTable {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long EMPTY_KEY = 0L;
+    // kinds of label made from names; nonzero, so no key is EMPTY_KEY
+    private static final long CONSTRUCTOR = 1L;
+    private static final long METHOD = 2L;
+    private static final long VTABLE = 3L;
+    // SPIM identifiers can't start with a digit, and $ followed by digits
+    // is a register
+    private static final String COMPACT_PREFIX = "_";
+
+    private final boolean compact;
+    private String[] names; // as spelled out
+    private String[] compactNames; // as written, if compact
+    private int size;
+    // Labels made from names are keyed by kind and name IDs, so looking
+    // one up builds nothing.  Open addressing, as in VariableTable.
+    private long[] keys;
+    private int[] values;
+    private int numKeys;
+    private final Map<String, Integer> byName;
+
+    public LabelTable() {
+        this(false);
+    }
+
+    public LabelTable(final boolean compact) {
+        this.compact = compact;
+        names = new String[INITIAL_CAPACITY];
+        compactNames = (compact) ? new String[INITIAL_CAPACITY] : null;
+        size = 0;
+        keys = new long[INITIAL_CAPACITY];
+        values = new int[INITIAL_CAPACITY];
+        numKeys = 0;
+        byName = new HashMap<String, Integer>();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // forgets every label, keeping the space grown so far
+    public synchronized void clear() {
+        Arrays.fill(names, 0, size, null);
+        if (compact) {
+            Arrays.fill(compactNames, 0, size, null);
+        }
+        size = 0;
+        Arrays.fill(keys, EMPTY_KEY);
+        numKeys = 0;
+        byName.clear();
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    // the name as written
+    public synchronized String name(final int id) {
+        assert(id >= 0 && id < size);
+        return (compact) ? compactNames[id] : names[id];
+    }
+
+    // the name as spelled out, whether or not compact
+    public synchronized String readableName(final int id) {
+        assert(id >= 0 && id < size);
+        return names[id];
+    }
+
+    // ---BEGIN KEYED LABELS---
+    private static long key(final long kind, final int first, final int second) {
+        assert(first >= 0 && second >= 0);
+        return (kind << 62) | ((long)first << 31) | second;
+    }
+
+    private int slot(final long key) {
+        final int mask = keys.length - 1;
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        while (keys[slot] != key && keys[slot] != EMPTY_KEY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // the ID of the label with key, or -1 if there isn't one yet
+    private int find(final long key) {
+        final int slot = slot(key);
+        return (keys[slot] == key) ? values[slot] : -1;
+    }
+
+    private int insert(final long key, final String name) {
+        final Integer existing = byName.get(name);
+        final int id = (existing != null) ? existing.intValue() : newLabel(name, true);
+        final int slot = slot(key);
+        keys[slot] = key;
+        values[slot] = id;
+        numKeys++;
+        if (numKeys * 2 > keys.length) {
+            final long[] oldKeys = keys;
+            final int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            for (int old = 0; old < oldKeys.length; old++) {
+                if (oldKeys[old] != EMPTY_KEY) {
+                    final int newSlot = slot(oldKeys[old]);
+                    keys[newSlot] = oldKeys[old];
+                    values[newSlot] = oldValues[old];
+                }
+            }
+        }
+        return id;
+    } // insert
+    // ---END KEYED LABELS---
+
+    public synchronized int constructorLabel(final ClassName forClass) {
+        final long key = key(CONSTRUCTOR, forClass.id(), 0);
+        final int id = find(key);
+        return (id >= 0) ? id : insert(key, "new_" + forClass.name);
+    }
+
+    public synchronized int methodLabel(final ClassName forClass,
+                                        final MethodName forMethod) {
+        final long key = key(METHOD, forClass.id(), forMethod.id());
+        final int id = find(key);
+        return (id >= 0) ? id : insert(key, forClass.name + "_" + forMethod.name);
+    }
+
+    public synchronized int vtableLabel(final ClassName forClass) {
+        final long key = key(VTABLE, forClass.id(), 0);
+        final int id = find(key);
+        return (id >= 0) ? id : insert(key, "$" + forClass.name + "_vtable");
+    }
+
+    // the label with this name, such as main; this is the same label as
+    // any other way of asking for it
+    public synchronized int label(final String name) {
+        final Integer existing = byName.get(name);
+        return (existing != null) ? existing.intValue() : newLabel(name, false);
+    }
+
+    private int newLabel(final String name, final boolean shorten) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            if (compact) {
+                compactNames = Arrays.copyOf(compactNames, size * 2);
+            }
+        }
+        names[size] = name;
+        if (compact) {
+            compactNames[size] = (shorten) ? COMPACT_PREFIX + Integer.toString(size, 36) : name;
+        }
+        byName.put(name, Integer.valueOf(size));
+        return size++;
+    } // newLabel
+
+    // one line per shortened label, in ID order: the name as written, a
+    // space, and the name spelled out
+    public synchronized void writeSymbolMap(final PrintWriter output) {
+        if (!compact) {
+            return;
+        }
+        for (int id = 0; id < size; id++) {
+            if (compactNames[id] != names[id]) {
+                output.println(compactNames[id] + " " + names[id]);
+            }
+        }
+    } // writeSymbolMap
+} // LabelTable
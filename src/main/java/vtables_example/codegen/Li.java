@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 public class Li implements MIPSInstruction {
     public final MIPSRegister rd;
     public final int immediate;
@@ -16,6 +18,12 @@ public class Li implements MIPSInstruction {
                 Integer.toString(immediate));
     } // toString
 
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append(MIPSInstruction.INDENT).append("li ")
+            .append(rd).append(", ")
+            .appendInt(immediate);
+    } // writeTo
+
     public boolean equals(final Object other) {
         if (other instanceof Li) {
             final Li otherLi = (Li)other;
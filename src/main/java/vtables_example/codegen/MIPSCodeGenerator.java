@@ -1,250 +1,324 @@
 package vtables_example.codegen;
 
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.BufferedWriter;
 import java.io.PrintWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 import vtables_example.syntax.*;
 
 public class MIPSCodeGenerator {
     // ---BEGIN CONSTANTS---
-    public static final Variable RA_VARIABLE = new Variable("$ra");
-    public static final Variable THIS_VARIABLE = new Variable("$this");
+    public static final Variable RA_VARIABLE = Variable.intern("$ra");
+    public static final Variable THIS_VARIABLE = Variable.intern("$this");
+    // classes compiled at once when streaming on an executor
+    public static final int CLASSES_IN_FLIGHT = 64;
+    // lines starting the data section, before any vtables
+    private static final String[] DATA_HEADER = new String[] {
+        ".data",
+        "newline:",
+        MIPSInstruction.INDENT + ".asciiz \"\\n\""
+    };
     // ---END CONSTANTS---
     
     // ---BEGIN INSTANCE VARIABLES---
-    private final Map<ClassName, ClassDefinition> classes;
-    private final List<MIPSEntry> entries;
+    // Everything apart from code and variables can be shared between
+    // generators compiling different functions at the same time: metadata
+    // is only read once constructed, and labels are synchronized.  Only
+    // reset changes metadata, between one program and the next.
+    private ClassMetadata metadata;
+    private final LabelTable labels;
+    private int newlineLabel;
+    private final InstructionBuffer code;
     private final VariableTable variables;
-    // holds offsets of methods in the final vtable
-    private final Map<ClassName, List<MethodName>> vtableMethodOffsets;
+    private final LhsAddressCompiler lhsAddressCompiler;
+    private final LhsValueCompiler lhsValueCompiler;
+    private final ExpCompiler expCompiler;
+    private final StmtCompiler stmtCompiler;
+    // null until functions are compiled one after another on this thread
+    private MIPSCodeGenerator scratch;
+    // with lazy metadata, the classes the program being compiled can reach,
+    // which are the only ones to write vtables for; null otherwise, or
+    // until a program is compiled
+    private Set<ClassName> reachable;
     // ---END INSTANCE VARIABLES
     
     public MIPSCodeGenerator(final Map<ClassName, ClassDefinition> classes) {
-        this.classes = classes;
-        entries = new ArrayList<MIPSEntry>();
-        variables = new VariableTable();
-        vtableMethodOffsets = new HashMap<ClassName, List<MethodName>>();
-        computeVTableMethodOffsets();
+        this(ClassMetadata.compute(classes));
     }
 
-    private void computeVTableMethodOffsets() {
-        for (final ClassDefinition def : classes.values()) {
-            computeVTableMethodOffsetsFor(def);
-        }
+    // shares an existing metadata snapshot, which can also be shared with
+    // any number of other generators
+    public MIPSCodeGenerator(final ClassMetadata metadata) {
+        this(metadata, false);
+    }
+
+    // with offHeap, the compiled program is held outside the Java heap;
+    // functions compiled separately are still held on the heap, but only
+    // until added to the rest
+    public MIPSCodeGenerator(final ClassMetadata metadata, final boolean offHeap) {
+        this(metadata, new LabelTable(), offHeap);
     }
 
-    // returns -1 if it's not in there
-    public static int methodOffset(final List<MethodName> vTable, final MethodName method) {
-        final int base = vTable.indexOf(method);
-        if (base != -1) {
-            return base * 4;
+    // labels are shared by every generator compiling part of one program;
+    // pass a compact table for compact label names
+    public MIPSCodeGenerator(final ClassMetadata metadata,
+                              final LabelTable labels,
+                              final boolean offHeap) {
+        this.metadata = metadata;
+        this.labels = labels;
+        newlineLabel = labels.label("newline");
+        code = new InstructionBuffer(labels, offHeap);
+        variables = new VariableTable();
+        lhsAddressCompiler = new LhsAddressCompiler();
+        lhsValueCompiler = new LhsValueCompiler();
+        expCompiler = new ExpCompiler();
+        stmtCompiler = new StmtCompiler();
+        scratch = null;
+        reachable = null;
+    }
+
+    // Readies this generator for another program, as though it had just
+    // been constructed with metadata, but keeping the buffers it has
+    // already grown.
+    public void reset(final ClassMetadata metadata) {
+        this.metadata = metadata;
+        code.clear();
+        variables.clear();
+        labels.clear();
+        newlineLabel = labels.label("newline");
+        reachable = null;
+    } // reset
+
+    // A generator for compiling functions one after another on this
+    // thread, emptied each time; reusing it saves allocating a generator
+    // and its buffers per function.
+    private MIPSCodeGenerator scratch() {
+        if (scratch == null) {
+            scratch = new MIPSCodeGenerator(metadata, labels, false);
         } else {
-            return -1;
+            scratch.metadata = metadata;
+            scratch.newlineLabel = newlineLabel;
+            scratch.code.clear();
+            scratch.variables.clear();
+        }
+        return scratch;
+    } // scratch
+
+    // ---BEGIN VISITORS---
+    // Puts the address of an lhs into the register given.
+    private class LhsAddressCompiler implements LhsVisitor<MIPSRegister, Void, RuntimeException> {
+        public Void visitVariableLhs(final VariableLhs lhs, final MIPSRegister destination) {
+            final int offset = variables.variableOffset(lhs.variable);
+            code.addi(destination, MIPSRegister.SP, offset);
+            return null;
         }
-    }
-    
-    private void computeVTableMethodOffsetsFor(final ClassDefinition def) {
-        if (vtableMethodOffsets.get(def.myName) == null) {
-            final List<MethodName> myOffsets = new ArrayList<MethodName>();
-            vtableMethodOffsets.put(def.myName, myOffsets);
-
-            // the base of my table is the parent's table
-            final List<MethodName> parentOffsets;
-            if (def.extendsName != null) {
-                computeVTableMethodOffsetsFor(classes.get(def.extendsName));
-                parentOffsets = vtableMethodOffsets.get(def.extendsName);
-            } else {
-                parentOffsets = new ArrayList<MethodName>();
-            }
-            myOffsets.addAll(parentOffsets);
 
+        public Void visitFieldAccessLhs(final FieldAccessLhs lhs, final MIPSRegister destination) {
+            final int offsetFromField = fieldOffset(lhs.getLhsClass(),
+                                                    lhs.field);
+            lhs.lhs.accept(this, destination);
+            code.lw(destination, 0, destination);
+            code.addi(destination, destination, offsetFromField);
+            return null;
+        }
 
-            // add in any virtual methods that aren't in the parent table
-            for (final MethodDefinition method : def.methods) {
-                if (method.isVirtual && methodOffset(myOffsets, method.name) == -1) {
-                    myOffsets.add(method.name);
-                }
+        public Void visitThisLhs(final ThisLhs lhs, final MIPSRegister destination) {
+            // direct assignment to this is disallowed (typechecker makes sure of this)
+            final int offset = variables.variableOffset(THIS_VARIABLE);
+            code.addi(destination, MIPSRegister.SP, offset);
+            return null;
+        }
+    } // LhsAddressCompiler
+
+    // Puts the value of an lhs into the register given.
+    private class LhsValueCompiler implements LhsVisitor<MIPSRegister, Void, RuntimeException> {
+        public Void visitVariableLhs(final VariableLhs lhs, final MIPSRegister resultIn) {
+            compileVariableAccess(lhs.variable, resultIn);
+            return null;
+        }
+
+        public Void visitFieldAccessLhs(final FieldAccessLhs lhs, final MIPSRegister resultIn) {
+            lhs.lhs.accept(this, resultIn);
+            final int offset = fieldOffset(lhs.getLhsClass(), lhs.field);
+            code.comment("lhs offset");
+            code.lw(resultIn, offset, resultIn);
+            return null;
+        }
+
+        public Void visitThisLhs(final ThisLhs lhs, final MIPSRegister resultIn) {
+            compileVariableAccess(THIS_VARIABLE, resultIn);
+            return null;
+        }
+    } // LhsValueCompiler
+
+    private class ExpCompiler implements ExpVisitor<MIPSRegister, Void, RuntimeException> {
+        public Void visitIntExp(final IntExp exp, final MIPSRegister resultIn) {
+            code.li(resultIn, exp.value);
+            return null;
+        }
+
+        public Void visitLhsExp(final LhsExp exp, final MIPSRegister resultIn) {
+            exp.lhs.accept(lhsValueCompiler, resultIn);
+            return null;
+        }
+    } // ExpCompiler
+
+    // Compiles statements within the class given, which is null for the
+    // entry point.
+    private class StmtCompiler implements StmtVisitor<ClassName, Void, RuntimeException> {
+        public Void visitNewStmt(final NewStmt stmt, final ClassName forClass) {
+            compileNewStmt(stmt);
+            return null;
+        }
+
+        public Void visitMethodCallStmt(final MethodCallStmt stmt, final ClassName forClass) {
+            compileMethodCallStmt(stmt);
+            return null;
+        }
+
+        public Void visitPrintStmt(final PrintStmt stmt, final ClassName forClass) {
+            compilePrintStmt(stmt);
+            return null;
+        }
+
+        public Void visitReturnStmt(final ReturnStmt stmt, final ClassName forClass) {
+            compileReturnStmt(stmt);
+            return null;
+        }
+
+        public Void visitAssignStmt(final AssignStmt stmt, final ClassName forClass) {
+            compileAssignStmt(stmt);
+            return null;
+        }
+
+        public Void visitSuperStmt(final SuperStmt stmt, final ClassName forClass) {
+            compileSuperStmt(forClass, stmt);
+            return null;
+        }
+
+        public Void visitSequenceStmt(final SequenceStmt stmt, final ClassName forClass) {
+            return visitBlockStmt(BlockStmt.flatten(stmt), forClass);
+        }
+
+        // blocks never nest, so this doesn't recurse however long the block is
+        public Void visitBlockStmt(final BlockStmt stmt, final ClassName forClass) {
+            for (final Stmt inner : stmt.stmts) {
+                inner.accept(this, forClass);
             }
+            return null;
         }
-    }
-    
+
+        public Void visitEmptyStmt(final EmptyStmt stmt, final ClassName forClass) {
+            compileEmptyStmt(stmt);
+            return null;
+        }
+    } // StmtCompiler
+    // ---END VISITORS---
+
     public void add(final MIPSEntry i) {
-        entries.add(i);
+        code.add(i);
     } // add
 
+    // the code compiled so far, as entry objects
+    public List<MIPSEntry> entries() {
+        return code.toEntries();
+    }
+
     // pushes the contents of this register onto the stack
     public void push(final MIPSRegister register) {
         // addi $sp, $sp, -4
         // sw register, 0($sp)
         final MIPSRegister sp = MIPSRegister.SP;
-        add(new Addi(sp, sp, -4));
-        add(new Sw(register, 0, sp));
+        code.addi(sp, sp, -4);
+        code.sw(register, 0, sp);
     } // push
 
     public void pop(final MIPSRegister register) {
         // lw register, 0($sp)
         // addi $sp, $sp, 4
         final MIPSRegister sp = MIPSRegister.SP;
-        add(new Lw(register, 0, sp));
-        add(new Addi(sp, sp, 4));
+        code.lw(register, 0, sp);
+        code.addi(sp, sp, 4);
     } // pop
 
+    public ClassMetadata metadata() {
+        return metadata;
+    }
+
+    public DispatchTable dispatchTableOf(final ClassName className) {
+        return metadata.dispatchTableOf(className);
+    }
+
     public boolean hasVtableEntries(final ClassName className) {
-        return !vtableMethodOffsets.get(className).isEmpty();
+        return dispatchTableOf(className).hasVtableEntries();
     }
-    
-    // each variable can hold either an int (4 bytes), or a reference to a class (4 bytes)
+
+    public ClassLayout layoutOf(final ClassName className) {
+        return metadata.layoutOf(className);
+    }
+
     public int sizeofClassWithoutVTable(final ClassName className) {
-        final ClassDefinition def = classes.get(className);
-        final int parentSize = (def.extendsName == null) ? 0 : sizeofClassWithoutVTable(def.extendsName);
-        return parentSize + def.instanceVariables.length * 4;
+        return layoutOf(className).sizeWithoutVTable;
     }
 
     public int sizeofClass(final ClassName className) {
-        final int vtableAdd = (hasVtableEntries(className)) ? 4 : 0;
-        return sizeofClassWithoutVTable(className) + vtableAdd;
+        return layoutOf(className).size;
     }
-    
-    // returns -1 if this class doesn't contain this field
-    private int selfFieldOffset(final ClassDefinition def, final Variable field) {
-        int offset = 0;
-        if (hasVtableEntries(def.myName) &&
-            (def.extendsName == null || !hasVtableEntries(def.extendsName))) {
-            // Account for the pointer to the vtable.  We only
-            // pay this cost if we have a vtable and our parent hasn't
-            // already paid the cost.
-            offset = 4;
-        }
-            
-        for (final VarDec dec : def.instanceVariables) {
-            if (dec.variable.equals(field)) {
-                return offset;
-            }
-            offset += 4;
-        }
-        return -1;
-    }
-    
-    private FieldOffsetResult fieldOffsetHelper(final ClassName className,
-                                                final Variable variable) {
-        final ClassDefinition def = classes.get(className);
-        if (def.extendsName != null) {
-            // see if my parent has it
-            final FieldOffsetResult fromParent = fieldOffsetHelper(def.extendsName, variable);
-            if (fromParent.found) {
-                return fromParent;
-            } else {
-                final int fromSelf = selfFieldOffset(def, variable);
-                if (fromSelf == -1) {
-                    // I don't have it and neither did my parent
-                    return new FieldOffsetResult(false, 0);
-                } else {
-                    // I do have it
-                    return new FieldOffsetResult(true, sizeofClass(def.extendsName) + fromSelf);
-                }
-            }
-        } else {
-            // no parent class
-            final int fromSelf = selfFieldOffset(def, variable);
-            if (fromSelf == -1) {
-                // I don't have it
-                return new FieldOffsetResult(false, 0);
-            } else {
-                // I do have it
-                return new FieldOffsetResult(true, fromSelf);
-            }
-        }
-    }
-    
+
     public int fieldOffset(final ClassName className,
                            final Variable variable) {
-        final FieldOffsetResult res = fieldOffsetHelper(className, variable);
-        assert(res.found);
-        return res.offset;
+        final int offset = layoutOf(className).fieldOffset(variable);
+        assert(offset != -1);
+        return offset;
     }
 
     public void putLhsAddressIntoRegister(final MIPSRegister destination,
                                           final Lhs lhs) {
-        if (lhs instanceof VariableLhs) {
-            final int offset = variables.variableOffset(((VariableLhs)lhs).variable);
-            add(new Addi(destination, MIPSRegister.SP, offset));
-        } else if (lhs instanceof FieldAccessLhs) {
-            final FieldAccessLhs asField = (FieldAccessLhs)lhs;
-            final int offsetFromField = fieldOffset(asField.getLhsClass(),
-                                                    asField.field);
-            putLhsAddressIntoRegister(destination, asField.lhs);
-            add(new Lw(destination, 0, destination));
-            add(new Addi(destination, destination, offsetFromField));
-        } else if (lhs instanceof ThisLhs) {
-            // direct assignment to this is disallowed (typechecker makes sure of this)
-            final int offset = variables.variableOffset(THIS_VARIABLE);
-            add(new Addi(destination, MIPSRegister.SP, offset));
-        } else {
-            assert(false);
-        }
+        lhs.accept(lhsAddressCompiler, destination);
     }
 
     public void compileVariableAccess(final Variable variable, final MIPSRegister resultIn) {
         final int offset = variables.variableOffset(variable);
-        add(new Lw(resultIn, offset, MIPSRegister.SP));
+        code.lw(resultIn, offset, MIPSRegister.SP);
     }
 
     public void compileLhsAsExpression(final Lhs lhs, final MIPSRegister resultIn) {
-        if (lhs instanceof VariableLhs) {
-            compileVariableAccess(((VariableLhs)lhs).variable, resultIn);
-        } else if (lhs instanceof FieldAccessLhs) {
-            final FieldAccessLhs asField = (FieldAccessLhs)lhs;
-            compileLhsAsExpression(asField.lhs, resultIn);
-            final int offset = fieldOffset(asField.getLhsClass(), asField.field);
-            add(new MIPSComment("lhs offset"));
-            add(new Lw(resultIn, offset, resultIn));
-        } else if (lhs instanceof ThisLhs) {
-            compileVariableAccess(THIS_VARIABLE, resultIn);
-        } else {
-            assert(false);
-        }
+        lhs.accept(lhsValueCompiler, resultIn);
     }
     
     public void compileExpression(final Exp exp, final MIPSRegister resultIn) {
-        if (exp instanceof IntExp) {
-            final int value = ((IntExp)exp).value;
-            add(new Li(resultIn, value));
-        } else if (exp instanceof LhsExp) {
-            compileLhsAsExpression(((LhsExp)exp).lhs, resultIn);
-        }
-    }
-
-    public static MIPSLabel constructorLabel(final ClassName forClass) {
-        return new MIPSLabel("new_" + forClass.name);
+        exp.accept(expCompiler, resultIn);
     }
 
-    public static MIPSLabel methodLabel(final ClassName forClass,
-                                        final MethodName forMethod) {
-        return new MIPSLabel(forClass.name + "_" + forMethod.name);
+    public LabelTable labels() {
+        return labels;
     }
 
-    public static MIPSLabel vtableLabel(final ClassName forClass) {
-        return new MIPSLabel("$" + forClass.name + "_vtable");
-    }
-    
     public void compileParams(final Exp[] params, final MIPSRegister temp) {
         final MIPSRegister sp = MIPSRegister.SP;
         int offset = -4;
         for (final Exp param : params) {
             compileExpression(param, temp);
-            add(new Sw(temp, offset, sp));
+            code.sw(temp, offset, sp);
             offset -= 4;
         }
         if (params.length > 0) {
-            add(new Addi(sp, sp, -(params.length * 4)));
+            code.addi(sp, sp, -(params.length * 4));
         }
     }
 
@@ -276,21 +350,21 @@ public class MIPSCodeGenerator {
         final int raOffset = variables.variableOffset(RA_VARIABLE);
         final MIPSRegister sp = MIPSRegister.SP;
         final MIPSRegister ra = MIPSRegister.RA;
-        add(new Lw(ra, raOffset, sp));
+        code.lw(ra, raOffset, sp);
 
         // move stack pointer to final position
         final int sizeOfAllVariables = variables.totalSizeOfAllVariables();
-        add(new Addi(sp, sp, sizeOfAllVariables));
+        code.addi(sp, sp, sizeOfAllVariables);
 
         // do the return
-        add(new Jr(ra));
+        code.jr(ra);
     }
 
-    private void compileFunction(final MIPSLabel label,
+    private void compileFunction(final int label,
                                  final ClassName forClass,
                                  final VarDec[] params,
                                  final Stmt body) {
-        add(label);
+        code.label(label);
         callEntrySetup(forClass, params);
         compileStatement(forClass, body);
         callExitSetup();
@@ -301,7 +375,7 @@ public class MIPSCodeGenerator {
         assert(variables.isEmpty());
 
         // this is always first
-        final ClassType classType = new ClassType(forClass);
+        final ClassType classType = TypeFactory.classType(forClass);
         variables.pushVariable(THIS_VARIABLE,
                                classType,
                                4);
@@ -326,14 +400,238 @@ public class MIPSCodeGenerator {
     }
 
     public void compileProgram(final Program program) {
-        add(new MIPSLabel("main"));
-        compileStatement(null, program.entryPoint);
+        compileProgram(program, null);
+    }
+
+    // the classes whose code is needed, in program order; with lazy
+    // metadata, this skips any class the program can't reach, and
+    // remembers which it can for vtablesToWrite
+    private List<ClassDefinition> classesToCompile(final Program program) {
+        final List<ClassDefinition> result = new ArrayList<ClassDefinition>(program.classes.length);
+        reachable = (metadata.isLazy()) ? ReachableClasses.of(program, metadata) : null;
+        for (final ClassDefinition def : program.classes) {
+            if (reachable == null || reachable.contains(def.myName)) {
+                result.add(def);
+            }
+        }
+        return result;
+    }
+
+    // Gives each class's labels their IDs in program order, before any
+    // code is compiled, so compact names don't depend on the order tasks
+    // happen to run in.
+    private void assignLabels(final List<ClassDefinition> toCompile) {
+        for (final ClassDefinition def : toCompile) {
+            labels.constructorLabel(def.myName);
+            for (final MethodDefinition method : def.methods) {
+                labels.methodLabel(def.myName, method.name);
+            }
+            labels.vtableLabel(def.myName);
+        }
+    }
+
+    private void compileMain(final Stmt entryPoint) {
+        code.label("main");
+        compileStatement(null, entryPoint);
         variables.clear();
         mainEnd();
-        for (final ClassDefinition def : program.classes) {
-            compileClass(def);
+    }
+
+    // Compiles each class as a separate task on the given executor, or on
+    // this thread if executor is null.  Every function is compiled into a
+    // buffer of its own with a frame table of its own, and the buffers are
+    // added in program order, so the output is the same either way.
+    public void compileProgram(final Program program,
+                               final ExecutorService executor) {
+        final List<ClassDefinition> toCompile = classesToCompile(program);
+        assignLabels(toCompile);
+        compileMain(program.entryPoint);
+        compileClasses(toCompile, executor);
+    } // compileProgram
+
+    // ---BEGIN SPLIT COMPILATION---
+    // With eager metadata, the data section and the code for the classes
+    // don't depend on the entry point at all.  These compile the two
+    // halves of compileProgram separately, so the classes can be compiled
+    // once and shared by any number of entry points: the header and code
+    // of a generator that compiled the entry point, followed by the code of
+    // one that compiled the classes, are exactly what compileProgram and
+    // writeTo would give.  Labels are assigned the same way for either
+    // half, so this holds with compact labels too.
+    public void compileEntryPointOnly(final Program program) {
+        assert(!metadata.isLazy());
+        assignLabels(classesToCompile(program));
+        compileMain(program.entryPoint);
+    }
+
+    public void compileClassesOnly(final Program program,
+                                   final ExecutorService executor) {
+        assert(!metadata.isLazy());
+        final List<ClassDefinition> toCompile = classesToCompile(program);
+        assignLabels(toCompile);
+        compileClasses(toCompile, executor);
+    }
+    // ---END SPLIT COMPILATION---
+
+    private void compileClasses(final List<ClassDefinition> toCompile,
+                                final ExecutorService executor) {
+        if (executor == null) {
+            for (final ClassDefinition def : toCompile) {
+                code.addAll(compileConstructorSeparately(scratch(), def));
+                for (final MethodDefinition method : def.methods) {
+                    code.addAll(compileMethodSeparately(scratch(), def, method));
+                }
+            }
+        } else {
+            final List<Callable<InstructionBuffer>> tasks =
+                new ArrayList<Callable<InstructionBuffer>>(toCompile.size());
+            for (final ClassDefinition def : toCompile) {
+                tasks.add(() -> compileClassSeparately(def));
+            }
+            try {
+                for (final Future<InstructionBuffer> result : executor.invokeAll(tasks)) {
+                    code.addAll(result.get());
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while compiling classes", e);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                } else if (cause instanceof Error) {
+                    throw (Error)cause;
+                } else {
+                    throw new IllegalStateException(cause);
+                }
+            }
         }
+    } // compileClasses
+
+    // ---BEGIN STREAMING---
+    // Compiles the program, writing it to sink as it goes, and closes sink
+    // once done.  The data section is written first, and then the code,
+    // a buffer at a time as functions are compiled, so rather than the
+    // whole program, only the function being compiled and a bounded queue
+    // of chunks waiting to be written are ever held.  Writing happens on a
+    // background thread, overlapping with codegen.
+    //
+    // If executor isn't null, classes are compiled on it, with at most
+    // CLASSES_IN_FLIGHT at a time, and written in program order.
+    //
+    // This writes exactly what compileProgram and then writeCompleteFile
+    // would, except that with lazy metadata, vtables are only written for
+    // classes the program can reach, which is all the code can refer to.
+    public void compileProgramTo(final Program program,
+                                 final ExecutorService executor,
+                                 final AsmSink sink) throws IOException {
+        assert(code.isEmpty());
+        final List<ClassDefinition> toCompile = classesToCompile(program);
+        assignLabels(toCompile);
+        final BackgroundWriter writer = new BackgroundWriter(sink);
+        // whatever went wrong first; if anything did, failing to close as
+        // well is only attached to it
+        Throwable failure = null;
+        try {
+            final AsciiWriter output = new AsciiWriter(writer);
+            // everything the data section needs has to be there up front
+            for (final ClassDefinition def : toCompile) {
+                dispatchTableOf(def.myName);
+            }
+            writeData(output);
+            output.appendLine(".text");
+
+            compileMain(program.entryPoint);
+            code.writeTo(output);
+            code.clear();
+
+            if (executor == null) {
+                for (final ClassDefinition def : toCompile) {
+                    compileConstructorSeparately(scratch(), def).writeTo(output);
+                    for (final MethodDefinition method : def.methods) {
+                        compileMethodSeparately(scratch(), def, method).writeTo(output);
+                    }
+                }
+            } else {
+                streamClasses(toCompile, executor, output);
+            }
+            output.flush();
+        } catch (final Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (failure == null) {
+                writer.close();
+            } else {
+                try {
+                    writer.close();
+                } catch (final Exception e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+    } // compileProgramTo
+
+    private void streamClasses(final List<ClassDefinition> toCompile,
+                               final ExecutorService executor,
+                               final AsciiWriter output) throws IOException {
+        final Deque<Future<InstructionBuffer>> inFlight = new ArrayDeque<Future<InstructionBuffer>>();
+        try {
+            for (final ClassDefinition def : toCompile) {
+                if (inFlight.size() == CLASSES_IN_FLIGHT) {
+                    inFlight.removeFirst().get().writeTo(output);
+                }
+                inFlight.addLast(executor.submit(() -> compileClassSeparately(def)));
+            }
+            while (!inFlight.isEmpty()) {
+                inFlight.removeFirst().get().writeTo(output);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compiling classes");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        } finally {
+            for (final Future<InstructionBuffer> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+    } // streamClasses
+    // ---END STREAMING---
+
+    // gen must be empty; the code returned is gen's own
+    private InstructionBuffer compileConstructorSeparately(final MIPSCodeGenerator gen,
+                                                           final ClassDefinition def) {
+        gen.compileConstructor(def.myName, def.constructor);
+        return gen.code;
     }
+
+    private InstructionBuffer compileMethodSeparately(final MIPSCodeGenerator gen,
+                                                      final ClassDefinition def,
+                                                      final MethodDefinition method) {
+        gen.compileMethod(def.myName, method);
+        return gen.code;
+    }
+
+    // returns the code for each of def's functions, each compiled with a
+    // new generator of its own, so this is safe from any thread
+    private InstructionBuffer compileClassSeparately(final ClassDefinition def) {
+        final InstructionBuffer result =
+            compileConstructorSeparately(new MIPSCodeGenerator(metadata, labels, false), def);
+        for (final MethodDefinition method : def.methods) {
+            result.addAll(compileMethodSeparately(new MIPSCodeGenerator(metadata, labels, false),
+                                                  def,
+                                                  method));
+        }
+        return result;
+    } // compileClassSeparately
     
     public void compileClass(final ClassDefinition def) {
         compileConstructor(def.myName, def.constructor);
@@ -344,7 +642,7 @@ public class MIPSCodeGenerator {
         
     public void compileMethod(final ClassName forClass,
                               final MethodDefinition method) {
-        compileFunction(methodLabel(forClass, method.name),
+        compileFunction(labels.methodLabel(forClass, method.name),
                         forClass,
                         method.params,
                         method.body);
@@ -352,7 +650,7 @@ public class MIPSCodeGenerator {
         
     public void compileConstructor(final ClassName forClass,
                                    final Constructor constructor) {
-        compileFunction(constructorLabel(forClass),
+        compileFunction(labels.constructorLabel(forClass),
                         forClass,
                         constructor.params,
                         constructor.body);
@@ -361,15 +659,15 @@ public class MIPSCodeGenerator {
     public void compileNewStmt(final NewStmt stmt) {
         // allocate space for the class on the heap
         final int size = sizeofClass(stmt.name);
-        add(new Li(MIPSRegister.A0, size));
-        add(new Li(MIPSRegister.V0, 9));
-        add(new Syscall());
+        code.li(MIPSRegister.A0, size);
+        code.li(MIPSRegister.V0, 9);
+        code.syscall();
 
         // if we have a vtable, add a pointer to it
         if (hasVtableEntries(stmt.name)) {
             final MIPSRegister t0 = MIPSRegister.T0;
-            add(new La(t0, vtableLabel(stmt.name)));
-            add(new Sw(t0, 0, MIPSRegister.V0));
+            code.la(t0, labels.vtableLabel(stmt.name));
+            code.sw(t0, 0, MIPSRegister.V0);
         }
         
         // put this address into it's place on the stack
@@ -387,20 +685,14 @@ public class MIPSCodeGenerator {
         compileParams(stmt.params, MIPSRegister.T0);
 
         // call the constructor
-        add(new Jal(constructorLabel(stmt.name)));
+        code.jal(labels.constructorLabel(stmt.name));
         variables.resetTo(resetPoint);
     }
 
     public FindMethodResult findMethod(final ClassName onClass, final MethodName methodName) {
-        final ClassDefinition def = classes.get(onClass);
-        for (final MethodDefinition method : def.methods) {
-            if (method.name.equals(methodName)) {
-                return new FindMethodResult(method.isVirtual, onClass);
-            }
-        }
-
-        // if I don't have it, my parent should (typechecker ensures this)
-        return findMethod(def.extendsName, methodName);
+        final FindMethodResult result = dispatchTableOf(onClass).findMethod(methodName);
+        assert(result != null); // typechecker ensures this
+        return result;
     }
     
     public void compileMethodCallStmt(final MethodCallStmt stmt) {
@@ -420,16 +712,16 @@ public class MIPSCodeGenerator {
         if (find.isVirtual) {
             // virtual calls need the vtable
             // pointer to vtable is first value in the object
-            add(new Lw(t0, 0, t0));
+            code.lw(t0, 0, t0);
             // index into the table wherever this method is
-            final int offset = methodOffset(vtableMethodOffsets.get(stmt.getOnClass()), stmt.name);
-            assert(offset != -1);
-            add(new MIPSComment("vtable offset calculation"));
-            add(new Lw(t0, offset, t0));
-            add(new Jalr(t0));
+            assert(find.vtableSlot != -1);
+            final int offset = find.vtableSlot * 4;
+            code.comment("vtable offset calculation");
+            code.lw(t0, offset, t0);
+            code.jalr(t0);
         } else {
             // non-virtual calls behave as normal function calls
-            add(new Jal(methodLabel(stmt.getOnClass(), stmt.name)));
+            code.jal(labels.methodLabel(stmt.getOnClass(), stmt.name));
         }
 
         // make space for the variable
@@ -441,13 +733,13 @@ public class MIPSCodeGenerator {
     }
 
     public void printA0() {
-        add(new Li(MIPSRegister.V0, 1));
-        add(new Syscall());
+        code.li(MIPSRegister.V0, 1);
+        code.syscall();
 
         // print a newline
-        add(new Li(MIPSRegister.V0, 4));
-        add(new La(MIPSRegister.A0, new MIPSLabel("newline")));
-        add(new Syscall());
+        code.li(MIPSRegister.V0, 4);
+        code.la(MIPSRegister.A0, newlineLabel);
+        code.syscall();
     }
 
     public void compilePrintStmt(final PrintStmt stmt) {
@@ -464,7 +756,7 @@ public class MIPSCodeGenerator {
             compileExpression(stmt.exp, MIPSRegister.V0);
         } else {
             // not strictly necessary
-            add(new Li(MIPSRegister.V0, 0));
+            code.li(MIPSRegister.V0, 0);
         }
     }
 
@@ -473,12 +765,12 @@ public class MIPSCodeGenerator {
         final MIPSRegister t1 = MIPSRegister.T1;
         compileExpression(stmt.exp, t0);
         putLhsAddressIntoRegister(t1, stmt.lhs);
-        add(new Sw(t0, 0, t1));
+        code.sw(t0, 0, t1);
     }
 
     public void compileSuperStmt(final ClassName forClass, final SuperStmt stmt) {
         assert(forClass != null); // typechecker checks this
-        final ClassDefinition def = classes.get(forClass);
+        final ClassDefinition def = metadata.classDefinition(forClass);
         assert(def.extendsName != null); // typechecker checks this
         
         // this is always first
@@ -492,13 +784,16 @@ public class MIPSCodeGenerator {
         compileParams(stmt.params, MIPSRegister.T0);
 
         // call superclass' constructor
-        add(new Jal(constructorLabel(def.extendsName)));
+        code.jal(labels.constructorLabel(def.extendsName));
         variables.resetTo(resetPoint);
     }
 
+    public void compileBlockStmt(final ClassName forClass, final BlockStmt stmt) {
+        stmtCompiler.visitBlockStmt(stmt, forClass);
+    }
+
     public void compileSequenceStmt(final ClassName forClass, final SequenceStmt stmt) {
-        compileStatement(forClass, stmt.first);
-        compileStatement(forClass, stmt.second);
+        stmtCompiler.visitSequenceStmt(stmt, forClass);
     }
 
     public void compileEmptyStmt(final EmptyStmt stmt) {
@@ -506,37 +801,17 @@ public class MIPSCodeGenerator {
     }
     
     public void compileStatement(final ClassName forClass, final Stmt stmt) {
-        if (stmt instanceof NewStmt) {
-            compileNewStmt((NewStmt)stmt);
-        } else if (stmt instanceof MethodCallStmt) {
-            compileMethodCallStmt((MethodCallStmt)stmt);
-        } else if (stmt instanceof PrintStmt) {
-            compilePrintStmt((PrintStmt)stmt);
-        } else if (stmt instanceof ReturnStmt) {
-            compileReturnStmt((ReturnStmt)stmt);
-        } else if (stmt instanceof AssignStmt) {
-            compileAssignStmt((AssignStmt)stmt);
-        } else if (stmt instanceof SuperStmt) {
-            compileSuperStmt(forClass, (SuperStmt)stmt);
-        } else if (stmt instanceof SequenceStmt) {
-            compileSequenceStmt(forClass, (SequenceStmt)stmt);
-        } else if (stmt instanceof EmptyStmt) {
-            compileEmptyStmt((EmptyStmt)stmt);
-        } else {
-            assert(false);
-        }
+        stmt.accept(stmtCompiler, forClass);
     }
 
-    private List<MIPSEntry> compileVTable(final ClassName forClass,
-                                          final List<MethodName> methodOffsets) {
-        assert(!methodOffsets.isEmpty());
-        final List<MIPSEntry> result = new ArrayList<MIPSEntry>();
+    private InstructionBuffer compileVTable(final DispatchTable table) {
+        assert(table.hasVtableEntries());
+        final InstructionBuffer result = new InstructionBuffer(labels, false);
         
-        result.add(vtableLabel(forClass));
-        for (final MethodName method : methodOffsets) {
-            final FindMethodResult find = findMethod(forClass, method);
-            final MIPSLabel label = methodLabel(find.providesImplementation, method);
-            result.add(new MIPSWordLabel(label));
+        result.label(labels.vtableLabel(table.className));
+        for (int slot = 0; slot < table.numSlots(); slot++) {
+            result.wordLabel(labels.methodLabel(table.slotImplementation(slot),
+                                                table.slotMethod(slot)));
         }
 
         return result;
@@ -544,8 +819,8 @@ public class MIPSCodeGenerator {
     
     private void mainEnd() {
         // exit
-        add(new Li(MIPSRegister.V0, 10));
-        add(new Syscall());
+        code.li(MIPSRegister.V0, 10);
+        code.syscall();
     } // mainEnd
 
     public static void outputEntries(final List<MIPSEntry> entries,
@@ -555,27 +830,115 @@ public class MIPSCodeGenerator {
         }
     }
     
-    private void writeData(final PrintWriter output) throws IOException {
-        output.println(".data");
-        output.println("newline:");
-        output.println(MIPSInstruction.INDENT + ".asciiz \"\\n\"");
-        for (final Map.Entry<ClassName, List<MethodName>> entry : vtableMethodOffsets.entrySet()) {
-            if (!entry.getValue().isEmpty()) {
-                final List<MIPSEntry> vtable = compileVTable(entry.getKey(), entry.getValue());
-                outputEntries(vtable, output);
+    // every vtable, in the order written.  With lazy metadata, only those
+    // of classes this program can reach; which classes the snapshot has
+    // computed depends on every program compiled with it so far, so it
+    // can't be used to decide.
+    private List<DispatchTable> vtablesToWrite() {
+        final List<DispatchTable> result = new ArrayList<DispatchTable>();
+        for (final ClassDefinition def : metadata.classDefinitions()) {
+            if (metadata.isLazy() && (reachable == null || !reachable.contains(def.myName))) {
+                // nothing in this program refers to it
+                continue;
+            }
+            final DispatchTable table = dispatchTableOf(def.myName);
+            if (table.hasVtableEntries()) {
+                result.add(table);
             }
         }
+        return result;
     }
-    
+
+    private void writeData(final PrintWriter output) throws IOException {
+        for (final String line : DATA_HEADER) {
+            output.println(line);
+        }
+        for (final DispatchTable table : vtablesToWrite()) {
+            outputEntries(compileVTable(table).toEntries(), output);
+        }
+    }
+
+    private void writeData(final AsciiWriter output) throws IOException {
+        for (final String line : DATA_HEADER) {
+            output.appendLine(line);
+        }
+        for (final DispatchTable table : vtablesToWrite()) {
+            compileVTable(table).writeTo(output);
+        }
+    }
+
+    // writes through a PrintWriter, building a String per entry
+    public void writeTo(final PrintWriter output) throws IOException {
+        writeData(output);
+        output.println(".text");
+        outputEntries(code.toEntries(), output);
+    }
+
+    // writes the same text, straight into bytes; this doesn't flush
+    public void writeTo(final AsciiWriter output) throws IOException {
+        writeHeaderTo(output);
+        writeCodeTo(output);
+    }
+
+    // everything writeTo writes before the code: the data section, and
+    // the start of the text section
+    public void writeHeaderTo(final AsciiWriter output) throws IOException {
+        writeData(output);
+        output.appendLine(".text");
+    }
+
+    public void writeCodeTo(final AsciiWriter output) throws IOException {
+        code.writeTo(output);
+    }
+
     public void writeCompleteFile(final File file) throws IOException {
-        final PrintWriter output =
-            new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                                                     StandardOpenOption.CREATE,
+                                                     StandardOpenOption.WRITE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING);
         try {
-            writeData(output);
-            output.println(".text");
-            outputEntries(entries, output);
+            final AsciiWriter output = new AsciiWriter(channel);
+            writeTo(output);
+            output.flush();
         } finally {
-            output.close();
+            channel.close();
         }
     } // writeCompleteFile
+
+    // Writes the program as an ELF32 relocatable object for little-endian
+    // MIPS32, rather than as assembly.
+    public void writeObjectTo(final WritableByteChannel channel) throws IOException {
+        final ElfObjectWriter object = new ElfObjectWriter(labels);
+        object.addAsciiz(newlineLabel, "\n");
+        for (final DispatchTable table : vtablesToWrite()) {
+            object.addData(compileVTable(table));
+        }
+        object.addText(code);
+        object.writeTo(channel);
+    } // writeObjectTo
+
+    public void writeObjectFile(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                                                     StandardOpenOption.CREATE,
+                                                     StandardOpenOption.WRITE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeObjectTo(channel);
+        } finally {
+            channel.close();
+        }
+    } // writeObjectFile
+
+    // what each compact label stands for; empty unless labels are compact
+    public void writeSymbolMap(final File file) throws IOException {
+        final PrintWriter output = new PrintWriter(file, "UTF-8");
+        try {
+            labels.writeSymbolMap(output);
+        } finally {
+            output.close();
+        }
+        if (output.checkError()) {
+            throw new IOException("Could not write " + file);
+        }
+    } // writeSymbolMap
 }
@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 public class MIPSComment implements MIPSEntry {
     public final String comment;
 
@@ -11,6 +13,10 @@ public class MIPSComment implements MIPSEntry {
         return "# " + comment;
     }
 
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append("# ").append(comment);
+    }
+
     public int hashCode() {
         return comment.hashCode();
     }
@@ -1,3 +1,8 @@
 package vtables_example.codegen;
 
-public interface MIPSEntry {}
+import java.io.IOException;
+
+public interface MIPSEntry {
+    // writes the same text as toString, without building a String
+    public void writeTo(AsciiWriter output) throws IOException;
+} // MIPSEntry
@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 public class MIPSLabel implements MIPSEntry {
     public final String name;
 
@@ -11,6 +13,10 @@ public class MIPSLabel implements MIPSEntry {
         return name + ":";
     }
 
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append(name).append(':');
+    }
+
     public boolean equals(final Object other) {
         return (other instanceof MIPSLabel &&
                 ((MIPSLabel)other).name.equals(name));
@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 // .word label
 public class MIPSWordLabel implements MIPSEntry {
     public final MIPSLabel label;
@@ -16,6 +18,10 @@ public class MIPSWordLabel implements MIPSEntry {
         return MIPSInstruction.INDENT + ".word " + label.name;
     }
 
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append(MIPSInstruction.INDENT).append(".word ").append(label.name);
+    }
+
     public boolean equals(final Object other) {
         return (other instanceof MIPSWordLabel &&
                 ((MIPSWordLabel)other).label.equals(label));
@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 public class MemoryInstruction implements MIPSInstruction {
     public final String instructionName;
     public final MIPSRegister left;
@@ -24,6 +26,14 @@ public class MemoryInstruction implements MIPSInstruction {
                 right.toString() + ")");
     } // toString
 
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append(MIPSInstruction.INDENT)
+            .append(instructionName).append(' ')
+            .append(left).append(", ")
+            .appendInt(offset).append('(')
+            .append(right).append(')');
+    } // writeTo
+
     public boolean equals(final Object other) {
         if (other instanceof MemoryInstruction) {
             final MemoryInstruction otherI =
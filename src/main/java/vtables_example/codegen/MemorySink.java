@@ -0,0 +1,26 @@
+package vtables_example.codegen;
+
+import java.io.ByteArrayOutputStream;
+
+// Keeps everything written in memory, such as for tests which would
+// otherwise need a temporary file.
+public class MemorySink extends OutputStreamSink {
+    private final ByteArrayOutputStream bytes;
+
+    public MemorySink() {
+        this(new ByteArrayOutputStream());
+    }
+
+    private MemorySink(final ByteArrayOutputStream bytes) {
+        super(bytes);
+        this.bytes = bytes;
+    }
+
+    public byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+
+    public String toString() {
+        return bytes.toString();
+    }
+} // MemorySink
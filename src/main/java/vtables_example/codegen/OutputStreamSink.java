@@ -0,0 +1,30 @@
+package vtables_example.codegen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+public class OutputStreamSink implements AsmSink {
+    private final OutputStream output;
+
+    public OutputStreamSink(final OutputStream output) {
+        this.output = output;
+    }
+
+    public void write(final ByteBuffer chunk) throws IOException {
+        if (chunk.hasArray()) {
+            output.write(chunk.array(),
+                         chunk.arrayOffset() + chunk.position(),
+                         chunk.remaining());
+            chunk.position(chunk.limit());
+        } else {
+            final byte[] copy = new byte[chunk.remaining()];
+            chunk.get(copy);
+            output.write(copy);
+        }
+    }
+
+    public void close() throws IOException {
+        output.close();
+    }
+} // OutputStreamSink
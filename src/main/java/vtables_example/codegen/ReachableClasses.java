@@ -0,0 +1,100 @@
+package vtables_example.codegen;
+
+import vtables_example.syntax.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Finds every class a program can need, starting from its entry point:
+// every class instantiated, and every class whose fields or methods are
+// used through a reference typed as that class, along with all of their
+// ancestors.  A call through a reference can jump straight to the
+// method's code, and its vtable is laid out from the class's, so these
+// are needed even if never instantiated themselves.  No code belonging
+// to any other class can ever run, and none of their metadata is ever
+// needed.
+public class ReachableClasses {
+    // collects the classes statements refer to directly; these are filled
+    // in by the typechecker, so the program must already be typechecked
+    private static class ClassCollector implements StmtVisitor<List<ClassName>, Void, RuntimeException>,
+                                                   ExpVisitor<List<ClassName>, Void, RuntimeException>,
+                                                   LhsVisitor<List<ClassName>, Void, RuntimeException> {
+        private Void visitExps(final Exp[] exps, final List<ClassName> found) {
+            for (final Exp exp : exps) {
+                exp.accept(this, found);
+            }
+            return null;
+        }
+
+        public Void visitVariableLhs(final VariableLhs lhs, final List<ClassName> found) { return null; }
+        public Void visitFieldAccessLhs(final FieldAccessLhs lhs, final List<ClassName> found) {
+            found.add(lhs.getLhsClass());
+            return lhs.lhs.accept(this, found);
+        }
+        public Void visitThisLhs(final ThisLhs lhs, final List<ClassName> found) { return null; }
+
+        public Void visitIntExp(final IntExp exp, final List<ClassName> found) { return null; }
+        public Void visitLhsExp(final LhsExp exp, final List<ClassName> found) {
+            return exp.lhs.accept(this, found);
+        }
+
+        public Void visitNewStmt(final NewStmt stmt, final List<ClassName> found) {
+            found.add(stmt.name);
+            return visitExps(stmt.params, found);
+        }
+        public Void visitMethodCallStmt(final MethodCallStmt stmt, final List<ClassName> found) {
+            found.add(stmt.getOnClass());
+            stmt.exp.accept(this, found);
+            return visitExps(stmt.params, found);
+        }
+        public Void visitPrintStmt(final PrintStmt stmt, final List<ClassName> found) {
+            return stmt.exp.accept(this, found);
+        }
+        public Void visitReturnStmt(final ReturnStmt stmt, final List<ClassName> found) {
+            return (stmt.exp == null) ? null : stmt.exp.accept(this, found);
+        }
+        public Void visitAssignStmt(final AssignStmt stmt, final List<ClassName> found) {
+            stmt.lhs.accept(this, found);
+            return stmt.exp.accept(this, found);
+        }
+        public Void visitSuperStmt(final SuperStmt stmt, final List<ClassName> found) {
+            return visitExps(stmt.params, found);
+        }
+        public Void visitSequenceStmt(final SequenceStmt stmt, final List<ClassName> found) {
+            return visitBlockStmt(BlockStmt.flatten(stmt), found);
+        }
+        public Void visitBlockStmt(final BlockStmt stmt, final List<ClassName> found) {
+            for (final Stmt inner : stmt.stmts) {
+                inner.accept(this, found);
+            }
+            return null;
+        }
+        public Void visitEmptyStmt(final EmptyStmt stmt, final List<ClassName> found) { return null; }
+    } // ClassCollector
+
+    public static Set<ClassName> of(final Program program,
+                                    final ClassMetadata metadata) {
+        final ClassCollector collector = new ClassCollector();
+        final Set<ClassName> result = new HashSet<ClassName>();
+        // classes referred to but not yet looked at
+        final List<ClassName> pending = new ArrayList<ClassName>();
+        program.entryPoint.accept(collector, pending);
+
+        while (!pending.isEmpty()) {
+            ClassName current = pending.remove(pending.size() - 1);
+            // the class and its ancestors, stopping at any already reached
+            while (current != null && result.add(current)) {
+                final ClassDefinition def = metadata.classDefinition(current);
+                assert(def != null); // typechecker ensures this
+                def.constructor.body.accept(collector, pending);
+                for (final MethodDefinition method : def.methods) {
+                    method.body.accept(collector, pending);
+                }
+                current = def.extendsName;
+            }
+        }
+        return result;
+    } // of
+} // ReachableClasses
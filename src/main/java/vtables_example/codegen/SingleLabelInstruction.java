@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 public class SingleLabelInstruction implements MIPSInstruction {
     public String instructionName;
     public final MIPSLabel label;
@@ -16,6 +18,12 @@ public class SingleLabelInstruction implements MIPSInstruction {
                 label.name);
     }
 
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append(MIPSInstruction.INDENT)
+            .append(instructionName).append(' ')
+            .append(label.name);
+    }
+
     public boolean equals(final Object other) {
         if (other instanceof SingleLabelInstruction) {
             final SingleLabelInstruction asSingle = (SingleLabelInstruction)other;
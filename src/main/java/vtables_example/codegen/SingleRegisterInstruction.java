@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 public class SingleRegisterInstruction implements MIPSInstruction {
     public final String instructionName;
     public final MIPSRegister rd;
@@ -16,6 +18,12 @@ public class SingleRegisterInstruction implements MIPSInstruction {
                 rd.toString());
     } // toString
 
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append(MIPSInstruction.INDENT)
+            .append(instructionName).append(' ')
+            .append(rd);
+    } // writeTo
+
     public boolean equals(final Object other) {
         if (other instanceof SingleRegisterInstruction) {
             final SingleRegisterInstruction otherI =
@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 public class Syscall implements MIPSInstruction {
     public int hashCode() { return 0; }
     public boolean equals(final Object other) {
@@ -8,4 +10,7 @@ public class Syscall implements MIPSInstruction {
     public String toString() {
         return MIPSInstruction.INDENT + "syscall";
     }
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append(MIPSInstruction.INDENT).append("syscall");
+    }
 } // Syscall
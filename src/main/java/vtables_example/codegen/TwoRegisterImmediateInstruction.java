@@ -1,5 +1,7 @@
 package vtables_example.codegen;
 
+import java.io.IOException;
+
 public class TwoRegisterImmediateInstruction implements MIPSInstruction {
     public final String instructionName;
     public final MIPSRegister rt;
@@ -24,6 +26,14 @@ public class TwoRegisterImmediateInstruction implements MIPSInstruction {
                 Integer.toString(immediate));
     } // toString
 
+    public void writeTo(final AsciiWriter output) throws IOException {
+        output.append(MIPSInstruction.INDENT)
+            .append(instructionName).append(' ')
+            .append(rt).append(", ")
+            .append(rs).append(", ")
+            .appendInt(immediate);
+    } // writeTo
+
     public boolean equals(final Object other) {
         if (other instanceof TwoRegisterImmediateInstruction) {
             final TwoRegisterImmediateInstruction otherI =
@@ -2,107 +2,216 @@ package vtables_example.codegen;
 
 import vtables_example.syntax.Variable;
 import vtables_example.syntax.Type;
-import vtables_example.syntax.VoidType;
-
-import java.util.Iterator;
-import java.util.LinkedList;
-
+import vtables_example.syntax.TypeFactory;
+
+import java.util.Arrays;
+
+// Frame layout is kept as an indexed stack, with entry 0 at the bottom
+// (furthest from $sp) and the most recently pushed entry at the top.
+// Alongside each entry we keep:
+//
+// - depthBelow[i]: the total size of every entry below entry i, so
+//   offsets and sizes between any two points are a single subtraction
+// - shadowed[i]: the index of the entry that entry i shadows, or -1
+//
+// topIndex maps each variable's name ID to its most recent (visible)
+// entry, or -1.  Popping an entry restores whatever it shadowed, so every
+// query and resetTo is O(1) per entry involved.  topIndex is a small
+// open-addressing hash table, sized by how many names the function uses;
+// an array indexed by ID would cost every table as much as the largest
+// ID ever interned, and codegen's own variables are interned late.
+// Slots are tagged with the generation they were filled in, and clear
+// starts a new generation, so emptying topIndex between functions is
+// O(1), and it only ever holds the names of one function.
 public class VariableTable {
-    private LinkedList<VariableEntry> variables;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Variable DUMMY_VARIABLE = Variable.intern("DUMMY");
+
+    private VariableEntry[] entries;
+    private int[] depthBelow;
+    private int[] shadowed;
+    private int size;
+    private int totalSize;
+    private int[] ids;
+    // topIndex: a slot is in use only if its generation is the current
+    // one; keys are never removed until clear, instead mapping to -1 once
+    // no longer visible
+    private int[] topKeys;
+    private int[] topValues;
+    private int[] topGenerations;
+    private int generation; // never 0, so new slots start out empty
+    private int numTopKeys;
 
     public VariableTable() {
-        variables = new LinkedList<VariableEntry>();
+        entries = new VariableEntry[INITIAL_CAPACITY];
+        depthBelow = new int[INITIAL_CAPACITY];
+        shadowed = new int[INITIAL_CAPACITY];
+        ids = new int[INITIAL_CAPACITY];
+        size = 0;
+        totalSize = 0;
+        topKeys = new int[INITIAL_CAPACITY];
+        topValues = new int[INITIAL_CAPACITY];
+        topGenerations = new int[INITIAL_CAPACITY];
+        generation = 1;
+        numTopKeys = 0;
+    }
+
+    private void ensureCapacity() {
+        if (size == entries.length) {
+            final int newCapacity = entries.length * 2;
+            entries = Arrays.copyOf(entries, newCapacity);
+            depthBelow = Arrays.copyOf(depthBelow, newCapacity);
+            shadowed = Arrays.copyOf(shadowed, newCapacity);
+            ids = Arrays.copyOf(ids, newCapacity);
+        }
+    }
+
+    // ---BEGIN TOP INDEX---
+    // where id is, or would go, in topKeys
+    private int topSlot(final int id) {
+        final int mask = topKeys.length - 1;
+        final int hash = id * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (topGenerations[slot] == generation && topKeys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean inUse(final int slot) {
+        return topGenerations[slot] == generation;
     }
 
+    private int getTop(final int id) {
+        final int slot = topSlot(id);
+        return (inUse(slot)) ? topValues[slot] : -1;
+    }
+
+    private void putTop(final int id, final int index) {
+        final int slot = topSlot(id);
+        if (inUse(slot)) {
+            topValues[slot] = index;
+            return;
+        }
+        topKeys[slot] = id;
+        topValues[slot] = index;
+        topGenerations[slot] = generation;
+        numTopKeys++;
+        if (numTopKeys * 2 > topKeys.length) {
+            final int[] oldKeys = topKeys;
+            final int[] oldValues = topValues;
+            final int[] oldGenerations = topGenerations;
+            topKeys = new int[oldKeys.length * 2];
+            topValues = new int[oldKeys.length * 2];
+            topGenerations = new int[oldKeys.length * 2];
+            for (int old = 0; old < oldKeys.length; old++) {
+                if (oldGenerations[old] == generation) {
+                    final int newSlot = topSlot(oldKeys[old]);
+                    topKeys[newSlot] = oldKeys[old];
+                    topValues[newSlot] = oldValues[old];
+                    topGenerations[newSlot] = generation;
+                }
+            }
+        }
+    } // putTop
+
+    // empties topIndex, keeping its capacity
+    private void clearTop() {
+        generation++;
+        if (generation == 0) {
+            // wrapped around; every old tag has to go
+            Arrays.fill(topGenerations, 0);
+            generation = 1;
+        }
+        numTopKeys = 0;
+    } // clearTop
+
+    // how many slots topIndex has; for tests
+    int topCapacity() {
+        return topKeys.length;
+    }
+    // ---END TOP INDEX---
+
     public void pushVariable(final Variable variable,
                              final Type type,
                              final int size) {
-        variables.push(new VariableEntry(variable, type, size));
+        ensureCapacity();
+        final int index = this.size;
+        final int id = variable.id();
+        entries[index] = new VariableEntry(variable, type, size);
+        depthBelow[index] = totalSize;
+        shadowed[index] = getTop(id);
+        ids[index] = id;
+        putTop(id, index);
+        this.size++;
+        totalSize += size;
     }
 
     public void pushDummy(final int size) {
-        pushVariable(new Variable("DUMMY"),
-                     new VoidType(),
+        pushVariable(DUMMY_VARIABLE,
+                     TypeFactory.voidType(),
                      size);
     }
-    
+
     public VariableTableResetPoint makeResetPoint() {
-        return new VariableTableResetPoint(variables.size());
+        return new VariableTableResetPoint(size);
+    }
+
+    private int depthAt(final int index) {
+        return (index == size) ? totalSize : depthBelow[index];
     }
 
     public int sizeAllocatedSinceResetPoint(final VariableTableResetPoint resetPoint) {
-        int size = variables.size();
         final int targetSize = resetPoint.resetTo;
         assert(targetSize <= size);
         assert(targetSize >= 0);
-        int totalSize = 0;
-        final Iterator<VariableEntry> it = variables.iterator();
-
-        while (size > targetSize) {
-            final boolean hasNext = it.hasNext();
-            assert(hasNext);
-            totalSize += it.next().size;
-            size--;
-        }
-
-        return totalSize;
+        return totalSize - depthAt(targetSize);
     }
-    
+
     // returns the amount of space freed on the stack
     public int resetTo(final VariableTableResetPoint resetPoint) {
-        int size = variables.size();
         final int targetSize = resetPoint.resetTo;
         assert(targetSize <= size);
-        int sizeFreed = 0;
+        final int sizeFreed = sizeAllocatedSinceResetPoint(resetPoint);
 
         while (size != targetSize) {
-            final VariableEntry entry = variables.pop();
-            sizeFreed += entry.size;
             size--;
+            putTop(ids[size], shadowed[size]);
+            entries[size] = null;
         }
+        totalSize -= sizeFreed;
 
         return sizeFreed;
     }
 
+    private int indexOf(final Variable variable) {
+        final int index = getTop(variable.id());
+        assert(index != -1);
+        return index;
+    }
+
     // gets starting position in memory
     public int variableOffset(final Variable variable) {
-        int offset = 0;
-        for (final VariableEntry entry : variables) {
-            if (entry.variable.equals(variable)) {
-                return offset;
-            } else {
-                offset += entry.size;
-            }
-        }
-
-        assert(false);
-        return offset;
+        final int index = indexOf(variable);
+        return totalSize - depthBelow[index] - entries[index].size;
     }
 
     public int variableSize(final Variable variable) {
-        for (final VariableEntry entry : variables) {
-            if (entry.variable.equals(variable)) {
-                return entry.size;
-            }
-        }
-        assert(false);
-        return 0;
+        return entries[indexOf(variable)].size;
     }
 
     public int totalSizeOfAllVariables() {
-        int result = 0;
-
-        for (final VariableEntry entry : variables) {
-            result += entry.size;
-        }
-        return result;
+        return totalSize;
     }
-    
+
     public boolean isEmpty() {
-        return variables.isEmpty();
+        return size == 0;
     }
 
     public void clear() {
-        variables.clear();
+        Arrays.fill(entries, 0, size, null);
+        clearTop();
+        size = 0;
+        totalSize = 0;
     }
 } // VariableTable
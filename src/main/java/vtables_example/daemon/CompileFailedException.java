@@ -0,0 +1,9 @@
+package vtables_example.daemon;
+
+// A compile the daemon refused, with its diagnostic: a type error, or a
+// request it couldn't make sense of.
+public class CompileFailedException extends Exception {
+    public CompileFailedException(final String message) {
+        super(message);
+    }
+}
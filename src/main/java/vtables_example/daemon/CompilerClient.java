@@ -0,0 +1,134 @@
+package vtables_example.daemon;
+
+import vtables_example.syntax.AstCodec;
+import vtables_example.syntax.ClassDefinition;
+import vtables_example.syntax.Program;
+import vtables_example.syntax.Stmt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Sends requests to a CompilerDaemon, each over a connection of its own.
+// This does no compiling, so it loads few classes and starts quickly.
+public class CompilerClient {
+    private final Path socket;
+
+    public CompilerClient(final Path socket) {
+        this.socket = socket;
+    }
+
+    // sends one request, returning the response's output, or throwing its
+    // diagnostic
+    private byte[] request(final int kind,
+                           final int options,
+                           final byte[] library,
+                           final byte[] entryPoint) throws IOException, CompileFailedException {
+        final SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        try {
+            final DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(Protocol.MAGIC);
+            out.writeByte(kind);
+            if (kind == Protocol.COMPILE) {
+                out.writeInt(options);
+                Protocol.writeSection(out, library);
+                Protocol.writeSection(out, entryPoint);
+            }
+            out.flush();
+
+            final DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            final int status = in.readUnsignedByte();
+            final byte[] payload = AstCodec.readSection(in, Protocol.MAX_SECTION);
+            if (status == Protocol.OK) {
+                return payload;
+            } else if (status == Protocol.FAILED) {
+                throw new CompileFailedException(new String(payload, StandardCharsets.UTF_8));
+            } else {
+                throw new IOException("Unknown response status: " + status);
+            }
+        } finally {
+            channel.close();
+        }
+    } // request
+
+    // library and entryPoint as encoded by AstCodec; a client compiling
+    // many entry points against one library need only encode it once
+    public byte[] compile(final byte[] library,
+                          final byte[] entryPoint,
+                          final int options) throws IOException, CompileFailedException {
+        return request(Protocol.COMPILE, options, library, entryPoint);
+    }
+
+    public byte[] compile(final ClassDefinition[] classes,
+                          final Stmt entryPoint,
+                          final int options) throws IOException, CompileFailedException {
+        return compile(AstCodec.encodeClasses(classes), AstCodec.encodeStmt(entryPoint), options);
+    }
+
+    public byte[] compile(final Program program,
+                          final int options) throws IOException, CompileFailedException {
+        return compile(program.classes, program.entryPoint, options);
+    }
+
+    // asks the daemon to stop accepting connections and exit
+    public void shutdown() throws IOException {
+        try {
+            request(Protocol.SHUTDOWN, 0, null, null);
+        } catch (final CompileFailedException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    // Usage: CompilerClient socket input output [compact] [object]
+    //        CompilerClient socket stop
+    //
+    // input holds a program as written by AstCodec.encodeProgram.  Only
+    // the two sections are split out; nothing is decoded here.
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 2 && args[1].equals("stop")) {
+            new CompilerClient(Paths.get(args[0])).shutdown();
+            return;
+        } else if (args.length < 3) {
+            System.err.println("Usage: CompilerClient socket input output [compact] [object]");
+            System.err.println("       CompilerClient socket stop");
+            System.exit(1);
+        }
+        int options = 0;
+        for (int index = 3; index < args.length; index++) {
+            if (args[index].equals("compact")) {
+                options |= Protocol.COMPACT_LABELS;
+            } else if (args[index].equals("object")) {
+                options |= Protocol.OBJECT_FILE;
+            } else {
+                System.err.println("Unknown option: " + args[index]);
+                System.exit(1);
+            }
+        }
+
+        final byte[] input = Files.readAllBytes(Paths.get(args[1]));
+        final DataInputStream sections = new DataInputStream(new ByteArrayInputStream(input));
+        final byte[] library = AstCodec.readSection(sections, input.length);
+        final byte[] entryPoint = AstCodec.readSection(sections, input.length);
+        try {
+            final byte[] output = new CompilerClient(Paths.get(args[0])).compile(library,
+                                                                                  entryPoint,
+                                                                                  options);
+            Files.write(Paths.get(args[2]), output);
+        } catch (final CompileFailedException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    } // main
+} // CompilerClient
@@ -0,0 +1,369 @@
+package vtables_example.daemon;
+
+import vtables_example.codegen.AsciiWriter;
+import vtables_example.codegen.ClassMetadata;
+import vtables_example.codegen.LabelTable;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.AstBuilder;
+import vtables_example.syntax.AstCodec;
+import vtables_example.syntax.ClassDefinition;
+import vtables_example.syntax.EmptyStmt;
+import vtables_example.syntax.Program;
+import vtables_example.syntax.Stmt;
+import vtables_example.typechecker.TypeErrorException;
+import vtables_example.typechecker.Typechecker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// A long-running compiler, serving requests over a Unix domain socket, so
+// that the JVM starts once and the JIT stays warm from one compile to the
+// next.  See Protocol for what goes over the socket.
+//
+// Class libraries are decoded, typechecked, and laid out once, and then
+// cached, keyed by the SHA-256 hash of their encoding, along with the
+// assembly for the classes' code: a request sending the same library
+// again only has its entry point checked and compiled.  A library that
+// changes at all hashes differently, so it's simply a miss, and the least
+// recently used libraries are dropped once there are more than cacheSize.
+//
+// Connections are each served on the executor given.  Entry points are
+// typechecked one at a time per library; otherwise, requests only read a
+// cached library, so run concurrently.
+public class CompilerDaemon {
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final ExecutorService executor;
+    // least recently used first; guarded by itself
+    private final Map<ByteBuffer, Library> cache;
+    private final LongAdder cacheHits;
+    private final LongAdder cacheMisses;
+    private final AtomicBoolean closed;
+
+    // A class library, ready to compile entry points against.
+    private static class Library {
+        private final ClassDefinition[] classes;
+        private final Typechecker typechecker;
+        private final ClassMetadata metadata;
+        // the assembly for the classes' own code, for readable and for
+        // compact labels; each null until first needed, and guarded by this
+        private final byte[][] classCode;
+
+        private Library(final ClassDefinition[] classes) throws TypeErrorException {
+            this.classes = classes;
+            typechecker = new Typechecker(Typechecker.classMapping(classes));
+            typechecker.typecheckAllClasses();
+            metadata = ClassMetadata.compute(typechecker.classes);
+            classCode = new byte[2][];
+        }
+
+        // the typechecker fills in its member cache as it goes, so only
+        // one entry point is checked at a time
+        private synchronized void typecheckEntryPoint(final Stmt entryPoint) throws TypeErrorException {
+            typechecker.typecheckEntryPoint(entryPoint);
+        }
+
+        private synchronized byte[] classCode(final boolean compact) throws IOException {
+            final int index = (compact) ? 1 : 0;
+            if (classCode[index] == null) {
+                final MIPSCodeGenerator generator =
+                    new MIPSCodeGenerator(metadata, new LabelTable(compact), false);
+                generator.compileClassesOnly(new Program(classes, new EmptyStmt()), null);
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final AsciiWriter output = new AsciiWriter(Channels.newChannel(bytes));
+                generator.writeCodeTo(output);
+                output.flush();
+                classCode[index] = bytes.toByteArray();
+            }
+            return classCode[index];
+        }
+    } // Library
+
+    // Listens on socket, which mustn't be in use by a live daemon; a file
+    // left over from one that died is removed.
+    public CompilerDaemon(final Path socket,
+                          final ExecutorService executor,
+                          final int cacheSize) throws IOException {
+        assert(cacheSize > 0);
+        this.socket = socket;
+        this.executor = executor;
+        cache = new LinkedHashMap<ByteBuffer, Library>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, Library> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        cacheHits = new LongAdder();
+        cacheMisses = new LongAdder();
+        closed = new AtomicBoolean(false);
+
+        removeStaleSocket(socket);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            bindPrivately(server, socket);
+        } catch (final IOException e) {
+            server.close();
+            throw e;
+        }
+    } // CompilerDaemon
+
+    // The daemon compiles whatever it's sent, so only its owner gets to
+    // send anything.  Restricting the socket after binding it at socket
+    // would leave a window when anyone could connect, so it's bound in a
+    // new directory only the owner can get into, restricted there, and
+    // then linked into place.  Linking fails if socket exists, just as
+    // binding there would.
+    private static void bindPrivately(final ServerSocketChannel server,
+                                      final Path socket) throws IOException {
+        final Path directory =
+            Files.createTempDirectory(socket.toAbsolutePath().getParent(),
+                                      ".daemon",
+                                      PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        final Path bound = directory.resolve("socket");
+        try {
+            server.bind(UnixDomainSocketAddress.of(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.createLink(socket, bound);
+        } finally {
+            Files.deleteIfExists(bound);
+            Files.delete(directory);
+        }
+    } // bindPrivately
+
+    private static void removeStaleSocket(final Path socket) throws IOException {
+        if (!Files.exists(socket)) {
+            return;
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+        } catch (final ConnectException e) {
+            // nothing is listening
+            Files.delete(socket);
+            return;
+        }
+        throw new IOException("A daemon is already listening on " + socket);
+    }
+
+    public Path socket() {
+        return socket;
+    }
+
+    public long cacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long cacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    // Accepts connections until closed, either by a SHUTDOWN request or by
+    // close.  Connections already accepted are still served to the end.
+    public void serve() throws IOException {
+        while (true) {
+            final SocketChannel connection;
+            try {
+                connection = server.accept();
+            } catch (final ClosedChannelException e) {
+                return;
+            }
+            try {
+                executor.execute(() -> serveConnection(connection));
+            } catch (final RejectedExecutionException e) {
+                connection.close();
+            }
+        }
+    } // serve
+
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            try {
+                server.close();
+            } finally {
+                Files.deleteIfExists(socket);
+            }
+        }
+    }
+
+    // ---BEGIN CONNECTIONS---
+    private void serveConnection(final SocketChannel connection) {
+        try {
+            final DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Channels.newInputStream(connection)));
+            final DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(connection)));
+            while (serveRequest(in, out)) {
+                out.flush();
+            }
+            out.flush();
+        } catch (final IOException e) {
+            // the client went away, or isn't speaking the protocol; either
+            // way, there's nobody to tell
+        } finally {
+            try {
+                connection.close();
+            } catch (final IOException e) {
+                // already done with it
+            }
+        }
+    } // serveConnection
+
+    // returns false once there are no more requests on this connection
+    private boolean serveRequest(final DataInputStream in,
+                                 final DataOutputStream out) throws IOException {
+        final int magic;
+        try {
+            magic = in.readInt();
+        } catch (final EOFException e) {
+            return false;
+        }
+        if (magic != Protocol.MAGIC) {
+            throw new IOException("Not a compile request");
+        }
+        final int kind = in.readUnsignedByte();
+        if (kind == Protocol.COMPILE) {
+            final int options = in.readInt();
+            final byte[] library = AstCodec.readSection(in, Protocol.MAX_SECTION);
+            final byte[] entryPoint = AstCodec.readSection(in, Protocol.MAX_SECTION);
+            try {
+                final byte[] output = compile(library, entryPoint, options);
+                out.writeByte(Protocol.OK);
+                Protocol.writeSection(out, output);
+            } catch (final CompileFailedException e) {
+                out.writeByte(Protocol.FAILED);
+                Protocol.writeSection(out, e.getMessage().getBytes(StandardCharsets.UTF_8));
+            }
+            return true;
+        } else if (kind == Protocol.SHUTDOWN) {
+            close();
+            out.writeByte(Protocol.OK);
+            Protocol.writeSection(out, new byte[0]);
+            return false;
+        } else {
+            throw new IOException("Unknown request kind: " + kind);
+        }
+    } // serveRequest
+    // ---END CONNECTIONS---
+
+    // ---BEGIN COMPILING---
+    private static byte[] sha256(final byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (final NoSuchAlgorithmException e) {
+            // every Java platform is required to have it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Library libraryFor(final byte[] encoded) throws IOException, TypeErrorException {
+        // wrapped, the hash compares by content
+        final ByteBuffer key = ByteBuffer.wrap(sha256(encoded));
+        synchronized (cache) {
+            final Library cached = cache.get(key);
+            if (cached != null) {
+                cacheHits.increment();
+                return cached;
+            }
+        }
+        cacheMisses.increment();
+        // built without holding the lock, so other libraries aren't held
+        // up; if two requests race to build the same one, the first wins
+        final Library built = new Library(AstCodec.decodeClasses(new AstBuilder(false), encoded));
+        synchronized (cache) {
+            final Library raced = cache.putIfAbsent(key, built);
+            return (raced == null) ? built : raced;
+        }
+    } // libraryFor
+
+    // Compiles an entry point against a class library, both as encoded by
+    // AstCodec, exactly as the daemon would for a COMPILE request.
+    public byte[] compile(final byte[] library,
+                          final byte[] entryPoint,
+                          final int options) throws CompileFailedException {
+        if ((options & ~Protocol.KNOWN_OPTIONS) != 0) {
+            throw new CompileFailedException("Unknown options: " + Integer.toHexString(options));
+        }
+        try {
+            final Library classes = libraryFor(library);
+            final Stmt entry = AstCodec.decodeStmt(new AstBuilder(false), entryPoint);
+            classes.typecheckEntryPoint(entry);
+
+            final boolean compact = (options & Protocol.COMPACT_LABELS) != 0;
+            final MIPSCodeGenerator generator =
+                new MIPSCodeGenerator(classes.metadata, new LabelTable(compact), false);
+            final Program program = new Program(classes.classes, entry);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final WritableByteChannel channel = Channels.newChannel(bytes);
+            if ((options & Protocol.OBJECT_FILE) != 0) {
+                // an object's sections and symbols cover the whole program,
+                // so none of it is reused
+                generator.compileProgram(program);
+                generator.writeObjectTo(channel);
+            } else {
+                generator.compileEntryPointOnly(program);
+                final AsciiWriter output = new AsciiWriter(channel);
+                generator.writeTo(output);
+                output.flush();
+                bytes.write(classes.classCode(compact));
+            }
+            return bytes.toByteArray();
+        } catch (final TypeErrorException e) {
+            throw new CompileFailedException("Type error: " + e.getMessage());
+        } catch (final IOException e) {
+            throw new CompileFailedException("Malformed program: " + e.getMessage());
+        } catch (final StackOverflowError e) {
+            throw new CompileFailedException("Program is nested too deeply");
+        }
+    } // compile
+    // ---END COMPILING---
+
+    // Usage: CompilerDaemon socket [threads]
+    //
+    // Serves until sent a SHUTDOWN request; see CompilerClient.
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: CompilerDaemon socket [threads]");
+            System.exit(1);
+        }
+        final int threads =
+            (args.length == 2) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CompilerDaemon daemon = new CompilerDaemon(Paths.get(args[0]),
+                                                         executor,
+                                                         DEFAULT_CACHE_SIZE);
+        try {
+            daemon.serve();
+        } finally {
+            daemon.close();
+            executor.shutdown();
+        }
+    } // main
+} // CompilerDaemon
@@ -0,0 +1,48 @@
+package vtables_example.daemon;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// What the daemon and its clients say to each other over the socket.
+// All integers are big-endian, and a section is an int length followed by
+// that many bytes.
+//
+// A request is MAGIC, then a kind byte.  A COMPILE request follows that
+// with an int of option flags, a section holding the class library, and
+// a section holding the entry point, both as encoded by AstCodec.  A
+// SHUTDOWN request has nothing more.
+//
+// Each request gets a response: a status byte, then a section holding
+// either the output (assembly, or an object file with OBJECT_FILE) or,
+// if the status is FAILED, a diagnostic in UTF-8.  A connection can carry
+// any number of requests, one after another.
+public class Protocol {
+    public static final int MAGIC = 0x56544443; // "VTDC"
+
+    // ---BEGIN REQUEST KINDS---
+    public static final int COMPILE = 1;
+    public static final int SHUTDOWN = 2;
+    // ---END REQUEST KINDS---
+
+    // ---BEGIN OPTIONS---
+    // label names are shortened; see LabelTable
+    public static final int COMPACT_LABELS = 1;
+    // the output is an ELF object rather than assembly
+    public static final int OBJECT_FILE = 2;
+    public static final int KNOWN_OPTIONS = COMPACT_LABELS | OBJECT_FILE;
+    // ---END OPTIONS---
+
+    // ---BEGIN STATUSES---
+    public static final int OK = 0;
+    public static final int FAILED = 1;
+    // ---END STATUSES---
+
+    // the largest section either side will read
+    public static final int MAX_SECTION = 1 << 28;
+
+    public static void writeSection(final DataOutputStream out,
+                                    final byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+} // Protocol
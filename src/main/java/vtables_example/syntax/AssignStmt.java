@@ -27,4 +27,9 @@ public class AssignStmt implements Stmt {
             return false;
         }
     }
+
+    public <A, R, E extends Exception> R accept(final StmtVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitAssignStmt(this, arg);
+    }
 }
@@ -0,0 +1,180 @@
+package vtables_example.syntax;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Builds expressions, lhses, and statements.  With hash-consing turned
+// on, structurally equal nodes are built only once and shared, so
+// repetitive programs take far less memory.  Names and types are always
+// shared, via their intern tables.
+//
+// The typechecker annotates FieldAccessLhs and MethodCallStmt nodes in
+// place, and the annotation depends on where the node appears.  These
+// are therefore always built fresh, and so is anything containing one;
+// only nodes made entirely from shared nodes are ever shared themselves.
+public class AstBuilder {
+    private final boolean hashConsing;
+    private final Map<Object, Object> interned;
+    private final Set<Object> shared;
+
+    public AstBuilder(final boolean hashConsing) {
+        this.hashConsing = hashConsing;
+        interned = new HashMap<Object, Object>();
+        shared = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    }
+
+    public int numShared() {
+        return interned.size();
+    }
+
+    private boolean isShared(final Object node) {
+        return node == null || shared.contains(node);
+    }
+
+    private boolean allShared(final Object[] nodes) {
+        for (final Object node : nodes) {
+            if (!isShared(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // returns the shared node equal to fresh, making fresh the shared one
+    // if there isn't one yet
+    @SuppressWarnings("unchecked")
+    private <A> A intern(final A fresh) {
+        final Object existing = interned.putIfAbsent(fresh, fresh);
+        if (existing == null) {
+            shared.add(fresh);
+            return fresh;
+        } else {
+            return (A)existing;
+        }
+    }
+
+    // ---BEGIN TYPES AND NAMES---
+    public Type intType() {
+        return TypeFactory.intType();
+    }
+
+    public Type voidType() {
+        return TypeFactory.voidType();
+    }
+
+    public Type classType(final String name) {
+        return TypeFactory.classType(className(name));
+    }
+
+    public ClassName className(final String name) {
+        return ClassName.intern(name);
+    }
+
+    public MethodName methodName(final String name) {
+        return MethodName.intern(name);
+    }
+
+    public Variable variable(final String name) {
+        return Variable.intern(name);
+    }
+
+    public VarDec varDec(final Type type, final Variable variable) {
+        final VarDec fresh = new VarDec(TypeFactory.canonical(type), variable);
+        return (hashConsing) ? intern(fresh) : fresh;
+    }
+    // ---END TYPES AND NAMES---
+
+    // ---BEGIN EXPRESSIONS AND LHSES---
+    public Exp intExp(final int value) {
+        final IntExp fresh = new IntExp(value);
+        return (hashConsing) ? intern(fresh) : fresh;
+    }
+
+    public Exp lhsExp(final Lhs lhs) {
+        final LhsExp fresh = new LhsExp(lhs);
+        return (hashConsing && isShared(lhs)) ? intern(fresh) : fresh;
+    }
+
+    public Lhs variableLhs(final Variable variable) {
+        final VariableLhs fresh = new VariableLhs(variable);
+        return (hashConsing) ? intern(fresh) : fresh;
+    }
+
+    public Lhs thisLhs() {
+        final ThisLhs fresh = new ThisLhs();
+        return (hashConsing) ? intern(fresh) : fresh;
+    }
+
+    // never shared; the typechecker annotates it
+    public Lhs fieldAccessLhs(final Lhs lhs, final Variable field) {
+        return new FieldAccessLhs(lhs, field);
+    }
+    // ---END EXPRESSIONS AND LHSES---
+
+    // ---BEGIN STATEMENTS---
+    public Stmt emptyStmt() {
+        final EmptyStmt fresh = new EmptyStmt();
+        return (hashConsing) ? intern(fresh) : fresh;
+    }
+
+    public Stmt assignStmt(final Lhs lhs, final Exp exp) {
+        final AssignStmt fresh = new AssignStmt(lhs, exp);
+        return (hashConsing && isShared(lhs) && isShared(exp)) ? intern(fresh) : fresh;
+    }
+
+    public Stmt printStmt(final Exp exp) {
+        final PrintStmt fresh = new PrintStmt(exp);
+        return (hashConsing && isShared(exp)) ? intern(fresh) : fresh;
+    }
+
+    // exp is null if returning void
+    public Stmt returnStmt(final Exp exp) {
+        final ReturnStmt fresh = new ReturnStmt(exp);
+        return (hashConsing && isShared(exp)) ? intern(fresh) : fresh;
+    }
+
+    public Stmt sequenceStmt(final Stmt first, final Stmt second) {
+        final SequenceStmt fresh = new SequenceStmt(first, second);
+        return (hashConsing && isShared(first) && isShared(second)) ? intern(fresh) : fresh;
+    }
+
+    // sequences the given statements, nesting to the right
+    public Stmt sequence(final Stmt... stmts) {
+        if (stmts.length == 0) {
+            return emptyStmt();
+        }
+        Stmt result = stmts[stmts.length - 1];
+        for (int index = stmts.length - 2; index >= 0; index--) {
+            result = sequenceStmt(stmts[index], result);
+        }
+        return result;
+    }
+
+    // nested sequences and blocks are spliced in
+    public Stmt blockStmt(final Stmt... stmts) {
+        final BlockStmt fresh = new BlockStmt(stmts);
+        return (hashConsing && allShared(fresh.stmts)) ? intern(fresh) : fresh;
+    }
+
+    public Stmt newStmt(final VarDec vardec, final ClassName name, final Exp[] params) {
+        final NewStmt fresh = new NewStmt(vardec, name, params);
+        return (hashConsing && isShared(vardec) && allShared(params)) ? intern(fresh) : fresh;
+    }
+
+    public Stmt superStmt(final Exp[] params) {
+        final SuperStmt fresh = new SuperStmt(params);
+        return (hashConsing && allShared(params)) ? intern(fresh) : fresh;
+    }
+
+    // never shared; the typechecker annotates it
+    public Stmt methodCallStmt(final VarDec vardec,
+                               final Exp exp,
+                               final MethodName name,
+                               final Exp[] params) {
+        return new MethodCallStmt(vardec, exp, name, params);
+    }
+    // ---END STATEMENTS---
+} // AstBuilder
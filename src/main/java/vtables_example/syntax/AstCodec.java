@@ -0,0 +1,485 @@
+package vtables_example.syntax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compact binary form of the AST, standing in for source text, as there
+// is no parser.  Classes and the entry point are encoded separately, so a
+// class library can be encoded once and sent with many entry points.
+//
+// Each encoding starts a fresh name table: the first use of a name is
+// written as the next unused index followed by the string, and later
+// uses as just the index.  Counts and indices are unsigned varints.
+// Chains of SequenceStmts are written and read with a loop rather than
+// recursion, as generated programs nest them to the right very deeply.
+//
+// Decoding builds nodes with the given builder, so names come out
+// interned and, with hash-consing, repeated nodes come out shared.  The
+// typechecker's annotations aren't encoded.
+public class AstCodec {
+    // ---BEGIN TAGS---
+    private static final int INT_TYPE = 0;
+    private static final int VOID_TYPE = 1;
+    private static final int CLASS_TYPE = 2;
+
+    private static final int INT_EXP = 0;
+    private static final int LHS_EXP = 1;
+
+    private static final int VARIABLE_LHS = 0;
+    private static final int FIELD_ACCESS_LHS = 1;
+    private static final int THIS_LHS = 2;
+
+    private static final int NEW_STMT = 0;
+    private static final int METHOD_CALL_STMT = 1;
+    private static final int PRINT_STMT = 2;
+    private static final int RETURN_STMT = 3;
+    private static final int ASSIGN_STMT = 4;
+    private static final int SUPER_STMT = 5;
+    private static final int SEQUENCE_STMT = 6;
+    private static final int BLOCK_STMT = 7;
+    private static final int EMPTY_STMT = 8;
+    // ---END TAGS---
+
+    // ---BEGIN ENCODING---
+    private static class Encoder implements StmtVisitor<DataOutputStream, Void, IOException>,
+                                            ExpVisitor<DataOutputStream, Void, IOException>,
+                                            LhsVisitor<DataOutputStream, Void, IOException> {
+        private final Map<String, Integer> names = new HashMap<String, Integer>();
+
+        private void writeName(final DataOutputStream out, final Name name) throws IOException {
+            final Integer index = names.get(name.name);
+            if (index == null) {
+                writeVarint(out, names.size());
+                names.put(name.name, names.size());
+                out.writeUTF(name.name);
+            } else {
+                writeVarint(out, index.intValue());
+            }
+        }
+
+        private void writeType(final DataOutputStream out, final Type type) throws IOException {
+            if (type instanceof IntType) {
+                out.writeByte(INT_TYPE);
+            } else if (type instanceof VoidType) {
+                out.writeByte(VOID_TYPE);
+            } else if (type instanceof ClassType) {
+                out.writeByte(CLASS_TYPE);
+                writeName(out, ((ClassType)type).name);
+            } else {
+                throw new IllegalArgumentException("Unknown type: " + type);
+            }
+        }
+
+        private void writeVarDec(final DataOutputStream out, final VarDec vardec) throws IOException {
+            writeType(out, vardec.type);
+            writeName(out, vardec.variable);
+        }
+
+        private void writeVarDecs(final DataOutputStream out, final VarDec[] vardecs) throws IOException {
+            writeVarint(out, vardecs.length);
+            for (final VarDec vardec : vardecs) {
+                writeVarDec(out, vardec);
+            }
+        }
+
+        private void writeExps(final DataOutputStream out, final Exp[] exps) throws IOException {
+            writeVarint(out, exps.length);
+            for (final Exp exp : exps) {
+                exp.accept(this, out);
+            }
+        }
+
+        private void writeClass(final DataOutputStream out, final ClassDefinition def) throws IOException {
+            writeName(out, def.myName);
+            out.writeBoolean(def.extendsName != null);
+            if (def.extendsName != null) {
+                writeName(out, def.extendsName);
+            }
+            writeVarDecs(out, def.instanceVariables);
+            writeVarDecs(out, def.constructor.params);
+            def.constructor.body.accept(this, out);
+            writeVarint(out, def.methods.length);
+            for (final MethodDefinition method : def.methods) {
+                out.writeBoolean(method.isVirtual);
+                writeType(out, method.returnType);
+                writeName(out, method.name);
+                writeVarDecs(out, method.params);
+                method.body.accept(this, out);
+            }
+        } // writeClass
+
+        public Void visitVariableLhs(final VariableLhs lhs, final DataOutputStream out) throws IOException {
+            out.writeByte(VARIABLE_LHS);
+            writeName(out, lhs.variable);
+            return null;
+        }
+        public Void visitFieldAccessLhs(final FieldAccessLhs lhs, final DataOutputStream out) throws IOException {
+            out.writeByte(FIELD_ACCESS_LHS);
+            lhs.lhs.accept(this, out);
+            writeName(out, lhs.field);
+            return null;
+        }
+        public Void visitThisLhs(final ThisLhs lhs, final DataOutputStream out) throws IOException {
+            out.writeByte(THIS_LHS);
+            return null;
+        }
+
+        public Void visitIntExp(final IntExp exp, final DataOutputStream out) throws IOException {
+            out.writeByte(INT_EXP);
+            out.writeInt(exp.value);
+            return null;
+        }
+        public Void visitLhsExp(final LhsExp exp, final DataOutputStream out) throws IOException {
+            out.writeByte(LHS_EXP);
+            return exp.lhs.accept(this, out);
+        }
+
+        public Void visitNewStmt(final NewStmt stmt, final DataOutputStream out) throws IOException {
+            out.writeByte(NEW_STMT);
+            writeVarDec(out, stmt.vardec);
+            writeName(out, stmt.name);
+            writeExps(out, stmt.params);
+            return null;
+        }
+        public Void visitMethodCallStmt(final MethodCallStmt stmt, final DataOutputStream out) throws IOException {
+            out.writeByte(METHOD_CALL_STMT);
+            writeVarDec(out, stmt.vardec);
+            stmt.exp.accept(this, out);
+            writeName(out, stmt.name);
+            writeExps(out, stmt.params);
+            return null;
+        }
+        public Void visitPrintStmt(final PrintStmt stmt, final DataOutputStream out) throws IOException {
+            out.writeByte(PRINT_STMT);
+            return stmt.exp.accept(this, out);
+        }
+        public Void visitReturnStmt(final ReturnStmt stmt, final DataOutputStream out) throws IOException {
+            out.writeByte(RETURN_STMT);
+            out.writeBoolean(stmt.exp != null);
+            if (stmt.exp != null) {
+                stmt.exp.accept(this, out);
+            }
+            return null;
+        }
+        public Void visitAssignStmt(final AssignStmt stmt, final DataOutputStream out) throws IOException {
+            out.writeByte(ASSIGN_STMT);
+            stmt.lhs.accept(this, out);
+            return stmt.exp.accept(this, out);
+        }
+        public Void visitSuperStmt(final SuperStmt stmt, final DataOutputStream out) throws IOException {
+            out.writeByte(SUPER_STMT);
+            writeExps(out, stmt.params);
+            return null;
+        }
+        // each link is a tag and its first statement, and the chain ends
+        // with the last second statement
+        public Void visitSequenceStmt(final SequenceStmt stmt, final DataOutputStream out) throws IOException {
+            Stmt current = stmt;
+            while (current instanceof SequenceStmt) {
+                final SequenceStmt asSeq = (SequenceStmt)current;
+                out.writeByte(SEQUENCE_STMT);
+                asSeq.first.accept(this, out);
+                current = asSeq.second;
+            }
+            return current.accept(this, out);
+        }
+        public Void visitBlockStmt(final BlockStmt stmt, final DataOutputStream out) throws IOException {
+            out.writeByte(BLOCK_STMT);
+            writeVarint(out, stmt.stmts.length);
+            for (final Stmt inner : stmt.stmts) {
+                inner.accept(this, out);
+            }
+            return null;
+        }
+        public Void visitEmptyStmt(final EmptyStmt stmt, final DataOutputStream out) throws IOException {
+            out.writeByte(EMPTY_STMT);
+            return null;
+        }
+    } // Encoder
+
+    private static void writeVarint(final DataOutputStream out, final int value) throws IOException {
+        assert(value >= 0);
+        int rest = value;
+        while (rest >= 0x80) {
+            out.writeByte((rest & 0x7F) | 0x80);
+            rest >>>= 7;
+        }
+        out.writeByte(rest);
+    }
+
+    public static byte[] encodeClasses(final ClassDefinition[] classes) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final Encoder encoder = new Encoder();
+        writeVarint(out, classes.length);
+        for (final ClassDefinition def : classes) {
+            encoder.writeClass(out, def);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static byte[] encodeStmt(final Stmt stmt) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        stmt.accept(new Encoder(), out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // the classes and then the entry point, each preceded by its length
+    public static byte[] encodeProgram(final Program program) throws IOException {
+        final byte[] classes = encodeClasses(program.classes);
+        final byte[] entryPoint = encodeStmt(program.entryPoint);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(classes.length);
+        out.write(classes);
+        out.writeInt(entryPoint.length);
+        out.write(entryPoint);
+        out.flush();
+        return bytes.toByteArray();
+    }
+    // ---END ENCODING---
+
+    // ---BEGIN DECODING---
+    // Malformed input is reported with an IOException, never by building
+    // a broken tree.
+    private static class Decoder {
+        private final AstBuilder builder;
+        private final DataInputStream in;
+        private final List<String> names = new ArrayList<String>();
+
+        private Decoder(final AstBuilder builder, final byte[] bytes) {
+            this.builder = builder;
+            in = new DataInputStream(new ByteArrayInputStream(bytes));
+        }
+
+        private int readVarint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int next = in.readUnsignedByte();
+                result |= (next & 0x7F) << shift;
+                if ((next & 0x80) == 0) {
+                    if (result < 0) {
+                        throw new IOException("Varint out of range");
+                    }
+                    return result;
+                }
+            }
+            throw new IOException("Varint too long");
+        }
+
+        // counts are checked against what's left, so a corrupt count can't
+        // make us allocate a huge array
+        private int readCount() throws IOException {
+            final int count = readVarint();
+            if (count > in.available()) {
+                throw new IOException("Count " + count + " exceeds the input left");
+            }
+            return count;
+        }
+
+        private String readName() throws IOException {
+            final int index = readVarint();
+            if (index < names.size()) {
+                return names.get(index);
+            } else if (index == names.size()) {
+                final String name = in.readUTF();
+                names.add(name);
+                return name;
+            } else {
+                throw new IOException("Name index " + index + " used before it was defined");
+            }
+        }
+
+        private Type readType() throws IOException {
+            final int tag = in.readUnsignedByte();
+            if (tag == INT_TYPE) {
+                return builder.intType();
+            } else if (tag == VOID_TYPE) {
+                return builder.voidType();
+            } else if (tag == CLASS_TYPE) {
+                return builder.classType(readName());
+            } else {
+                throw new IOException("Unknown type tag: " + tag);
+            }
+        }
+
+        private VarDec readVarDec() throws IOException {
+            final Type type = readType();
+            return builder.varDec(type, builder.variable(readName()));
+        }
+
+        private VarDec[] readVarDecs() throws IOException {
+            final VarDec[] result = new VarDec[readCount()];
+            for (int index = 0; index < result.length; index++) {
+                result[index] = readVarDec();
+            }
+            return result;
+        }
+
+        private Lhs readLhs() throws IOException {
+            final int tag = in.readUnsignedByte();
+            if (tag == VARIABLE_LHS) {
+                return builder.variableLhs(builder.variable(readName()));
+            } else if (tag == FIELD_ACCESS_LHS) {
+                final Lhs lhs = readLhs();
+                return builder.fieldAccessLhs(lhs, builder.variable(readName()));
+            } else if (tag == THIS_LHS) {
+                return builder.thisLhs();
+            } else {
+                throw new IOException("Unknown lhs tag: " + tag);
+            }
+        }
+
+        private Exp readExp() throws IOException {
+            final int tag = in.readUnsignedByte();
+            if (tag == INT_EXP) {
+                return builder.intExp(in.readInt());
+            } else if (tag == LHS_EXP) {
+                return builder.lhsExp(readLhs());
+            } else {
+                throw new IOException("Unknown expression tag: " + tag);
+            }
+        }
+
+        private Exp[] readExps() throws IOException {
+            final Exp[] result = new Exp[readCount()];
+            for (int index = 0; index < result.length; index++) {
+                result[index] = readExp();
+            }
+            return result;
+        }
+
+        private Stmt readStmt() throws IOException {
+            final int tag = in.readUnsignedByte();
+            if (tag == NEW_STMT) {
+                final VarDec vardec = readVarDec();
+                final ClassName name = builder.className(readName());
+                return builder.newStmt(vardec, name, readExps());
+            } else if (tag == METHOD_CALL_STMT) {
+                final VarDec vardec = readVarDec();
+                final Exp exp = readExp();
+                final MethodName name = builder.methodName(readName());
+                return builder.methodCallStmt(vardec, exp, name, readExps());
+            } else if (tag == PRINT_STMT) {
+                return builder.printStmt(readExp());
+            } else if (tag == RETURN_STMT) {
+                return builder.returnStmt((in.readBoolean()) ? readExp() : null);
+            } else if (tag == ASSIGN_STMT) {
+                final Lhs lhs = readLhs();
+                return builder.assignStmt(lhs, readExp());
+            } else if (tag == SUPER_STMT) {
+                return builder.superStmt(readExps());
+            } else if (tag == SEQUENCE_STMT) {
+                return readSequence();
+            } else if (tag == BLOCK_STMT) {
+                final Stmt[] stmts = new Stmt[readCount()];
+                for (int index = 0; index < stmts.length; index++) {
+                    stmts[index] = readStmt();
+                }
+                return builder.blockStmt(stmts);
+            } else if (tag == EMPTY_STMT) {
+                return builder.emptyStmt();
+            } else {
+                throw new IOException("Unknown statement tag: " + tag);
+            }
+        } // readStmt
+
+        // the chain's first tag has already been read
+        private Stmt readSequence() throws IOException {
+            final List<Stmt> firsts = new ArrayList<Stmt>();
+            firsts.add(readStmt());
+            while (true) {
+                in.mark(1);
+                if (in.readUnsignedByte() != SEQUENCE_STMT) {
+                    in.reset();
+                    break;
+                }
+                firsts.add(readStmt());
+            }
+            Stmt result = readStmt();
+            for (int index = firsts.size() - 1; index >= 0; index--) {
+                result = builder.sequenceStmt(firsts.get(index), result);
+            }
+            return result;
+        } // readSequence
+
+        private ClassDefinition readClass() throws IOException {
+            final ClassName myName = builder.className(readName());
+            final ClassName extendsName = (in.readBoolean()) ? builder.className(readName()) : null;
+            final VarDec[] instanceVariables = readVarDecs();
+            final VarDec[] constructorParams = readVarDecs();
+            final Constructor constructor = new Constructor(constructorParams, readStmt());
+            final MethodDefinition[] methods = new MethodDefinition[readCount()];
+            for (int index = 0; index < methods.length; index++) {
+                final boolean isVirtual = in.readBoolean();
+                final Type returnType = readType();
+                final MethodName name = builder.methodName(readName());
+                final VarDec[] params = readVarDecs();
+                methods[index] = new MethodDefinition(isVirtual, returnType, name, params, readStmt());
+            }
+            return new ClassDefinition(myName, extendsName, instanceVariables, constructor, methods);
+        } // readClass
+
+        private void end() throws IOException {
+            if (in.available() != 0) {
+                throw new IOException(in.available() + " bytes left over");
+            }
+        }
+    } // Decoder
+
+    public static ClassDefinition[] decodeClasses(final AstBuilder builder,
+                                                  final byte[] bytes) throws IOException {
+        final Decoder decoder = new Decoder(builder, bytes);
+        final ClassDefinition[] result = new ClassDefinition[decoder.readCount()];
+        for (int index = 0; index < result.length; index++) {
+            result[index] = decoder.readClass();
+        }
+        decoder.end();
+        return result;
+    }
+
+    public static Stmt decodeStmt(final AstBuilder builder,
+                                  final byte[] bytes) throws IOException {
+        final Decoder decoder = new Decoder(builder, bytes);
+        final Stmt result = decoder.readStmt();
+        decoder.end();
+        return result;
+    }
+
+    // reads a program written by encodeProgram
+    public static Program decodeProgram(final AstBuilder builder,
+                                        final byte[] bytes) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        final byte[] classes = readSection(in, bytes.length);
+        final byte[] entryPoint = readSection(in, bytes.length);
+        if (in.available() != 0) {
+            throw new IOException(in.available() + " bytes left over");
+        }
+        return new Program(decodeClasses(builder, classes),
+                           decodeStmt(builder, entryPoint));
+    }
+
+    // a length-prefixed run of bytes, as encodeProgram writes them; the
+    // length is checked before anything is allocated
+    public static byte[] readSection(final DataInputStream in,
+                                     final int maxLength) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Section length out of range: " + length);
+        }
+        final byte[] result = new byte[length];
+        in.readFully(result);
+        return result;
+    }
+    // ---END DECODING---
+} // AstCodec
@@ -0,0 +1,95 @@
+package vtables_example.syntax;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+// A flat sequence of statements.  Blocks are always normalized: nested
+// SequenceStmts and BlockStmts are spliced in on construction, so the
+// statements held never include either, and passes can simply loop over
+// them.  Splicing uses an explicit stack, so arbitrarily long SequenceStmt
+// chains can be converted.
+public class BlockStmt implements Stmt {
+    public final Stmt[] stmts;
+    private final int hash; // statements are immutable, so this is computed once
+
+    public BlockStmt(final Stmt... stmts) {
+        this.stmts = normalize(stmts);
+        hash = Arrays.hashCode(this.stmts);
+    }
+
+    private static boolean isCompound(final Stmt stmt) {
+        return stmt instanceof SequenceStmt || stmt instanceof BlockStmt;
+    }
+
+    private static Stmt[] normalize(final Stmt[] stmts) {
+        boolean alreadyFlat = true;
+        for (final Stmt stmt : stmts) {
+            if (isCompound(stmt)) {
+                alreadyFlat = false;
+                break;
+            }
+        }
+        if (alreadyFlat) {
+            return stmts.clone();
+        }
+
+        final List<Stmt> result = new ArrayList<Stmt>(stmts.length);
+        final Deque<Stmt> pending = new ArrayDeque<Stmt>();
+        for (int index = stmts.length - 1; index >= 0; index--) {
+            pending.push(stmts[index]);
+        }
+        while (!pending.isEmpty()) {
+            final Stmt current = pending.pop();
+            if (current instanceof SequenceStmt) {
+                final SequenceStmt asSeq = (SequenceStmt)current;
+                pending.push(asSeq.second);
+                pending.push(asSeq.first);
+            } else if (current instanceof BlockStmt) {
+                // already normalized, so no need to look inside
+                for (final Stmt inner : ((BlockStmt)current).stmts) {
+                    result.add(inner);
+                }
+            } else {
+                result.add(current);
+            }
+        }
+        return result.toArray(new Stmt[result.size()]);
+    } // normalize
+
+    // the statements of stmt as a block; blocks are returned as-is
+    public static BlockStmt flatten(final Stmt stmt) {
+        if (stmt instanceof BlockStmt) {
+            return (BlockStmt)stmt;
+        } else {
+            return new BlockStmt(stmt);
+        }
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+
+    public boolean equals(final Object other) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof BlockStmt) {
+            final BlockStmt asBlock = (BlockStmt)other;
+            return (asBlock.hash == hash &&
+                    Arrays.equals(asBlock.stmts, stmts));
+        } else {
+            return false;
+        }
+    }
+
+    public String toString() {
+        return Join.join("; ", stmts);
+    }
+
+    public <A, R, E extends Exception> R accept(final StmtVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitBlockStmt(this, arg);
+    }
+}
@@ -8,6 +8,7 @@ public class ClassDefinition {
     public final VarDec[] instanceVariables;
     public final Constructor constructor;
     public final MethodDefinition[] methods;
+    private final int hash; // definitions are immutable, so this is computed once
 
     public ClassDefinition(final ClassName myName,
                            final ClassName extendsName,
@@ -19,17 +20,18 @@ public class ClassDefinition {
         this.instanceVariables = instanceVariables;
         this.constructor = constructor;
         this.methods = methods;
-    }
-
-    public int hashCode() {
         final int extendsHash = (extendsName == null) ? 0 : extendsName.hashCode();
-        return (myName.hashCode() +
+        hash = (myName.hashCode() +
                 extendsHash +
                 Arrays.deepHashCode(instanceVariables) +
                 constructor.hashCode() +
                 Arrays.deepHashCode(methods));
     }
 
+    public int hashCode() {
+        return hash;
+    }
+
     public boolean extendsSame(final ClassDefinition other) {
         if (extendsName == null) {
             return other.extendsName == null;
@@ -43,9 +45,12 @@ public class ClassDefinition {
     }
     
     public boolean equals(final Object other) {
-        if (other instanceof ClassDefinition) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof ClassDefinition) {
             final ClassDefinition otherDef = (ClassDefinition)other;
-            return (myName.equals(otherDef.myName) &&
+            return (hash == otherDef.hash &&
+                    myName.equals(otherDef.myName) &&
                     extendsSame(otherDef) &&
                     Arrays.deepEquals(instanceVariables, otherDef.instanceVariables) &&
                     constructor.equals(otherDef.constructor) &&
@@ -1,8 +1,45 @@
 package vtables_example.syntax;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 public class ClassName extends Name {
+    public static final NameTable<ClassName> TABLE = new NameTable<ClassName>(ClassName::new);
+
+    private static final AtomicReferenceFieldUpdater<ClassName, ClassType> TYPE =
+        AtomicReferenceFieldUpdater.newUpdater(ClassName.class, ClassType.class, "type");
+
+    // on canonical instances, the shared type of this class once asked
+    // for; kept here so it lives exactly as long as the name does
+    private volatile ClassType type;
+
     public ClassName(final String name) {
         super(name);
+        type = null;
+    }
+
+    // canonical instances, for TABLE
+    ClassName(final String name, final int id) {
+        super(name, id);
+        type = null;
+    }
+
+    public static ClassName intern(final String name) {
+        return TABLE.intern(name);
+    }
+
+    public ClassName canonical() {
+        return TABLE.intern(name);
+    }
+
+    // for TypeFactory; only called on canonical instances
+    ClassType sharedType() {
+        final ClassType existing = type;
+        if (existing != null) {
+            return existing;
+        } else {
+            TYPE.compareAndSet(this, null, new ClassType(this));
+            return type;
+        }
     }
 
     public boolean sameClass(final Name other) {
@@ -12,8 +12,9 @@ public class ClassType implements Type {
     }
 
     public boolean equals(final Object other) {
-        return (other instanceof ClassType &&
-                ((ClassType)other).name.equals(name));
+        return (other == this ||
+                (other instanceof ClassType &&
+                 ((ClassType)other).name.equals(name)));
     }
     
     public String toString() {
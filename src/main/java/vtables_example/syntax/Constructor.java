@@ -5,21 +5,26 @@ import java.util.Arrays;
 public class Constructor {
     public final VarDec[] params;
     public final Stmt body;
+    private final int hash; // constructors are immutable, so this is computed once
 
     public Constructor(final VarDec[] params,
                        final Stmt body) {
         this.params = params;
         this.body = body;
+        hash = Arrays.deepHashCode(params) + body.hashCode();
     }
 
     public int hashCode() {
-        return Arrays.deepHashCode(params) + body.hashCode();
+        return hash;
     }
 
     public boolean equals(final Object other) {
-        if (other instanceof Constructor) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof Constructor) {
             final Constructor asCons = (Constructor)other;
-            return (Arrays.deepEquals(asCons.params, params) &&
+            return (asCons.hash == hash &&
+                    Arrays.deepEquals(asCons.params, params) &&
                     asCons.body.equals(body));
         } else {
             return false;
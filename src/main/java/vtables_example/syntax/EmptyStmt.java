@@ -6,4 +6,9 @@ public class EmptyStmt implements Stmt {
         return other instanceof EmptyStmt;
     }
     public String toString() { return ""; }
+
+    public <A, R, E extends Exception> R accept(final StmtVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitEmptyStmt(this, arg);
+    }
 }
@@ -1,3 +1,5 @@
 package vtables_example.syntax;
 
-public interface Exp {}
+public interface Exp {
+    public <A, R, E extends Exception> R accept(ExpVisitor<A, R, E> visitor, A arg) throws E;
+}
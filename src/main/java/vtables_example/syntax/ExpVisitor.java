@@ -0,0 +1,7 @@
+package vtables_example.syntax;
+
+// Dispatches on the kind of expression; see StmtVisitor.
+public interface ExpVisitor<A, R, E extends Exception> {
+    public R visitIntExp(IntExp exp, A arg) throws E;
+    public R visitLhsExp(LhsExp exp, A arg) throws E;
+}
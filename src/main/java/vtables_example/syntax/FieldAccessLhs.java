@@ -1,9 +1,16 @@
 package vtables_example.syntax;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 public class FieldAccessLhs implements Lhs {
+    private static final AtomicReferenceFieldUpdater<FieldAccessLhs, ClassName> LHS_CLASS =
+        AtomicReferenceFieldUpdater.newUpdater(FieldAccessLhs.class, ClassName.class, "lhsClass");
+
     public final Lhs lhs;
     public final Variable field;
-    private ClassName lhsClass; // intended to be filled in by the typechecker
+    // intended to be filled in by the typechecker, exactly once; set
+    // atomically, as bodies may be typechecked in parallel
+    private volatile ClassName lhsClass;
     
     public FieldAccessLhs(final Lhs lhs,
                           final Variable field) {
@@ -31,14 +38,17 @@ public class FieldAccessLhs implements Lhs {
     }
 
     public void setLhsClass(final ClassName lhsClass) {
-        assert(this.lhsClass == null);
-        this.lhsClass = lhsClass;
+        final boolean wasUnset = LHS_CLASS.compareAndSet(this, null, lhsClass);
+        assert(wasUnset);
     }
 
     public ClassName getLhsClass() {
         assert(lhsClass != null);
         return lhsClass;
     }
-}
 
-                    
+    public <A, R, E extends Exception> R accept(final LhsVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitFieldAccessLhs(this, arg);
+    }
+}
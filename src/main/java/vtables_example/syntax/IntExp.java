@@ -15,4 +15,9 @@ public class IntExp implements Exp {
     public String toString() {
         return Integer.toString(value);
     }
+
+    public <A, R, E extends Exception> R accept(final ExpVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitIntExp(this, arg);
+    }
 }
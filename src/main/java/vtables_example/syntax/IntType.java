@@ -3,7 +3,7 @@ package vtables_example.syntax;
 public class IntType implements Type {
     public int hashCode() { return 0; }
     public boolean equals(final Object other) {
-        return other instanceof IntType;
+        return other == this || other instanceof IntType;
     }
     public String toString() { return "int"; }
 }
@@ -1,3 +1,5 @@
 package vtables_example.syntax;
 
-public interface Lhs {}
+public interface Lhs {
+    public <A, R, E extends Exception> R accept(LhsVisitor<A, R, E> visitor, A arg) throws E;
+}
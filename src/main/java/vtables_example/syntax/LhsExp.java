@@ -19,4 +19,9 @@ public class LhsExp implements Exp {
         return (other instanceof LhsExp &&
                 ((LhsExp)other).lhs.equals(lhs));
     }
+
+    public <A, R, E extends Exception> R accept(final ExpVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitLhsExp(this, arg);
+    }
 }
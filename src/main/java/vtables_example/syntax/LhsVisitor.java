@@ -0,0 +1,8 @@
+package vtables_example.syntax;
+
+// Dispatches on the kind of lhs; see StmtVisitor.
+public interface LhsVisitor<A, R, E extends Exception> {
+    public R visitVariableLhs(VariableLhs lhs, A arg) throws E;
+    public R visitFieldAccessLhs(FieldAccessLhs lhs, A arg) throws E;
+    public R visitThisLhs(ThisLhs lhs, A arg) throws E;
+}
@@ -1,13 +1,20 @@
 package vtables_example.syntax;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class MethodCallStmt implements Stmt {
+    private static final AtomicReferenceFieldUpdater<MethodCallStmt, ClassName> ON_CLASS =
+        AtomicReferenceFieldUpdater.newUpdater(MethodCallStmt.class, ClassName.class, "onClass");
+
     public final VarDec vardec;
     public final Exp exp;
     public final MethodName name;
     public final Exp[] params;
-    private ClassName onClass; // intended to be filled in by the typechecker
+    // intended to be filled in by the typechecker, exactly once; set
+    // atomically, as bodies may be typechecked in parallel
+    private volatile ClassName onClass;
+    private final int hash; // the typechecker's annotation isn't part of this
     
     public MethodCallStmt(final VarDec vardec,
                           final Exp exp,
@@ -18,19 +25,23 @@ public class MethodCallStmt implements Stmt {
         this.name = name;
         this.params = params;
         onClass = null;
-    }
-
-    public int hashCode() {
-        return (vardec.hashCode() +
+        hash = (vardec.hashCode() +
                 exp.hashCode() +
                 name.hashCode() +
                 Arrays.deepHashCode(params));
     }
 
+    public int hashCode() {
+        return hash;
+    }
+
     public boolean equals(final Object other) {
-        if (other instanceof MethodCallStmt) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof MethodCallStmt) {
             final MethodCallStmt otherCall = (MethodCallStmt)other;
-            return (otherCall.vardec.equals(vardec) &&
+            return (otherCall.hash == hash &&
+                    otherCall.vardec.equals(vardec) &&
                     otherCall.exp.equals(exp) &&
                     otherCall.name.equals(name) &&
                     Arrays.deepEquals(otherCall.params, params));
@@ -51,12 +62,17 @@ public class MethodCallStmt implements Stmt {
     }
 
     public void setOnClass(final ClassName onClass) {
-        assert(this.onClass == null);
-        this.onClass = onClass;
+        final boolean wasUnset = ON_CLASS.compareAndSet(this, null, onClass);
+        assert(wasUnset);
     }
 
     public ClassName getOnClass() {
         assert(onClass != null);
         return onClass;
     }
+
+    public <A, R, E extends Exception> R accept(final StmtVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitMethodCallStmt(this, arg);
+    }
 }
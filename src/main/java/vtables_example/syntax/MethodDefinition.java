@@ -4,11 +4,12 @@ import java.util.Arrays;
 
 public class MethodDefinition {
     // unlike C++, this must be set all the way down
-    public boolean isVirtual;
+    public final boolean isVirtual;
     public final Type returnType;
     public final MethodName name;
     public final VarDec[] params;
     public final Stmt body;
+    private final int hash; // definitions are immutable, so this is computed once
 
     public MethodDefinition(final boolean isVirtual,
                             final Type returnType,
@@ -20,21 +21,25 @@ public class MethodDefinition {
         this.name = name;
         this.params = params;
         this.body = body;
-    }
-
-    public int hashCode() {
         final int virt = (isVirtual) ? 1 : 0;
-        return (virt +
+        hash = (virt +
                 returnType.hashCode() +
                 name.hashCode() +
                 Arrays.deepHashCode(params) +
                 body.hashCode());
     }
 
+    public int hashCode() {
+        return hash;
+    }
+
     public boolean equals(final Object other) {
-        if (other instanceof MethodDefinition) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof MethodDefinition) {
             final MethodDefinition otherMethod = (MethodDefinition)other;
-            return (otherMethod.isVirtual == isVirtual &&
+            return (otherMethod.hash == hash &&
+                    otherMethod.isVirtual == isVirtual &&
                     otherMethod.returnType.equals(returnType) &&
                     otherMethod.name.equals(name) &&
                     Arrays.deepEquals(otherMethod.params, params) &&
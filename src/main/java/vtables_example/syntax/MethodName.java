@@ -1,10 +1,25 @@
 package vtables_example.syntax;
 
 public class MethodName extends Name {
+    public static final NameTable<MethodName> TABLE = new NameTable<MethodName>(MethodName::new);
+
     public MethodName(final String name) {
         super(name);
     }
 
+    // canonical instances, for TABLE
+    MethodName(final String name, final int id) {
+        super(name, id);
+    }
+
+    public static MethodName intern(final String name) {
+        return TABLE.intern(name);
+    }
+
+    public MethodName canonical() {
+        return TABLE.intern(name);
+    }
+
     public boolean sameClass(final Name other) {
         return other instanceof MethodName;
     }
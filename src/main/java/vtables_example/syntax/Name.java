@@ -1,20 +1,62 @@
 package vtables_example.syntax;
 
+// Names can be created freely with their constructors, but each kind of
+// name also has a canonical instance per string, handed out by a
+// NameTable.  Canonical instances carry a small, dense integer ID, which
+// can be used to index arrays instead of hashing.  Any other instance
+// finds its canonical instance through the table once, and remembers it;
+// holding on to it, rather than only its ID, keeps the ID from being
+// handed to another name while this one is still in use.
 public abstract class Name {
+    public static final int NO_ID = -1;
+
     public final String name;
+    private final int hash;
+    // NO_ID except on canonical instances
+    private final int id;
+    // Filled in lazily on other instances.  Racing threads all find the
+    // same instance, as it's reachable from whichever found it first, and
+    // its ID is final, so it's safe to read however this was published.
+    private Name canonicalName;
 
     public Name(final String name) {
+        this(name, NO_ID);
+    }
+
+    // for NameTable, creating canonical instances
+    Name(final String name, final int id) {
         this.name = name;
+        hash = name.hashCode();
+        this.id = id;
+        canonicalName = null;
     }
 
     public abstract boolean sameClass(Name other);
+
+    // returns the shared instance of this name
+    public abstract Name canonical();
+
+    public int id() {
+        if (id != NO_ID) {
+            return id;
+        }
+        Name result = canonicalName;
+        if (result == null) {
+            result = canonical();
+            canonicalName = result;
+        }
+        return result.id;
+    }
     
-    public int hashCode() { return name.hashCode(); }
+    public int hashCode() { return hash; }
     public String toString() { return name; }
     public boolean equals(final Object other) {
-        if (other instanceof Name) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof Name) {
             final Name otherName = (Name)other;
-            return (otherName.name.equals(name) &&
+            return (otherName.hash == hash &&
+                    otherName.name.equals(name) &&
                     sameClass(otherName));
         } else {
             return false;
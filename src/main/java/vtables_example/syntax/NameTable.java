@@ -0,0 +1,120 @@
+package vtables_example.syntax;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interns names of a single kind.  Each distinct string gets one
+// canonical instance, with a small integer ID.  This is safe to use from
+// many compilations running at once.
+//
+// Canonical instances are only held weakly.  Once nothing uses a name any
+// more, its instance can be collected, and its ID is handed out again, so
+// a long-running process compiling one program after another only keeps
+// the names still in use, and IDs stay about as dense as those.  Every
+// Name holds on to its canonical instance once it has looked up its ID,
+// so an ID is never reused while anything could still be using it.
+public class NameTable<N extends Name> {
+    public interface Factory<N> {
+        public N create(String name, int id);
+    }
+
+    // the table's hold on a canonical instance; queued once it's been
+    // collected, so its ID can be freed
+    private static class Entry<N> extends WeakReference<N> {
+        private final String name;
+        private final int id;
+
+        private Entry(final N canonical,
+                      final String name,
+                      final int id,
+                      final ReferenceQueue<N> collected) {
+            super(canonical, collected);
+            this.name = name;
+            this.id = id;
+        }
+    } // Entry
+
+    private final ConcurrentHashMap<String, Entry<N>> canonical;
+    private final ReferenceQueue<N> collected;
+    private final Factory<N> create;
+    // IDs freed by collected instances, handed out again before any new
+    // ones; guarded by this, as is nextId
+    private int[] freeIds;
+    private int numFreeIds;
+    private int nextId;
+
+    public NameTable(final Factory<N> create) {
+        canonical = new ConcurrentHashMap<String, Entry<N>>();
+        collected = new ReferenceQueue<N>();
+        this.create = create;
+        freeIds = new int[16];
+        numFreeIds = 0;
+        nextId = 0;
+    }
+
+    public N intern(final String name) {
+        final Entry<N> existing = canonical.get(name);
+        if (existing != null) {
+            final N result = existing.get();
+            if (result != null) {
+                return result;
+            }
+        }
+        reclaimIds();
+        while (true) {
+            // compute is atomic, so only one live instance is ever mapped;
+            // one that's been collected is replaced, and its ID is freed
+            // once it's dequeued
+            final Entry<N> entry =
+                canonical.compute(name, (key, old) -> (old != null && old.get() != null) ? old : newEntry(key));
+            final N result = entry.get();
+            if (result != null) {
+                return result;
+            }
+            // collected before it could be returned, so nothing has it
+        }
+    } // intern
+
+    private Entry<N> newEntry(final String name) {
+        final int id = allocateId();
+        return new Entry<N>(create.create(name, id), name, id, collected);
+    }
+
+    private synchronized int allocateId() {
+        if (numFreeIds > 0) {
+            numFreeIds--;
+            return freeIds[numFreeIds];
+        } else {
+            return nextId++;
+        }
+    }
+
+    private synchronized void freeId(final int id) {
+        if (numFreeIds == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        }
+        freeIds[numFreeIds] = id;
+        numFreeIds++;
+    }
+
+    // frees the IDs of every instance collected since last time
+    @SuppressWarnings("unchecked")
+    private void reclaimIds() {
+        Reference<? extends N> reference = collected.poll();
+        while (reference != null) {
+            final Entry<N> entry = (Entry<N>)reference;
+            // it may already have been replaced
+            canonical.remove(entry.name, entry);
+            freeId(entry.id);
+            reference = collected.poll();
+        }
+    } // reclaimIds
+
+    // the most IDs ever handed out at once; every ID is less than this
+    public synchronized int size() {
+        return nextId;
+    }
+} // NameTable
@@ -6,6 +6,7 @@ public class NewStmt implements Stmt {
     public final VarDec vardec;
     public final ClassName name;
     public final Exp[] params;
+    private final int hash; // statements are immutable, so this is computed once
 
     public NewStmt(final VarDec vardec,
                    final ClassName name,
@@ -13,18 +14,22 @@ public class NewStmt implements Stmt {
         this.vardec = vardec;
         this.name = name;
         this.params = params;
+        hash = (vardec.hashCode() +
+                name.hashCode() +
+                Arrays.deepHashCode(params));
     }
 
     public int hashCode() {
-        return (vardec.hashCode() +
-                name.hashCode() +
-                Arrays.deepHashCode(params));
+        return hash;
     }
 
     public boolean equals(final Object other) {
-        if (other instanceof NewStmt) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof NewStmt) {
             final NewStmt otherNew = (NewStmt)other;
-            return (otherNew.vardec.equals(vardec) &&
+            return (otherNew.hash == hash &&
+                    otherNew.vardec.equals(vardec) &&
                     otherNew.name.equals(name) &&
                     Arrays.deepEquals(otherNew.params, params));
         } else {
@@ -40,4 +45,9 @@ public class NewStmt implements Stmt {
                 Join.join(", ", params) +
                 ")");
     }
+
+    public <A, R, E extends Exception> R accept(final StmtVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitNewStmt(this, arg);
+    }
 }
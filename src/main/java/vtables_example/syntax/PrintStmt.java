@@ -19,4 +19,9 @@ public class PrintStmt implements Stmt {
     public String toString() {
         return "print(" + exp.toString() + ")";
     }
+
+    public <A, R, E extends Exception> R accept(final StmtVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitPrintStmt(this, arg);
+    }
 }
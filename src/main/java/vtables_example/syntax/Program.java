@@ -5,15 +5,17 @@ import java.util.Arrays;
 public class Program {
     public final ClassDefinition[] classes;
     public final Stmt entryPoint;
+    private final int hash; // programs are immutable, so this is computed once
 
     public Program(final ClassDefinition[] classes,
                    final Stmt entryPoint) {
         this.classes = classes;
         this.entryPoint = entryPoint;
+        hash = Arrays.deepHashCode(classes) + entryPoint.hashCode();
     }
 
     public int hashCode() {
-        return Arrays.deepHashCode(classes) + entryPoint.hashCode();
+        return hash;
     }
 
     public String toString() {
@@ -21,9 +23,12 @@ public class Program {
     }
 
     public boolean equals(final Object other) {
-        if (other instanceof Program) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof Program) {
             final Program otherProg = (Program)other;
-            return (Arrays.deepEquals(classes, otherProg.classes) &&
+            return (otherProg.hash == hash &&
+                    Arrays.deepEquals(classes, otherProg.classes) &&
                     entryPoint.equals(otherProg.entryPoint));
         } else {
             return false;
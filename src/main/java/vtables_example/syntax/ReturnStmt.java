@@ -34,4 +34,9 @@ public class ReturnStmt implements Stmt {
             return false;
         }
     }
+
+    public <A, R, E extends Exception> R accept(final StmtVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitReturnStmt(this, arg);
+    }
 }
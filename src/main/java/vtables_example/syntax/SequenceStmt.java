@@ -3,15 +3,17 @@ package vtables_example.syntax;
 public class SequenceStmt implements Stmt {
     public final Stmt first;
     public final Stmt second;
+    private final int hash; // statements are immutable, so this is computed once
 
     public SequenceStmt(final Stmt first,
                         final Stmt second) {
         this.first = first;
         this.second = second;
+        hash = first.hashCode() + second.hashCode();
     }
 
     public int hashCode() {
-        return first.hashCode() + second.hashCode();
+        return hash;
     }
 
     public String toString() {
@@ -19,12 +21,20 @@ public class SequenceStmt implements Stmt {
     }
 
     public boolean equals(final Object other) {
-        if (other instanceof SequenceStmt) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof SequenceStmt) {
             final SequenceStmt asSeq = (SequenceStmt)other;
-            return (asSeq.first.equals(first) &&
+            return (asSeq.hash == hash &&
+                    asSeq.first.equals(first) &&
                     asSeq.second.equals(second));
         } else {
             return false;
         }
     }
+
+    public <A, R, E extends Exception> R accept(final StmtVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitSequenceStmt(this, arg);
+    }
 }
@@ -1,3 +1,5 @@
 package vtables_example.syntax;
 
-public interface Stmt {}
+public interface Stmt {
+    public <A, R, E extends Exception> R accept(StmtVisitor<A, R, E> visitor, A arg) throws E;
+}
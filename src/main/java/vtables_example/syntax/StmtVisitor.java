@@ -0,0 +1,16 @@
+package vtables_example.syntax;
+
+// Dispatches on the kind of statement with a single virtual call.
+// arg is passed along unchanged, for whatever context the visitor needs.
+// Visitors which can't fail should use RuntimeException for E.
+public interface StmtVisitor<A, R, E extends Exception> {
+    public R visitNewStmt(NewStmt stmt, A arg) throws E;
+    public R visitMethodCallStmt(MethodCallStmt stmt, A arg) throws E;
+    public R visitPrintStmt(PrintStmt stmt, A arg) throws E;
+    public R visitReturnStmt(ReturnStmt stmt, A arg) throws E;
+    public R visitAssignStmt(AssignStmt stmt, A arg) throws E;
+    public R visitSuperStmt(SuperStmt stmt, A arg) throws E;
+    public R visitSequenceStmt(SequenceStmt stmt, A arg) throws E;
+    public R visitBlockStmt(BlockStmt stmt, A arg) throws E;
+    public R visitEmptyStmt(EmptyStmt stmt, A arg) throws E;
+}
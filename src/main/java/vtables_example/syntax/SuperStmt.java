@@ -5,21 +5,30 @@ import java.util.Arrays;
 // for initializing a superclass
 public class SuperStmt implements Stmt {
     public final Exp[] params;
+    private final int hash; // statements are immutable, so this is computed once
     
     public SuperStmt(final Exp[] params) {
         this.params = params;
+        hash = Arrays.deepHashCode(params);
     }
 
     public int hashCode() {
-        return Arrays.deepHashCode(params);
+        return hash;
     }
 
     public boolean equals(final Object other) {
-        return (other instanceof SuperStmt &&
-                Arrays.deepEquals(((SuperStmt)other).params, params));
+        return (other == this ||
+                (other instanceof SuperStmt &&
+                 ((SuperStmt)other).hash == hash &&
+                 Arrays.deepEquals(((SuperStmt)other).params, params)));
     }
 
     public String toString() {
         return "super(" + Join.join(", ", params) + ")";
     }
+
+    public <A, R, E extends Exception> R accept(final StmtVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitSuperStmt(this, arg);
+    }
 }
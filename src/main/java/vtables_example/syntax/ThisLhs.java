@@ -6,4 +6,9 @@ public class ThisLhs implements Lhs {
         return other instanceof ThisLhs;
     }
     public String toString() { return "this"; }
+
+    public <A, R, E extends Exception> R accept(final LhsVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitThisLhs(this, arg);
+    }
 }
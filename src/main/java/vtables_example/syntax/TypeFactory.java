@@ -0,0 +1,37 @@
+package vtables_example.syntax;
+
+// Hands out one shared instance per type, so that canonical types can be
+// compared by reference and checking doesn't allocate.  Types built
+// directly with their constructors (as in hand-written ASTs) still work
+// everywhere; canonical gets the shared instance for any of them.  Each
+// class type is kept on its canonical class name, so it's dropped along
+// with the name, once nothing uses either.
+public class TypeFactory {
+    private static final IntType INT_TYPE = new IntType();
+    private static final VoidType VOID_TYPE = new VoidType();
+
+    public static IntType intType() {
+        return INT_TYPE;
+    }
+
+    public static VoidType voidType() {
+        return VOID_TYPE;
+    }
+
+    public static ClassType classType(final ClassName name) {
+        return name.canonical().sharedType();
+    }
+
+    public static Type canonical(final Type type) {
+        if (type instanceof IntType) {
+            return INT_TYPE;
+        } else if (type instanceof VoidType) {
+            return VOID_TYPE;
+        } else if (type instanceof ClassType) {
+            return classType(((ClassType)type).name);
+        } else {
+            assert(false);
+            return type;
+        }
+    }
+} // TypeFactory
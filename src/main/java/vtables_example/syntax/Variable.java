@@ -1,10 +1,25 @@
 package vtables_example.syntax;
 
 public class Variable extends Name {
+    public static final NameTable<Variable> TABLE = new NameTable<Variable>(Variable::new);
+
     public Variable(final String name) {
         super(name);
     }
 
+    // canonical instances, for TABLE
+    Variable(final String name, final int id) {
+        super(name, id);
+    }
+
+    public static Variable intern(final String name) {
+        return TABLE.intern(name);
+    }
+
+    public Variable canonical() {
+        return TABLE.intern(name);
+    }
+
     public boolean sameClass(final Name other) {
         return other instanceof Variable;
     }
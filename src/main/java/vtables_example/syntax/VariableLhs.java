@@ -13,5 +13,9 @@ public class VariableLhs implements Lhs {
                 ((VariableLhs)other).variable.equals(variable));
     }
     public String toString() { return variable.toString(); }
-}
 
+    public <A, R, E extends Exception> R accept(final LhsVisitor<A, R, E> visitor,
+                                                final A arg) throws E {
+        return visitor.visitVariableLhs(this, arg);
+    }
+}
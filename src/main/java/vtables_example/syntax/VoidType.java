@@ -3,7 +3,7 @@ package vtables_example.syntax;
 public class VoidType implements Type {
     public int hashCode() { return 0; }
     public boolean equals(final Object other) {
-        return other instanceof VoidType;
+        return other == this || other instanceof VoidType;
     }
     public String toString() { return "void"; }
 }
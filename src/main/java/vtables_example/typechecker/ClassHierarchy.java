@@ -0,0 +1,157 @@
+package vtables_example.typechecker;
+
+import vtables_example.syntax.ClassName;
+import vtables_example.syntax.ClassDefinition;
+
+import java.util.Arrays;
+import java.util.Map;
+
+// Numbers the inheritance forest in preorder, recording for each class
+// the last preorder number within its subtree.  A class is then a
+// subclass of another exactly when its number falls within the other's
+// interval, which is two integer comparisons.
+//
+// A class whose parent isn't defined is treated as a root, remembering
+// the missing name so the error can still be reported.  Classes on an
+// inheritance cycle are unreachable from any root and are left unnumbered.
+public class ClassHierarchy {
+    private static final int UNNUMBERED = -1;
+
+    private final Map<ClassName, ClassDefinition> classes;
+    private final int numClasses;
+    // indexed by class name ID; -1 if there is no such class
+    private int[] positions;
+    private final ClassDefinition[] definitions;
+    private final int[] preorder;
+    private final int[] subtreeEnd;
+    private final int[] root;
+
+    private ClassHierarchy(final Map<ClassName, ClassDefinition> classes) {
+        this.classes = classes;
+        numClasses = classes.size();
+        positions = new int[0];
+        definitions = new ClassDefinition[numClasses];
+        preorder = new int[numClasses];
+        subtreeEnd = new int[numClasses];
+        root = new int[numClasses];
+    }
+
+    public static ClassHierarchy build(final Map<ClassName, ClassDefinition> classes) {
+        final ClassHierarchy result = new ClassHierarchy(classes);
+        result.number();
+        return result;
+    }
+
+    private void number() {
+        int position = 0;
+        for (final ClassDefinition def : classes.values()) {
+            final int id = def.myName.id();
+            if (id >= positions.length) {
+                final int oldLength = positions.length;
+                positions = Arrays.copyOf(positions, Math.max(id + 1, oldLength * 2));
+                Arrays.fill(positions, oldLength, positions.length, -1);
+            }
+            definitions[position] = def;
+            positions[id] = position;
+            position++;
+        }
+
+        // children as compressed adjacency lists: the children of class i
+        // are children[childStart[i] .. childStart[i + 1] - 1]
+        final int[] parent = new int[numClasses];
+        final int[] childStart = new int[numClasses + 1];
+        for (int index = 0; index < numClasses; index++) {
+            final ClassName extendsName = definitions[index].extendsName;
+            parent[index] = (extendsName == null) ? -1 : positionOf(extendsName);
+            if (parent[index] != -1) {
+                childStart[parent[index] + 1]++;
+            }
+        }
+        for (int index = 0; index < numClasses; index++) {
+            childStart[index + 1] += childStart[index];
+        }
+        final int[] children = new int[childStart[numClasses]];
+        final int[] fill = childStart.clone();
+        for (int index = 0; index < numClasses; index++) {
+            if (parent[index] != -1) {
+                children[fill[parent[index]]++] = index;
+            }
+        }
+
+        // iterative depth-first traversal from each root, so deep
+        // hierarchies can't exhaust the stack
+        Arrays.fill(preorder, UNNUMBERED);
+        final int[] stack = new int[numClasses];
+        final int[] nextChild = new int[numClasses];
+        int counter = 0;
+        for (int start = 0; start < numClasses; start++) {
+            if (parent[start] != -1) {
+                continue;
+            }
+            int depth = 0;
+            stack[depth] = start;
+            nextChild[start] = childStart[start];
+            preorder[start] = counter++;
+            root[start] = start;
+            while (depth >= 0) {
+                final int current = stack[depth];
+                if (nextChild[current] < childStart[current + 1]) {
+                    final int child = children[nextChild[current]++];
+                    preorder[child] = counter++;
+                    root[child] = start;
+                    nextChild[child] = childStart[child];
+                    stack[++depth] = child;
+                } else {
+                    subtreeEnd[current] = counter - 1;
+                    depth--;
+                }
+            }
+        }
+    } // number
+
+    // returns -1 if there is no such class
+    private int positionOf(final ClassName className) {
+        final int id = className.id();
+        return (id < positions.length) ? positions[id] : -1;
+    }
+
+    // whether this hierarchy still describes the given definition
+    public boolean isCurrentFor(final Map<ClassName, ClassDefinition> classes,
+                                final ClassDefinition def) {
+        if (classes != this.classes || classes.size() != numClasses) {
+            return false;
+        }
+        final int position = positionOf(def.myName);
+        return position != -1 && definitions[position] == def;
+    }
+
+    // Throws an exception if subName is not baseName or one of its
+    // subclasses.  subName must be defined.
+    public void subtypeOk(final ClassName baseName,
+                          final ClassName subName) throws TypeErrorException {
+        final int sub = positionOf(subName);
+        assert(sub != -1);
+        if (preorder[sub] == UNNUMBERED) {
+            throw new TypeErrorException("Cyclic inheritance on " + subName);
+        }
+
+        final int base = positionOf(baseName);
+        if (base != -1 &&
+            preorder[base] != UNNUMBERED &&
+            preorder[base] <= preorder[sub] &&
+            preorder[sub] <= subtreeEnd[base]) {
+            return;
+        }
+
+        final ClassDefinition rootDef = definitions[root[sub]];
+        if (rootDef.extendsName != null) {
+            // the chain ends at a class which was never defined
+            if (rootDef.extendsName.equals(baseName)) {
+                return;
+            }
+            throw new TypeErrorException("No such class defined: " + rootDef.extendsName);
+        } else {
+            throw new TypeErrorException(rootDef.myName.toString() + " is not a subtype of " + baseName.toString());
+        }
+    } // subtypeOk
+} // ClassHierarchy
@@ -0,0 +1,78 @@
+package vtables_example.typechecker;
+
+import vtables_example.syntax.*;
+import vtables_example.util.PersistentMap;
+
+// Everything accessible on a class, including what it inherits.
+// Members are resolved from the parent's members, sharing them rather
+// than copying.  Where a name is defined more than once, the nearest
+// definition wins, and within a single class the first definition wins.
+// Field types are stored in their canonical form.
+public class ClassMembers {
+    public final ClassDefinition definition;
+    public final ClassMembers parent; // null if no parent
+    private final PersistentMap<Variable, Type> fields;
+    private final PersistentMap<MethodName, MethodDefinition> methods;
+
+    private ClassMembers(final ClassDefinition definition,
+                         final ClassMembers parent,
+                         final PersistentMap<Variable, Type> fields,
+                         final PersistentMap<MethodName, MethodDefinition> methods) {
+        this.definition = definition;
+        this.parent = parent;
+        this.fields = fields;
+        this.methods = methods;
+    }
+
+    // parent is null if definition has no parent
+    public static ClassMembers membersFor(final ClassDefinition definition,
+                                          final ClassMembers parent) {
+        PersistentMap<Variable, Type> fields;
+        PersistentMap<MethodName, MethodDefinition> methods;
+        if (parent == null) {
+            fields = PersistentMap.empty();
+            methods = PersistentMap.empty();
+        } else {
+            fields = parent.fields;
+            methods = parent.methods;
+        }
+
+        // going backwards, so earlier definitions overwrite later ones
+        for (int index = definition.instanceVariables.length - 1; index >= 0; index--) {
+            final VarDec field = definition.instanceVariables[index];
+            fields = fields.put(field.variable, TypeFactory.canonical(field.type));
+        }
+        for (int index = definition.methods.length - 1; index >= 0; index--) {
+            final MethodDefinition method = definition.methods[index];
+            methods = methods.put(method.name, method);
+        }
+
+        return new ClassMembers(definition, parent, fields, methods);
+    }
+
+    // returns null if there is no such field
+    public Type typeofField(final Variable field) {
+        return fields.get(field);
+    }
+
+    // returns null if there is no such method
+    public MethodDefinition findMethod(final MethodName methodName) {
+        return methods.get(methodName);
+    }
+
+    // only considers methods defined on this class itself;
+    // returns null if there is no such method
+    public MethodDefinition findMethodDirect(final MethodName methodName) {
+        final MethodDefinition result = methods.get(methodName);
+        if (result == null || (parent != null && parent.methods.get(methodName) == result)) {
+            return null;
+        } else {
+            return result;
+        }
+    }
+
+    // returns null if there is no parent
+    public VarDec[] superParams() {
+        return (parent == null) ? null : parent.definition.constructor.params;
+    }
+} // ClassMembers
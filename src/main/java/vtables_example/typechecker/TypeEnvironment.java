@@ -1,25 +1,43 @@
 package vtables_example.typechecker;
 
 import vtables_example.syntax.*;
+import vtables_example.util.PersistentMap;
 
 import java.util.Map;
 import java.util.HashMap;
 
+// Environments are immutable.  Adding a variable shares everything else
+// with the environment it came from, so building up N variables takes
+// O(N log N) rather than copying the whole map each time.  Types are
+// stored in their canonical form.
 public class TypeEnvironment {
-    private final Map<Variable, Type> variables;
+    private final PersistentMap<Variable, Type> variables;
     private final ClassName thisClass; // null if outside of method
-    
-    public TypeEnvironment(final Map<Variable, Type> variables,
-                           final ClassName thisClass) {
+
+    private TypeEnvironment(final PersistentMap<Variable, Type> variables,
+                            final ClassName thisClass) {
         this.variables = variables;
         this.thisClass = thisClass;
     }
 
+    public TypeEnvironment(final Map<Variable, Type> variables,
+                           final ClassName thisClass) {
+        this(toPersistent(variables), thisClass);
+    }
+
+    private static PersistentMap<Variable, Type> toPersistent(final Map<Variable, Type> variables) {
+        PersistentMap<Variable, Type> result = PersistentMap.empty();
+        for (final Map.Entry<Variable, Type> entry : variables.entrySet()) {
+            result = result.put(entry.getKey(), TypeFactory.canonical(entry.getValue()));
+        }
+        return result;
+    }
+
     public Type thisType() throws TypeErrorException {
         if (thisClass == null) {
             throw new TypeErrorException("this used outside of class");
         } else {
-            return new ClassType(thisClass);
+            return TypeFactory.classType(thisClass);
         }
     }
     
@@ -35,9 +53,7 @@ public class TypeEnvironment {
     public TypeEnvironment addVariable(final Variable variable,
                                        final Type type) throws TypeErrorException {
         if (!variables.containsKey(variable)) {
-            final Map<Variable, Type> newVariables = new HashMap<Variable, Type>(variables);
-            newVariables.put(variable, type);
-            return new TypeEnvironment(newVariables, thisClass);
+            return new TypeEnvironment(variables.put(variable, TypeFactory.canonical(type)), thisClass);
         } else {
             throw new TypeErrorException("Redefinition of variable: " + variable);
         }
@@ -1,6 +1,7 @@
 package vtables_example.typechecker;
 
 import vtables_example.syntax.*;
+import vtables_example.util.IdTable;
 
 import java.util.Set;
 import java.util.HashSet;
@@ -8,14 +9,143 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Typechecker {
+    // ---BEGIN CONSTANTS---
+    // parallel checking hands out at most this many bodies to each task
+    public static final int BODIES_PER_TASK = 8;
+    // ---END CONSTANTS---
+
     public final Map<ClassName, ClassDefinition> classes;
+    private ClassHierarchy hierarchy; // null until needed; rebuilt if classes changes
+    // resolved members of each class, filled in as they are needed;
+    // indexed by class name ID.  Before bodies are checked in parallel,
+    // every class is resolved, so tasks only ever read this.
+    private final IdTable<ClassMembers> members;
+    private final LongAdder memberCacheHits;
+    private final LongAdder memberCacheMisses;
+    private final LhsTyper lhsTyper;
+    private final ExpTyper expTyper;
 
     public Typechecker(final Map<ClassName, ClassDefinition> classes) {
         this.classes = classes;
+        lhsTyper = new LhsTyper();
+        expTyper = new ExpTyper();
+        hierarchy = null;
+        members = new IdTable<ClassMembers>();
+        memberCacheHits = new LongAdder();
+        memberCacheMisses = new LongAdder();
     }
 
+    // ---BEGIN VISITORS---
+    // Types lhses, filling in the class accessed by each field access.
+    private class LhsTyper implements LhsVisitor<TypeEnvironment, Type, TypeErrorException> {
+        public Type visitVariableLhs(final VariableLhs lhs,
+                                     final TypeEnvironment env) throws TypeErrorException {
+            return env.lookup(lhs.variable);
+        }
+
+        public Type visitFieldAccessLhs(final FieldAccessLhs lhs,
+                                        final TypeEnvironment env) throws TypeErrorException {
+            final Type lhsType = lhs.lhs.accept(this, env);
+            if (lhsType instanceof ClassType) {
+                final ClassName accessName = ((ClassType)lhsType).name;
+                lhs.setLhsClass(accessName);
+                return typeofField(accessName, lhs.field);
+            } else {
+                throw new TypeErrorException("Expected class type; got: " + lhsType);
+            }
+        }
+
+        public Type visitThisLhs(final ThisLhs lhs,
+                                 final TypeEnvironment env) throws TypeErrorException {
+            return env.thisType();
+        }
+    } // LhsTyper
+
+    private class ExpTyper implements ExpVisitor<TypeEnvironment, Type, TypeErrorException> {
+        public Type visitIntExp(final IntExp exp,
+                                final TypeEnvironment env) {
+            return TypeFactory.intType();
+        }
+
+        public Type visitLhsExp(final LhsExp exp,
+                                final TypeEnvironment env) throws TypeErrorException {
+            return exp.lhs.accept(lhsTyper, env);
+        }
+    } // ExpTyper
+
+    // Typechecks statements within one body, returning the environment
+    // after the statement.
+    private class StmtTyper implements StmtVisitor<TypeEnvironment, TypeEnvironment, TypeErrorException> {
+        private final Type returnType;      // null if return is not ok
+        private final VarDec[] superParams; // null if not expecting super
+
+        public StmtTyper(final Type returnType,
+                         final VarDec[] superParams) {
+            this.returnType = returnType;
+            this.superParams = superParams;
+        }
+
+        public TypeEnvironment visitNewStmt(final NewStmt stmt,
+                                            final TypeEnvironment env) throws TypeErrorException {
+            return typecheckNewStmt(env, stmt);
+        }
+
+        public TypeEnvironment visitMethodCallStmt(final MethodCallStmt stmt,
+                                                   final TypeEnvironment env) throws TypeErrorException {
+            return typecheckMethodCallStmt(env, stmt);
+        }
+
+        public TypeEnvironment visitPrintStmt(final PrintStmt stmt,
+                                              final TypeEnvironment env) throws TypeErrorException {
+            typecheckPrintStmt(env, stmt);
+            return env;
+        }
+
+        public TypeEnvironment visitReturnStmt(final ReturnStmt stmt,
+                                               final TypeEnvironment env) throws TypeErrorException {
+            typecheckReturnStmt(env, returnType, stmt);
+            return env;
+        }
+
+        public TypeEnvironment visitAssignStmt(final AssignStmt stmt,
+                                               final TypeEnvironment env) throws TypeErrorException {
+            typecheckAssignStmt(env, stmt);
+            return env;
+        }
+
+        public TypeEnvironment visitSuperStmt(final SuperStmt stmt,
+                                              final TypeEnvironment env) throws TypeErrorException {
+            typecheckSuperStmt(env, superParams, stmt);
+            return env;
+        }
+
+        public TypeEnvironment visitSequenceStmt(final SequenceStmt stmt,
+                                                 final TypeEnvironment env) throws TypeErrorException {
+            return visitBlockStmt(BlockStmt.flatten(stmt), env);
+        }
+
+        public TypeEnvironment visitBlockStmt(final BlockStmt stmt,
+                                              final TypeEnvironment env) throws TypeErrorException {
+            TypeEnvironment current = env;
+            for (final Stmt inner : stmt.stmts) {
+                current = inner.accept(this, current);
+            }
+            return current;
+        }
+
+        public TypeEnvironment visitEmptyStmt(final EmptyStmt stmt,
+                                              final TypeEnvironment env) {
+            return env;
+        }
+    } // StmtTyper
+    // ---END VISITORS---
+
     public ClassDefinition getClass(final ClassName name) throws TypeErrorException {
         final ClassDefinition result = classes.get(name);
         if (result == null) {
@@ -30,67 +160,88 @@ public class Typechecker {
         throw new TypeErrorException("Should be unreachable");
     } // deadCode
     
+    // Resolves the members of this class, and any ancestors that haven't
+    // been resolved yet.  This walks up iteratively, so deep hierarchies
+    // can't exhaust the stack.
+    public ClassMembers membersOf(final ClassName className) throws TypeErrorException {
+        final ClassMembers cached = members.get(className.id());
+        if (cached != null) {
+            memberCacheHits.increment();
+            return cached;
+        }
+        memberCacheMisses.increment();
+
+        final List<ClassDefinition> unresolved = new ArrayList<ClassDefinition>();
+        ClassName current = className;
+        ClassMembers parent = null;
+        while (current != null) {
+            parent = members.get(current.id());
+            if (parent != null) {
+                break;
+            }
+            if (unresolved.size() > classes.size()) {
+                throw new TypeErrorException("Cyclic inheritance on " + className);
+            }
+            final ClassDefinition classDef = getClass(current);
+            unresolved.add(classDef);
+            current = classDef.extendsName;
+        }
+
+        for (int index = unresolved.size() - 1; index >= 0; index--) {
+            final ClassDefinition classDef = unresolved.get(index);
+            parent = ClassMembers.membersFor(classDef, parent);
+            members.put(classDef.myName.id(), parent);
+        }
+        return parent;
+    } // membersOf
+
+    public long memberCacheHits() {
+        return memberCacheHits.sum();
+    } // memberCacheHits
+
+    public long memberCacheMisses() {
+        return memberCacheMisses.sum();
+    } // memberCacheMisses
+
     public Type typeofField(final ClassName onClass,
                             final Variable fieldName) throws TypeErrorException {
-        if (onClass == null) {
+        final Type result = (onClass == null) ? null : membersOf(onClass).typeofField(fieldName);
+        if (result == null) {
             throw new TypeErrorException("No instance variable defined: " + fieldName);
         } else {
-            final ClassDefinition classDef = getClass(onClass);
-            for (final VarDec vardec : classDef.instanceVariables) {
-                if (vardec.variable.equals(fieldName)) {
-                    return vardec.type;
-                }
-            }
-            // if we get here, this class lacks this instance variable
-            // see if a parent has it
-            return typeofField(classDef.extendsName, fieldName);
+            return result;
         }
     } // typeofField
     
     public Type typeofLhs(final TypeEnvironment env,
                           final Lhs lhs) throws TypeErrorException {
-        if (lhs instanceof VariableLhs) {
-            final Variable variable = ((VariableLhs)lhs).variable;
-            return env.lookup(variable);
-        } else if (lhs instanceof FieldAccessLhs) {
-            final FieldAccessLhs asField = (FieldAccessLhs)lhs;
-            final Type lhsType = typeofLhs(env, asField.lhs);
-            if (lhsType instanceof ClassType) {
-                final ClassName accessName = ((ClassType)lhsType).name;
-                asField.setLhsClass(accessName);
-                return typeofField(accessName, asField.field);
-            } else {
-                throw new TypeErrorException("Expected class type; got: " + lhsType);
-            }
-        } else if (lhs instanceof ThisLhs) {
-            return env.thisType();
-        } else {
-            return deadCode();
-        }
+        return lhs.accept(lhsTyper, env);
     } // typeofLhs
     
     public Type typeofExp(final TypeEnvironment env,
                           final Exp exp) throws TypeErrorException {
-        if (exp instanceof IntExp) {
-            return new IntType();
-        } else if (exp instanceof LhsExp) {
-            return typeofLhs(env, ((LhsExp)exp).lhs);
-        } else {
+        if (exp == null) {
             return deadCode();
+        } else {
+            return exp.accept(expTyper, env);
         }
     } // typeofExp
 
+    // the hierarchy of the current classes, rebuilding if they've changed
+    private ClassHierarchy hierarchyFor(final ClassDefinition def) {
+        if (hierarchy == null || !hierarchy.isCurrentFor(classes, def)) {
+            hierarchy = ClassHierarchy.build(classes);
+        }
+        return hierarchy;
+    } // hierarchyFor
+
     public void typesOk(final Type baseType, final Type subType) throws TypeErrorException {
-        if (!baseType.equals(subType)) {
+        if (TypeFactory.canonical(baseType) != TypeFactory.canonical(subType)) {
             // see if subType is a subtype of base type
             if (baseType instanceof ClassType && subType instanceof ClassType) {
                 final ClassName subName = ((ClassType)subType).name;
                 final ClassDefinition subClassDef = getClass(subName);
-                if (subClassDef.extendsName != null) {
-                    typesOk(baseType, new ClassType(subClassDef.extendsName));
-                } else {
-                    throw new TypeErrorException(subType.toString() + " is not a subtype of " + baseType.toString());
-                }
+                hierarchyFor(subClassDef).subtypeOk(((ClassType)baseType).name, subName);
             } else {
                 throw new TypeErrorException("Base type " + baseType + " is not comparable to " + subType);
             }
@@ -117,26 +268,14 @@ public class Typechecker {
     // returns null if it couldn't find it
     public MethodDefinition findMethodDirect(final ClassName onClass,
                                              final MethodName methodName) throws TypeErrorException {
-        final ClassDefinition classDef = getClass(onClass);
-        for (final MethodDefinition methodDef : classDef.methods) {
-            if (methodDef.name.equals(methodName)) {
-                return methodDef;
-            }
-        }
-        return null;
+        return membersOf(onClass).findMethodDirect(methodName);
     } // findMethodDirect
     
     public MethodDefinition findMethod(final ClassName onClass,
                                        final MethodName methodName) throws TypeErrorException {
-        if (onClass == null) {
-            throw new TypeErrorException("No such method: " + methodName);
-        }
-
-        final MethodDefinition result = findMethodDirect(onClass, methodName);
+        final MethodDefinition result = (onClass == null) ? null : membersOf(onClass).findMethod(methodName);
         if (result == null) {
-            final ClassDefinition classDef = getClass(onClass);
-            // Not on me; see if it's on my parent
-            return findMethod(classDef.extendsName, methodName);
+            throw new TypeErrorException("No such method: " + methodName);
         } else {
             return result;
         }
@@ -146,7 +285,7 @@ public class Typechecker {
                                             final NewStmt stmt) throws TypeErrorException {
         final ClassDefinition classDef = getClass(stmt.name);
         paramTypesOk(env, classDef.constructor.params, stmt.params);
-        typesOk(stmt.vardec.type, new ClassType(stmt.name));
+        typesOk(stmt.vardec.type, TypeFactory.classType(stmt.name));
         return env.addVariable(stmt.vardec);
     } // typecheckNewStmt
 
@@ -168,7 +307,7 @@ public class Typechecker {
     public void typecheckPrintStmt(final TypeEnvironment env,
                                    final PrintStmt stmt) throws TypeErrorException {
         final Type printType = typeofExp(env, stmt.exp);
-        if (!printType.equals(new IntType())) {
+        if (TypeFactory.canonical(printType) != TypeFactory.intType()) {
             throw new TypeErrorException("print can only print integers; got: " + printType);
         }
     } // typecheckPrintStmt
@@ -194,127 +333,79 @@ public class Typechecker {
         paramTypesOk(env, superParams, stmt.params);
     } // typecheckSuperStmt
 
-    private static void extractSequenceStmts(final List<Stmt> result, final Stmt stmt) {
-        if (stmt instanceof SequenceStmt) {
-            final SequenceStmt asSeq = (SequenceStmt)stmt;
-            extractSequenceStmts(result, asSeq.first);
-            extractSequenceStmts(result, asSeq.second);
-        } else {
-            result.add(stmt);
-        }
-    } // extractSequenceStmts
-    
-    public static List<Stmt> extractSequenceStmts(final Stmt stmt) {
-        final List<Stmt> result = new ArrayList<Stmt>();
-        extractSequenceStmts(result, stmt);
-        return result;
-    } // extractSequenceStmts
+    // where a body appears, which determines where return and super can go
+    private enum BodyKind {
+        METHOD,
+        BASE_CONSTRUCTOR,
+        SUB_CONSTRUCTOR,
+        ENTRY_POINT
+    }
 
-    public static boolean containsNoReturns(final List<Stmt> statements, final int endPos) {
-        int curPos = 0;
-        for (final Stmt stmt : statements) {
-            if (curPos > endPos) {
-                break;
-            }
-            assert(!(stmt instanceof SequenceStmt));
-            if (stmt instanceof ReturnStmt) {
-                return false;
-            }
-            curPos++;
+    private static void returnOk(final BodyKind kind,
+                                 final boolean isLast) throws TypeErrorException {
+        if (kind == BodyKind.ENTRY_POINT) {
+            throw new TypeErrorException("return in entry point");
+        } else if (kind != BodyKind.METHOD) {
+            throw new TypeErrorException("return in constructor");
+        } else if (!isLast) {
+            throw new TypeErrorException("Early return in method");
         }
-        return true;
-    } // containsNoReturns
+    } // returnOk
 
-    public static boolean containsNoSupers(final List<Stmt> statements, final int startPos) {
-        int curPos = 0;
-        for (final Stmt stmt : statements) {
-            assert(!(stmt instanceof SequenceStmt));
-            if (curPos++ < startPos) {
-                continue;
-            }
-            if (stmt instanceof SuperStmt) {
-                return false;
-            }
-        }
-        return true;
-    } // containsNoSupers
-    
-    public static void superReturnOkInConstructor(final boolean isBaseClass,
-                                                  final Stmt stmt) throws TypeErrorException {
-        final List<Stmt> statements = extractSequenceStmts(stmt);
-        if (isBaseClass && !containsNoSupers(statements, 0)) {
+    private static void superOk(final BodyKind kind) throws TypeErrorException {
+        if (kind == BodyKind.METHOD) {
+            throw new TypeErrorException("methods cannot contain super");
+        } else if (kind == BodyKind.BASE_CONSTRUCTOR) {
             throw new TypeErrorException("base classes cannot contain super");
+        } else if (kind == BodyKind.ENTRY_POINT) {
+            throw new TypeErrorException("super in entry point");
         }
-        if (!isBaseClass &&
-            (statements.size() == 0 ||
-             !(statements.get(0) instanceof SuperStmt))) {
-            throw new TypeErrorException("super needs to be first in subclass constructor");
-        }
-        if (!containsNoReturns(statements, statements.size() - 1)) {
-            throw new TypeErrorException("return in constructor");
-        }
-    } // superReturnOkInConstructor
+    } // superOk
 
-    public static void superReturnOkInMethod(final Stmt stmt) throws TypeErrorException {
-        final List<Stmt> statements = extractSequenceStmts(stmt);
-        final int numStatements = statements.size();
-        if (numStatements == 0 ||
-            !(statements.get(numStatements - 1) instanceof ReturnStmt)) {
+    // Typechecks a whole method, constructor, or entry point body, checking
+    // where return and super appear in the same pass over its statements.
+    private TypeEnvironment typecheckBody(final TypeEnvironment env,
+                                          final BodyKind kind,
+                                          final Type returnType,      // null if return is not ok
+                                          final VarDec[] superParams, // null if not expecting super
+                                          final Stmt body) throws TypeErrorException {
+        final Stmt[] stmts = BlockStmt.flatten(body).stmts;
+        final int numStmts = stmts.length;
+        if (kind == BodyKind.METHOD &&
+            (numStmts == 0 || !(stmts[numStmts - 1] instanceof ReturnStmt))) {
             throw new TypeErrorException("Missing return at method end");
         }
-        if (!containsNoReturns(statements, statements.size() - 2)) {
-            throw new TypeErrorException("Early return in method");
-        }
-        if (!containsNoSupers(statements, 0)) {
-            throw new TypeErrorException("methods cannot contain super");
+        if (kind == BodyKind.SUB_CONSTRUCTOR &&
+            (numStmts == 0 || !(stmts[0] instanceof SuperStmt))) {
+            throw new TypeErrorException("super needs to be first in subclass constructor");
         }
-    } // superReturnOkInMethod
 
-    public static void superReturnOkInEntryPoint(final Stmt stmt) throws TypeErrorException {
-        final List<Stmt> statements = extractSequenceStmts(stmt);
-        if (!containsNoReturns(statements, statements.size() - 1)) {
-            throw new TypeErrorException("return in entry point");
-        }
-        if (!containsNoSupers(statements, 0)) {
-            throw new TypeErrorException("super in entry point");
+        final StmtTyper typer = new StmtTyper(returnType, superParams);
+        TypeEnvironment current = env;
+        for (int index = 0; index < numStmts; index++) {
+            final Stmt stmt = stmts[index];
+            if (stmt instanceof ReturnStmt) {
+                returnOk(kind, index == numStmts - 1);
+            } else if (stmt instanceof SuperStmt) {
+                superOk(kind);
+            }
+            current = stmt.accept(typer, current);
         }
-    } // superReturnOkInEntryPoint
-    
-    public TypeEnvironment typecheckSequenceStmt(final TypeEnvironment env,
-                                                 final Type returnType,         // null if return is not ok
-                                                 final VarDec[] superParams, // null if not expecting super
-                                                 final SequenceStmt stmt) throws TypeErrorException {
-        final TypeEnvironment newEnv = typecheckStmt(env, returnType, superParams, stmt.first);
-        return typecheckStmt(newEnv, returnType, superParams, stmt.second);
-    } // typecheckSequenceStmt
+        return current;
+    } // typecheckBody
+
+    public TypeEnvironment typecheckBlockStmt(final TypeEnvironment env,
+                                              final Type returnType,      // null if return is not ok
+                                              final VarDec[] superParams, // null if not expecting super
+                                              final BlockStmt stmt) throws TypeErrorException {
+        return typecheckStmt(env, returnType, superParams, stmt);
+    } // typecheckBlockStmt
     
     public TypeEnvironment typecheckStmt(final TypeEnvironment env,
                                          final Type returnType,      // null if return is not ok
                                          final VarDec[] superParams, // null if not expecting super
                                          final Stmt stmt) throws TypeErrorException {
-        if (stmt instanceof NewStmt) {
-            return typecheckNewStmt(env, (NewStmt)stmt);
-        } else if (stmt instanceof MethodCallStmt) {
-            return typecheckMethodCallStmt(env, (MethodCallStmt)stmt);
-        } else if (stmt instanceof PrintStmt) {
-            typecheckPrintStmt(env, (PrintStmt)stmt);
-            return env;
-        } else if (stmt instanceof ReturnStmt) {
-            typecheckReturnStmt(env, returnType, (ReturnStmt)stmt);
-            return env;
-        } else if (stmt instanceof AssignStmt) {
-            typecheckAssignStmt(env, (AssignStmt)stmt);
-            return env;
-        } else if (stmt instanceof SuperStmt) {
-            typecheckSuperStmt(env, superParams, (SuperStmt)stmt);
-            return env;
-        } else if (stmt instanceof SequenceStmt) {
-            return typecheckSequenceStmt(env, returnType, superParams, (SequenceStmt)stmt);
-        } else if (stmt instanceof EmptyStmt) {
-            return env;
-        } else {
-            return deadCode();
-        }
+        return stmt.accept(new StmtTyper(returnType, superParams), env);
     } // typecheckStmt
 
     public static void noDuplicates(final VarDec[] params) throws TypeErrorException {
@@ -327,39 +418,15 @@ public class Typechecker {
         }
     } // noDuplicates
 
-    // if I'm virtual, all my superclasses need to be virtual
-    // similarly, if I'm not virtual, all my superclasses need to not be virtual
-    public void virtualOk(final ClassName onClass,
-                          final boolean isVirtual,
-                          final MethodName methodName) throws TypeErrorException {
-        if (onClass != null) {
-            final MethodDefinition current = findMethodDirect(onClass, methodName);
-            if (current != null && current.isVirtual != isVirtual) {
-                throw new TypeErrorException("virtual disagreement on " + methodName);
-            } else {
-                // Either I don't have the method, or virtual agreed.  Make sure
-                // the parent agrees.
-                final ClassDefinition classDef = getClass(onClass);
-                virtualOk(classDef.extendsName, isVirtual, methodName);
-            }
-        }
-    } // virtualOk
-
     public VarDec[] getSuperParams(final ClassName forClass) throws TypeErrorException {
-        final ClassDefinition classDef = getClass(forClass);
-        if (classDef.extendsName != null) {
-            return getClass(classDef.extendsName).constructor.params;
-        } else {
-            return null;
-        }
+        return membersOf(forClass).superParams();
     } // getSuperParams
     
     public void typecheckMethod(final ClassName onClass,
                                 final MethodDefinition methodDef) throws TypeErrorException {
-        virtualOk(onClass, methodDef.isVirtual, methodDef.name);
         noDuplicates(methodDef.params);
-        superReturnOkInMethod(methodDef.body);
-        typecheckStmt(TypeEnvironment.initialEnv(methodDef.params, onClass),
+        typecheckBody(TypeEnvironment.initialEnv(methodDef.params, onClass),
+                      BodyKind.METHOD,
                       methodDef.returnType,
                       null,
                       methodDef.body);
@@ -369,8 +436,8 @@ public class Typechecker {
                                      final Constructor constructor) throws TypeErrorException {
         final ClassDefinition classDef = getClass(onClass);
         noDuplicates(constructor.params);
-        superReturnOkInConstructor(classDef.extendsName == null, constructor.body);
-        typecheckStmt(TypeEnvironment.initialEnv(constructor.params, onClass),
+        typecheckBody(TypeEnvironment.initialEnv(constructor.params, onClass),
+                      (classDef.extendsName == null) ? BodyKind.BASE_CONSTRUCTOR : BodyKind.SUB_CONSTRUCTOR,
                       null,
                       getSuperParams(onClass),
                       constructor.body);
@@ -386,43 +453,164 @@ public class Typechecker {
         }
     } // noDuplicateMethodNames
 
-    public void noCyclicInheritance(final ClassName className) throws TypeErrorException {
-        final Set<ClassName> seen = new HashSet<ClassName>();
-        ClassName current = className;
+    // unvisited classes have no color
+    private enum Color { IN_PROGRESS, DONE }
 
-        while (current != null) {
-            if (seen.contains(current)) {
-                throw new TypeErrorException("Cyclic inheritance on " + className);
+    // Returns every class, with each parent before any of its children.
+    // Throws an exception on cyclic inheritance, or if a parent isn't
+    // defined.  Classes on the chain currently being walked up are
+    // IN_PROGRESS, and classes already placed in the result are DONE.
+    // Reaching an IN_PROGRESS class again means we went around a cycle.
+    public List<ClassDefinition> parentsFirstOrder() throws TypeErrorException {
+        final List<ClassDefinition> result = new ArrayList<ClassDefinition>(classes.size());
+        final Map<ClassName, Color> colors = new HashMap<ClassName, Color>();
+        final List<ClassDefinition> chain = new ArrayList<ClassDefinition>();
+        for (final ClassName className : classes.keySet()) {
+            ClassName current = className;
+            while (current != null && colors.get(current) != Color.DONE) {
+                if (colors.get(current) == Color.IN_PROGRESS) {
+                    throw new TypeErrorException("Cyclic inheritance on " + className);
+                }
+                colors.put(current, Color.IN_PROGRESS);
+                final ClassDefinition classDef = getClass(current);
+                chain.add(classDef);
+                current = classDef.extendsName;
             }
-            seen.add(current);
-            current = getClass(current).extendsName;
+            for (int index = chain.size() - 1; index >= 0; index--) {
+                final ClassDefinition classDef = chain.get(index);
+                colors.put(classDef.myName, Color.DONE);
+                result.add(classDef);
+            }
+            chain.clear();
         }
-    } // noCyclicInheritance
+        return result;
+    } // parentsFirstOrder
 
-    // checks that subclasses don't redefined parent class instance variables
-    public void instanceVariablesOk(final Set<Variable> seen, final ClassName current) throws TypeErrorException {
-        if (current != null) {
+    // Checks that subclasses don't redefine parent class instance
+    // variables, walking up from className, and reporting the first name
+    // seen twice.  Only used to find which name to report, once a clash
+    // is known to be there.
+    public void instanceVariablesOk(final ClassName className) throws TypeErrorException {
+        final Set<Variable> seen = new HashSet<Variable>();
+        ClassName current = className;
+        while (current != null) {
             final ClassDefinition classDef = getClass(current);
-            for (final VarDec param : classDef.instanceVariables) {
-                if (seen.contains(param.variable)) {
-                    throw new TypeErrorException("Instance variable seen: " + param.variable);
+            for (final VarDec field : classDef.instanceVariables) {
+                if (seen.contains(field.variable)) {
+                    throw new TypeErrorException("Instance variable seen: " + field.variable);
                 }
-                seen.add(param.variable);
+                seen.add(field.variable);
             }
-            instanceVariablesOk(seen, classDef.extendsName);
+            current = classDef.extendsName;
         }
     } // instanceVariablesOk
 
-    // checks that subclasses don't redefined parent class instance variables
-    public void instanceVariablesOk(final ClassName current) throws TypeErrorException {
-        instanceVariablesOk(new HashSet<Variable>(), current);
-    } // instanceVariablesOk
-    
+    // Finds everything about each class which depends on its ancestors:
+    // - subclasses don't redefine parent class instance variables
+    // - if I'm virtual, all my superclasses need to be virtual
+    // - similarly, if I'm not virtual, all my superclasses need to not be virtual
+    //
+    // This is done in a single pass, parents first, against the parent's
+    // resolved members.  Only cyclic inheritance and undefined parents are
+    // thrown, as everything else depends on them.  Other errors are
+    // recorded instead, so they can be reported in the same order as
+    // bodies: each class maps to an error for the class as a whole, which
+    // comes before its constructor, and then one for each method, which
+    // comes before that method's body.  Classes without errors aren't
+    // mapped.
+    //
+    // A clash or disagreement anywhere above a class is an error for it
+    // too, as it was when each class walked all of its ancestors.  These
+    // are carried down from parent to child, rather than walked again.
+    private Map<ClassName, TypeErrorException[]> hierarchyErrors() throws TypeErrorException {
+        final Map<ClassName, TypeErrorException[]> result = new HashMap<ClassName, TypeErrorException[]>();
+        // classes where some instance variable is defined twice, from the
+        // class up
+        final Set<ClassName> clashing = new HashSet<ClassName>();
+        // for each class, methods which disagree on being virtual, from the
+        // class up; unmapped if there are none
+        final Map<ClassName, Set<MethodName>> disagreeing = new HashMap<ClassName, Set<MethodName>>();
+        final Set<MethodName> none = new HashSet<MethodName>();
+
+        for (final ClassDefinition classDef : parentsFirstOrder()) {
+            final ClassMembers parent =
+                (classDef.extendsName == null) ? null : membersOf(classDef.extendsName);
+            final TypeErrorException[] errors = new TypeErrorException[classDef.methods.length + 1];
+
+            boolean clash = parent != null && clashing.contains(classDef.extendsName);
+            final Set<Variable> fields = new HashSet<Variable>();
+            for (final VarDec field : classDef.instanceVariables) {
+                if (!fields.add(field.variable) ||
+                    (parent != null && parent.typeofField(field.variable) != null)) {
+                    clash = true;
+                }
+            }
+            try {
+                noDuplicateMethodNames(classDef.methods);
+                noDuplicates(classDef.instanceVariables);
+                if (clash) {
+                    instanceVariablesOk(classDef.myName);
+                }
+            } catch (final TypeErrorException e) {
+                errors[0] = e;
+            }
+            if (clash) {
+                clashing.add(classDef.myName);
+            }
+
+            final Set<MethodName> parentDisagreeing =
+                (parent == null) ? none : disagreeing.getOrDefault(classDef.extendsName, none);
+            Set<MethodName> myDisagreeing = parentDisagreeing;
+            for (int index = 0; index < classDef.methods.length; index++) {
+                final MethodDefinition methodDef = classDef.methods[index];
+                final MethodDefinition inherited = (parent == null) ? null : parent.findMethod(methodDef.name);
+                if (inherited != null &&
+                    (inherited.isVirtual != methodDef.isVirtual || parentDisagreeing.contains(methodDef.name))) {
+                    errors[index + 1] = new TypeErrorException("virtual disagreement on " + methodDef.name);
+                    if (myDisagreeing == parentDisagreeing) {
+                        myDisagreeing = new HashSet<MethodName>(parentDisagreeing);
+                    }
+                    myDisagreeing.add(methodDef.name);
+                }
+            }
+            if (!myDisagreeing.isEmpty()) {
+                disagreeing.put(classDef.myName, myDisagreeing);
+            }
+
+            for (final TypeErrorException error : errors) {
+                if (error != null) {
+                    result.put(classDef.myName, errors);
+                    break;
+                }
+            }
+        }
+        return result;
+    } // hierarchyErrors
+
+    // the hierarchy error to report just before checking body, if any
+    private static TypeErrorException hierarchyError(final Map<ClassName, TypeErrorException[]> errors,
+                                                     final Body body) {
+        final TypeErrorException[] forClass = errors.get(body.onClass);
+        return (forClass == null) ? null : forClass[body.position];
+    } // hierarchyError
+
+    // Checks the hierarchy on its own, throwing the first error that
+    // typecheckAllClasses would if every body were well-typed.
+    public void hierarchyOk() throws TypeErrorException {
+        final Map<ClassName, TypeErrorException[]> errors = hierarchyErrors();
+        if (!errors.isEmpty()) {
+            for (final Body body : bodiesInOrder()) {
+                final TypeErrorException error = hierarchyError(errors, body);
+                if (error != null) {
+                    throw error;
+                }
+            }
+        }
+    } // hierarchyOk
+
+    // expects that hierarchyOk has already been checked
     public void typecheckClass(final ClassName className) throws TypeErrorException {
         final ClassDefinition classDef = getClass(className);
-        noDuplicateMethodNames(classDef.methods);
-        noDuplicates(classDef.instanceVariables);
-        instanceVariablesOk(className);
         typecheckConstructor(className, classDef.constructor);
         for (final MethodDefinition methodDef : classDef.methods) {
             typecheckMethod(className, methodDef);
@@ -430,13 +618,127 @@ public class Typechecker {
     } // typecheckClass
 
     public void typecheckAllClasses() throws TypeErrorException {
-        // cyclic checks go first, as all downstream code assumes acyclic
-        // inheritance
-        for (final ClassName className : classes.keySet()) {
-            noCyclicInheritance(className);
+        // hierarchy checks go first, as all downstream code assumes acyclic
+        // inheritance; anything else they find is reported in turn with
+        // the bodies, so the first error is the same as checking each
+        // class in full, one after another
+        final Map<ClassName, TypeErrorException[]> errors = hierarchyErrors();
+        hierarchy = ClassHierarchy.build(classes);
+        for (final Body body : bodiesInOrder()) {
+            final TypeErrorException error = hierarchyError(errors, body);
+            if (error != null) {
+                throw error;
+            }
+            typecheckBody(body);
+        }
+    } // typecheckAllClasses
+
+    // A constructor or method body, which can be checked independently of
+    // any other once the hierarchy is known to be acyclic.
+    private static class Body {
+        public final ClassName onClass;
+        public final MethodDefinition method; // null for the constructor
+        public final int position;            // 0 for the constructor, then 1 + method index
+
+        public Body(final ClassName onClass,
+                    final MethodDefinition method,
+                    final int position) {
+            this.onClass = onClass;
+            this.method = method;
+            this.position = position;
+        }
+    } // Body
+
+    // every body, in the order typecheckAllClasses checks them
+    private List<Body> bodiesInOrder() {
+        final List<Body> result = new ArrayList<Body>();
+        for (final Map.Entry<ClassName, ClassDefinition> entry : classes.entrySet()) {
+            result.add(new Body(entry.getKey(), null, 0));
+            final MethodDefinition[] methods = entry.getValue().methods;
+            for (int index = 0; index < methods.length; index++) {
+                result.add(new Body(entry.getKey(), methods[index], index + 1));
+            }
         }
+        return result;
+    } // bodiesInOrder
+
+    private void typecheckBody(final Body body) throws TypeErrorException {
+        if (body.method == null) {
+            typecheckConstructor(body.onClass, getClass(body.onClass).constructor);
+        } else {
+            typecheckMethod(body.onClass, body.method);
+        }
+    } // typecheckBody
+
+    // Checks bodies[start .. end - 1], splitting the range in half until
+    // it's small.  Each failing body records its error, and bodies after
+    // the earliest known failure are skipped; every body before it is
+    // still checked, so the earliest failure overall is always found.
+    private class BodiesTask extends RecursiveAction {
+        private final List<Body> bodies;
+        private final TypeErrorException[] errors;
+        private final AtomicInteger firstError;
+        private final int start;
+        private final int end;
+
+        public BodiesTask(final List<Body> bodies,
+                          final TypeErrorException[] errors,
+                          final AtomicInteger firstError,
+                          final int start,
+                          final int end) {
+            this.bodies = bodies;
+            this.errors = errors;
+            this.firstError = firstError;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start <= BODIES_PER_TASK) {
+                for (int index = start; index < end && index < firstError.get(); index++) {
+                    try {
+                        typecheckBody(bodies.get(index));
+                    } catch (final TypeErrorException e) {
+                        errors[index] = e;
+                        firstError.accumulateAndGet(index, Math::min);
+                    }
+                }
+            } else {
+                final int middle = (start + end) >>> 1;
+                invokeAll(new BodiesTask(bodies, errors, firstError, start, middle),
+                          new BodiesTask(bodies, errors, firstError, middle, end));
+            }
+        }
+    } // BodiesTask
+
+    // Like typecheckAllClasses, but checks constructor and method bodies in
+    // parallel on the given pool.  If any are ill-typed, the error thrown is
+    // the same one typecheckAllClasses would throw.
+    public void typecheckAllClasses(final ForkJoinPool pool) throws TypeErrorException {
+        final Map<ClassName, TypeErrorException[]> hierarchyErrors = hierarchyErrors();
+        hierarchy = ClassHierarchy.build(classes);
+        // resolve everything up front, so tasks never write to members
         for (final ClassName className : classes.keySet()) {
-            typecheckClass(className);
+            membersOf(className);
+        }
+
+        final List<Body> bodies = bodiesInOrder();
+        final TypeErrorException[] errors = new TypeErrorException[bodies.size()];
+        // bodies from the first hierarchy error on aren't checked at all
+        int firstHierarchyError = bodies.size();
+        if (!hierarchyErrors.isEmpty()) {
+            for (int index = 0; index < bodies.size(); index++) {
+                errors[index] = hierarchyError(hierarchyErrors, bodies.get(index));
+                if (errors[index] != null) {
+                    firstHierarchyError = index;
+                    break;
+                }
+            }
+        }
+        final AtomicInteger firstError = new AtomicInteger(firstHierarchyError);
+        pool.invoke(new BodiesTask(bodies, errors, firstError, 0, bodies.size()));
+        if (firstError.get() < bodies.size()) {
+            throw errors[firstError.get()];
         }
     } // typecheckAllClasses
 
@@ -451,12 +753,25 @@ public class Typechecker {
         return mapping;
     } // classMapping
     
+    public void typecheckEntryPoint(final Stmt entryPoint) throws TypeErrorException {
+        typecheckBody(TypeEnvironment.initialEnv(new VarDec[0], null),
+                      BodyKind.ENTRY_POINT,
+                      null,
+                      null,
+                      entryPoint);
+    } // typecheckEntryPoint
+
     public static void typecheckProgram(final Program program) throws TypeErrorException {
         final Typechecker typechecker = new Typechecker(classMapping(program.classes));
         typechecker.typecheckAllClasses();
-        typechecker.typecheckStmt(TypeEnvironment.initialEnv(new VarDec[0], null),
-                                  null,
-                                  null,
-                                  program.entryPoint);
+        typechecker.typecheckEntryPoint(program.entryPoint);
+    } // typecheckProgram
+
+    // checks class bodies in parallel on the given pool
+    public static void typecheckProgram(final Program program,
+                                        final ForkJoinPool pool) throws TypeErrorException {
+        final Typechecker typechecker = new Typechecker(classMapping(program.classes));
+        typechecker.typecheckAllClasses(pool);
+        typechecker.typecheckEntryPoint(program.entryPoint);
     } // typecheckProgram
 } // Typechecker
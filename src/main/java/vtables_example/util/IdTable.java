@@ -0,0 +1,38 @@
+package vtables_example.util;
+
+import java.util.Arrays;
+
+// Map from small, dense integer IDs (such as those handed out for
+// interned names) to values, backed by an array.  Lookups don't hash.
+//
+// This isn't synchronized.  If every ID put is below the initial
+// capacity, though, the backing array is never replaced, so different
+// threads can safely put different IDs at the same time.
+public final class IdTable<V> {
+    private Object[] values;
+
+    public IdTable() {
+        this(16);
+    }
+
+    public IdTable(final int capacity) {
+        values = new Object[Math.max(capacity, 1)];
+    }
+
+    // returns null if nothing is stored for this ID
+    @SuppressWarnings("unchecked")
+    public V get(final int id) {
+        return (id < values.length) ? (V)values[id] : null;
+    }
+
+    public void put(final int id, final V value) {
+        if (id >= values.length) {
+            values = Arrays.copyOf(values, Math.max(id + 1, values.length * 2));
+        }
+        values[id] = value;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+    }
+} // IdTable
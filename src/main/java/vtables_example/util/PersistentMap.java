@@ -0,0 +1,245 @@
+package vtables_example.util;
+
+import java.util.function.BiConsumer;
+
+// Immutable hash map with structural sharing (a hash array mapped trie).
+// put returns a new map which shares all untouched subtrees with the old
+// one, so deriving a map from another costs O(log32 n) time and space
+// rather than a full copy.  This is what lets per-class tables inherit
+// from their parent's table without copying it.
+public final class PersistentMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentMap EMPTY = new PersistentMap(null, 0);
+
+    private final Node root; // null if empty
+    private final int size;
+
+    private PersistentMap(final Node root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>)EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // returns null if the key isn't in the map
+    @SuppressWarnings("unchecked")
+    public V get(final Object key) {
+        if (root == null) {
+            return null;
+        } else {
+            return (V)root.get(0, key.hashCode(), key);
+        }
+    }
+
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    // values cannot be null, as null is used to signal absence
+    public PersistentMap<K, V> put(final K key, final V value) {
+        assert(value != null);
+        final boolean[] addedLeaf = new boolean[] { false };
+        final Node start = (root == null) ? BitmapNode.EMPTY : root;
+        final Node newRoot = start.put(0, key.hashCode(), key, value, addedLeaf);
+        if (newRoot == root) {
+            return this;
+        } else {
+            return new PersistentMap<K, V>(newRoot, addedLeaf[0] ? size + 1 : size);
+        }
+    }
+
+    // adds the key only if it isn't already present
+    public PersistentMap<K, V> putIfAbsent(final K key, final V value) {
+        return containsKey(key) ? this : put(key, value);
+    }
+
+    // order of traversal is unspecified, but stable for a given map
+    @SuppressWarnings("unchecked")
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        if (root != null) {
+            root.forEach((BiConsumer<Object, Object>)action);
+        }
+    }
+
+    private static int bitFor(final int hash, final int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private abstract static class Node {
+        abstract Object get(int shift, int hash, Object key);
+        abstract Node put(int shift, int hash, Object key, Object value, boolean[] addedLeaf);
+        abstract void forEach(BiConsumer<Object, Object> action);
+    }
+
+    // Slots come in pairs: (key, value) for leaves, or (null, Node) for
+    // subtries.  Only slots whose bit is set in the bitmap are stored.
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(final int bitmap, final Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int indexFor(final int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Object get(final int shift, final int hash, final Object key) {
+            final int bit = bitFor(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            final int index = indexFor(bit);
+            final Object slotKey = slots[2 * index];
+            final Object slotValue = slots[2 * index + 1];
+            if (slotKey == null) {
+                return ((Node)slotValue).get(shift + BITS, hash, key);
+            } else if (key.equals(slotKey)) {
+                return slotValue;
+            } else {
+                return null;
+            }
+        }
+
+        private BitmapNode withSlot(final int index, final Object key, final Object value) {
+            final Object[] newSlots = slots.clone();
+            newSlots[2 * index] = key;
+            newSlots[2 * index + 1] = value;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        Node put(final int shift,
+                 final int hash,
+                 final Object key,
+                 final Object value,
+                 final boolean[] addedLeaf) {
+            final int bit = bitFor(hash, shift);
+            final int index = indexFor(bit);
+            if ((bitmap & bit) == 0) {
+                final int count = Integer.bitCount(bitmap);
+                final Object[] newSlots = new Object[2 * (count + 1)];
+                System.arraycopy(slots, 0, newSlots, 0, 2 * index);
+                newSlots[2 * index] = key;
+                newSlots[2 * index + 1] = value;
+                System.arraycopy(slots, 2 * index, newSlots, 2 * (index + 1), 2 * (count - index));
+                addedLeaf[0] = true;
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+
+            final Object slotKey = slots[2 * index];
+            final Object slotValue = slots[2 * index + 1];
+            if (slotKey == null) {
+                final Node child = (Node)slotValue;
+                final Node newChild = child.put(shift + BITS, hash, key, value, addedLeaf);
+                return (newChild == child) ? this : withSlot(index, null, newChild);
+            } else if (key.equals(slotKey)) {
+                return (value == slotValue) ? this : withSlot(index, slotKey, value);
+            } else {
+                addedLeaf[0] = true;
+                return withSlot(index,
+                                null,
+                                pair(shift + BITS, slotKey, slotValue, hash, key, value));
+            }
+        }
+
+        void forEach(final BiConsumer<Object, Object> action) {
+            for (int index = 0; index < slots.length; index += 2) {
+                if (slots[index] == null) {
+                    ((Node)slots[index + 1]).forEach(action);
+                } else {
+                    action.accept(slots[index], slots[index + 1]);
+                }
+            }
+        }
+    } // BitmapNode
+
+    // All keys here share the exact same hash
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Object[] slots;
+
+        CollisionNode(final int hash, final Object[] slots) {
+            this.hash = hash;
+            this.slots = slots;
+        }
+
+        Object get(final int shift, final int hash, final Object key) {
+            for (int index = 0; index < slots.length; index += 2) {
+                if (key.equals(slots[index])) {
+                    return slots[index + 1];
+                }
+            }
+            return null;
+        }
+
+        Node put(final int shift,
+                 final int hash,
+                 final Object key,
+                 final Object value,
+                 final boolean[] addedLeaf) {
+            if (hash != this.hash) {
+                // push this node down a level so the new key can sit beside it
+                final BitmapNode wrapper =
+                    new BitmapNode(bitFor(this.hash, shift), new Object[] { null, this });
+                return wrapper.put(shift, hash, key, value, addedLeaf);
+            }
+            for (int index = 0; index < slots.length; index += 2) {
+                if (key.equals(slots[index])) {
+                    if (value == slots[index + 1]) {
+                        return this;
+                    }
+                    final Object[] newSlots = slots.clone();
+                    newSlots[index + 1] = value;
+                    return new CollisionNode(hash, newSlots);
+                }
+            }
+            final Object[] newSlots = new Object[slots.length + 2];
+            System.arraycopy(slots, 0, newSlots, 0, slots.length);
+            newSlots[slots.length] = key;
+            newSlots[slots.length + 1] = value;
+            addedLeaf[0] = true;
+            return new CollisionNode(hash, newSlots);
+        }
+
+        void forEach(final BiConsumer<Object, Object> action) {
+            for (int index = 0; index < slots.length; index += 2) {
+                action.accept(slots[index], slots[index + 1]);
+            }
+        }
+    } // CollisionNode
+
+    private static Node pair(final int shift,
+                             final Object key1,
+                             final Object value1,
+                             final int hash2,
+                             final Object key2,
+                             final Object value2) {
+        final int hash1 = key1.hashCode();
+        if (hash1 == hash2) {
+            return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+        } else {
+            final boolean[] ignored = new boolean[] { false };
+            return BitmapNode.EMPTY
+                .put(shift, hash1, key1, value1, ignored)
+                .put(shift, hash2, key2, value2, ignored);
+        }
+    }
+} // PersistentMap
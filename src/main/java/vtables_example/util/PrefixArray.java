@@ -0,0 +1,88 @@
+package vtables_example.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Immutable array which can be extended without copying it.  Every array
+// extended from the same array shares its elements.  The first extension
+// also writes its new elements into the same backing store, just past the
+// end; a later extension of the same array finds that space taken, and
+// copies instead.  Down a single chain of extensions, then, every array
+// shares one backing store, which doubles as needed, so n nested prefixes
+// take O(n) space rather than O(n^2).  This is what lets each class's
+// vtable slots extend its parent's without copying them.
+//
+// Lookups are a plain array index.  Extending is safe from any number of
+// threads at once, and never takes a lock.
+public final class PrefixArray<V> {
+    private static final class Backing {
+        final Object[] elements;
+        final AtomicInteger used; // elements at or past this are free
+
+        Backing(final Object[] elements, final int used) {
+            this.elements = elements;
+            this.used = new AtomicInteger(used);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final PrefixArray EMPTY = new PrefixArray(new Backing(new Object[0], 0), 0);
+
+    private final Backing backing;
+    private final int length;
+
+    private PrefixArray(final Backing backing, final int length) {
+        this.backing = backing;
+        this.length = length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PrefixArray<V> empty() {
+        return (PrefixArray<V>)EMPTY;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(final int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+        }
+        return (V)backing.elements[index];
+    }
+
+    // returns this array followed by more; this array is unchanged
+    public PrefixArray<V> append(final List<? extends V> more) {
+        if (more.isEmpty()) {
+            return this;
+        }
+        final int newLength = length + more.size();
+        final Object[] elements = backing.elements;
+        if (newLength <= elements.length &&
+            backing.used.compareAndSet(length, newLength)) {
+            // the space past my end was free, and is now ours
+            for (int index = 0; index < more.size(); index++) {
+                elements[length + index] = more.get(index);
+            }
+            return new PrefixArray<V>(backing, newLength);
+        } else {
+            final Object[] copy = new Object[Math.max(newLength, 2 * length)];
+            System.arraycopy(elements, 0, copy, 0, length);
+            for (int index = 0; index < more.size(); index++) {
+                copy[length + index] = more.get(index);
+            }
+            return new PrefixArray<V>(new Backing(copy, newLength), newLength);
+        }
+    } // append
+
+    // whether the two share their backing store
+    public boolean sharesWith(final PrefixArray<?> other) {
+        return other.backing == backing;
+    }
+} // PrefixArray
@@ -0,0 +1,212 @@
+package vtables_example.batch;
+
+import vtables_example.benchmark.ProgramGenerator;
+import vtables_example.codegen.AsmSink;
+import vtables_example.codegen.MemorySink;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.TypeErrorException;
+import static vtables_example.codegen.MIPSCodeGeneratorClassTest.compileToBytes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class BatchCompilerTest {
+    public static Program generated(final int numHierarchies, final int numGroups) {
+        return new ProgramGenerator(new AstBuilder(false), numHierarchies, 3).program(numGroups);
+    }
+
+    // prints a variable that was never declared
+    public static Program illTyped() {
+        return new Program(new ClassDefinition[0],
+                           new PrintStmt(new LhsExp(new VariableLhs(new Variable("undeclared")))));
+    }
+
+    // prints x.f.f...f, with the field access nested far too deeply to
+    // check recursively on an ordinary thread; built on a thread with a
+    // large stack, as a program hashes itself when constructed
+    public static Program nestedTooDeeply() throws InterruptedException {
+        final Program[] result = new Program[1];
+        final Thread builder = new Thread(null, () -> {
+                Lhs lhs = new VariableLhs(new Variable("x"));
+                for (int depth = 0; depth < 100000; depth++) {
+                    lhs = new FieldAccessLhs(lhs, new Variable("f"));
+                }
+                result[0] = new Program(new ClassDefinition[0], new PrintStmt(new LhsExp(lhs)));
+            }, "builder", 256L * 1024 * 1024);
+        builder.start();
+        builder.join();
+        assert(result[0] != null);
+        return result[0];
+    }
+
+    // the assembly each program compiles to on its own; the batch has
+    // already typechecked them
+    public static void assertCompiledAlone(final List<CompileResult> results) throws IOException {
+        for (final CompileResult result : results) {
+            if (result.succeeded()) {
+                assertArrayEquals(compileToBytes(result.program, null), result.asm);
+            }
+        }
+    }
+
+    @Test
+    public void testResultsInOrderDespiteFailures() throws Exception {
+        final List<Program> programs = new ArrayList<Program>();
+        for (int index = 0; index < 8; index++) {
+            programs.add((index == 3) ? illTyped() : generated(index + 1, index * 3));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<CompileResult> results =
+                new BatchCompiler(executor, 3).compileAll(programs);
+            assertEquals(programs.size(), results.size());
+            for (int index = 0; index < results.size(); index++) {
+                final CompileResult result = results.get(index);
+                assertEquals(index, result.index);
+                assertEquals(index != 3, result.succeeded());
+            }
+            assertTrue(results.get(3).error instanceof TypeErrorException);
+            assertNull(results.get(3).asm);
+            assertCompiledAlone(results);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWorkersResetBetweenJobs() throws Exception {
+        // with one job at a time, every job after the first reuses a worker
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final List<CompileResult> results =
+                new BatchCompiler(executor, 1).compileAll(Arrays.asList(generated(5, 20),
+                                                                        generated(2, 3),
+                                                                        illTyped(),
+                                                                        generated(5, 20),
+                                                                        generated(1, 0)));
+            assertCompiledAlone(results);
+            assertArrayEquals(results.get(0).asm, results.get(3).asm);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // programs with numGroups from 0 up to numPrograms - 1, just like
+    // generated's, but all with the very same class array
+    public static List<Program> sharingClasses(final int numHierarchies, final int numPrograms) {
+        final AstBuilder builder = new AstBuilder(false);
+        final ProgramGenerator generator = new ProgramGenerator(builder, numHierarchies, 3);
+        final ClassDefinition[] classes = generator.classes();
+        final List<Program> result = new ArrayList<Program>(numPrograms);
+        for (int numGroups = 0; numGroups < numPrograms; numGroups++) {
+            final List<Stmt> stmts = generator.entryPointStmts(numGroups);
+            result.add(new Program(classes, builder.sequence(stmts.toArray(new Stmt[stmts.size()]))));
+        }
+        return result;
+    }
+
+    @Test
+    public void testSharedClassesMatchFresh() throws Exception {
+        final List<Program> fresh = new ArrayList<Program>();
+        for (int numGroups = 0; numGroups < 10; numGroups++) {
+            fresh.add(generated(3, numGroups));
+        }
+        final List<Program> shared = sharingClasses(3, 10);
+        final List<Program> sharedToSinks = sharingClasses(3, 10);
+        final MemorySink[] sinks = new MemorySink[10];
+        final SinkFactory factory = (index, program) -> {
+            sinks[index] = new MemorySink();
+            return sinks[index];
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final BatchCompiler batch = new BatchCompiler(executor, 3);
+            final List<CompileResult> expected = batch.compileAll(fresh);
+            final List<CompileResult> results = batch.compileAll(shared);
+            final List<CompileResult> streamed = batch.compileAll(sharedToSinks.stream(), factory);
+            for (int index = 0; index < sinks.length; index++) {
+                assertTrue(expected.get(index).succeeded());
+                assertTrue(results.get(index).succeeded());
+                assertTrue(streamed.get(index).succeeded());
+                assertArrayEquals(expected.get(index).asm, results.get(index).asm);
+                assertArrayEquals(expected.get(index).asm, sinks[index].toByteArray());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStackOverflowFailsOnlyItsJob() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final List<CompileResult> results =
+                new BatchCompiler(executor, 1).compileAll(Arrays.asList(generated(2, 3),
+                                                                        nestedTooDeeply(),
+                                                                        generated(2, 3)));
+            assertTrue(results.get(1).error instanceof StackOverflowError);
+            assertTrue(results.get(0).succeeded());
+            assertTrue(results.get(2).succeeded());
+            assertCompiledAlone(results);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() throws Exception {
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger mostRunning = new AtomicInteger(0);
+        final MemorySink[] sinks = new MemorySink[20];
+        final SinkFactory factory = (index, program) -> {
+            final int now = running.incrementAndGet();
+            mostRunning.accumulateAndGet(now, Math::max);
+            sinks[index] = new MemorySink();
+            return new AsmSink() {
+                public void write(final ByteBuffer chunk) throws IOException {
+                    try {
+                        Thread.sleep(5);
+                    } catch (final InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    sinks[index].write(chunk);
+                }
+                public void close() throws IOException {
+                    running.decrementAndGet();
+                    sinks[index].close();
+                }
+            };
+        };
+
+        final List<Program> programs = new ArrayList<Program>();
+        for (int index = 0; index < sinks.length; index++) {
+            programs.add(generated(2, index));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<CompileResult> results =
+                new BatchCompiler(executor, 2).compileAll(programs.stream(), factory);
+            assertTrue(mostRunning.get() <= 2);
+            for (int index = 0; index < sinks.length; index++) {
+                assertTrue(results.get(index).succeeded());
+                assertNull(results.get(index).asm);
+                assertArrayEquals(compileToBytes(programs.get(index), null),
+                                  sinks[index].toByteArray());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+} // BatchCompilerTest
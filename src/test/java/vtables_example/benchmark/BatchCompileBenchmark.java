@@ -0,0 +1,112 @@
+package vtables_example.benchmark;
+
+import vtables_example.batch.BatchCompiler;
+import vtables_example.batch.CompileResult;
+import vtables_example.codegen.AsciiWriter;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Compiles many small programs, one at a time with a fresh generator and
+// writer each, and as a batch with pooled workers, comparing time taken
+// and bytes allocated across every thread.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.BatchCompileBenchmark
+public class BatchCompileBenchmark {
+    public static final int WARMUP_ROUNDS = 5;
+    public static final int ROUNDS = 5;
+    public static final int NUM_PROGRAMS = 2000;
+    public static final int NUM_HIERARCHIES = 5;
+    public static final int DEPTH = 3;
+    public static final int NUM_GROUPS = 10;
+    public static final int[] CONCURRENCY = new int[] { 1, 4 };
+
+    public static long allocatedBytes() {
+        final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (final long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(allocated, 0);
+        }
+        return total;
+    }
+
+    public static long oneAtATime(final List<Program> programs) throws IOException, TypeErrorException {
+        long total = 0;
+        for (final Program program : programs) {
+            Typechecker.typecheckProgram(program);
+            final MIPSCodeGenerator gen =
+                new MIPSCodeGenerator(Typechecker.classMapping(program.classes));
+            gen.compileProgram(program);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final AsciiWriter output = new AsciiWriter(Channels.newChannel(bytes));
+            gen.writeTo(output);
+            output.flush();
+            total += bytes.size();
+        }
+        return total;
+    }
+
+    public static long batch(final BatchCompiler compiler,
+                             final List<Program> programs) throws InterruptedException {
+        long total = 0;
+        for (final CompileResult result : compiler.compileAll(programs)) {
+            total += result.asm.length;
+        }
+        return total;
+    }
+
+    public static void report(final String name, final long nanos, final long bytes) {
+        System.out.println(name + "\t" +
+                           (nanos / ROUNDS / 1000000.0) + "\t" +
+                           (bytes / ROUNDS / (1024 * 1024)));
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final List<Program> programs = new ArrayList<Program>(NUM_PROGRAMS);
+        for (int index = 0; index < NUM_PROGRAMS; index++) {
+            programs.add(new ProgramGenerator(new AstBuilder(false), NUM_HIERARCHIES, DEPTH)
+                         .program(NUM_GROUPS + index % 7));
+        }
+
+        System.out.println("how\tms per batch\tMB allocated per batch");
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            oneAtATime(programs);
+        }
+        long start = System.nanoTime();
+        long allocated = allocatedBytes();
+        for (int round = 0; round < ROUNDS; round++) {
+            oneAtATime(programs);
+        }
+        report("one at a time", System.nanoTime() - start, allocatedBytes() - allocated);
+
+        for (final int concurrency : CONCURRENCY) {
+            final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+            try {
+                final BatchCompiler compiler = new BatchCompiler(executor, concurrency);
+                for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                    batch(compiler, programs);
+                }
+                start = System.nanoTime();
+                allocated = allocatedBytes();
+                for (int round = 0; round < ROUNDS; round++) {
+                    batch(compiler, programs);
+                }
+                report("batch x" + concurrency, System.nanoTime() - start, allocatedBytes() - allocated);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+} // BatchCompileBenchmark
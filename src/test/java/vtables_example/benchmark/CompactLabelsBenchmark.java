@@ -0,0 +1,61 @@
+package vtables_example.benchmark;
+
+import vtables_example.codegen.ClassMetadata;
+import vtables_example.codegen.LabelTable;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+
+import java.io.File;
+import java.io.IOException;
+
+// Compiles one program with readable and with compact labels, and
+// compares the size of each file written, and the time taken to write it.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.CompactLabelsBenchmark
+public class CompactLabelsBenchmark {
+    public static final int WARMUP_ROUNDS = 10;
+    public static final int ROUNDS = 10;
+    public static final int NUM_HIERARCHIES = 2000;
+    public static final int DEPTH = 5;
+    public static final int NUM_GROUPS = 5000;
+
+    // returns average elapsed nanoseconds
+    public static long run(final MIPSCodeGenerator gen,
+                           final File file,
+                           final int rounds) throws IOException {
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            final long start = System.nanoTime();
+            gen.writeCompleteFile(file);
+            total += System.nanoTime() - start;
+        }
+        return total / rounds;
+    }
+
+    public static void main(final String[] args) throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), NUM_HIERARCHIES, DEPTH).program(NUM_GROUPS);
+        Typechecker.typecheckProgram(program);
+        final ClassMetadata metadata = ClassMetadata.compute(ParallelCodegenBenchmark.mapping(program));
+
+        final File file = File.createTempFile("compact", ".asm");
+        try {
+            System.out.println("labels\tKB\twrite ms");
+            for (final boolean compact : new boolean[] { false, true }) {
+                final MIPSCodeGenerator gen =
+                    new MIPSCodeGenerator(metadata, new LabelTable(compact), false);
+                gen.compileProgram(program);
+                run(gen, file, WARMUP_ROUNDS);
+                final long time = run(gen, file, ROUNDS);
+                System.out.println(((compact) ? "compact" : "readable") + "\t" +
+                                   (file.length() / 1024) + "\t" +
+                                   (time / 1000000.0));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+} // CompactLabelsBenchmark
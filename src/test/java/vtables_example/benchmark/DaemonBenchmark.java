@@ -0,0 +1,144 @@
+package vtables_example.benchmark;
+
+import vtables_example.codegen.AsciiWriter;
+import vtables_example.codegen.ClassMetadata;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.daemon.CompilerClient;
+import vtables_example.daemon.CompilerDaemon;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Compiles many small entry points against one large class library: each
+// from scratch in this process, typechecking and laying out the library
+// every time, and then each as a request to a daemon, which does that
+// once and caches it.  The first request is timed on its own, as it
+// pays for the library.
+//
+// This runs in one JVM, so it doesn't count the JVM startup a separate
+// compiler process pays for every program; see the README for that.
+// Given a path, it also writes the workload's first program there, as
+// CompilerClient reads it.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.DaemonBenchmark [program.ast]
+public class DaemonBenchmark {
+    public static final int WARMUP_ROUNDS = 5;
+    public static final int ROUNDS = 10;
+    public static final int NUM_HIERARCHIES = 500;
+    public static final int DEPTH = 5;
+    public static final int NUM_ENTRY_POINTS = 20;
+    public static final int GROUPS_PER_ENTRY_POINT = 20;
+
+    // the entry points, each with groups of its own, using the same classes
+    public static Stmt[] entryPoints(final ProgramGenerator generator) {
+        final Stmt[] result = new Stmt[NUM_ENTRY_POINTS];
+        for (int index = 0; index < result.length; index++) {
+            final List<Stmt> stmts = new ArrayList<Stmt>();
+            for (int group = 0; group < GROUPS_PER_ENTRY_POINT; group++) {
+                stmts.addAll(generator.group(index * GROUPS_PER_ENTRY_POINT + group));
+            }
+            result[index] = new AstBuilder(false).sequence(stmts.toArray(new Stmt[stmts.size()]));
+        }
+        return result;
+    }
+
+    public static byte[] compileAlone(final Program program) throws Exception {
+        Typechecker.typecheckProgram(program);
+        final MIPSCodeGenerator gen =
+            new MIPSCodeGenerator(ClassMetadata.compute(Typechecker.classMapping(program.classes)));
+        gen.compileProgram(program);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final AsciiWriter output = new AsciiWriter(Channels.newChannel(bytes));
+        gen.writeTo(output);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    // returns average elapsed nanoseconds per entry point
+    public static long runAlone(final ClassDefinition[] classes,
+                                final Stmt[] entryPoints,
+                                final int rounds) throws Exception {
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            final long start = System.nanoTime();
+            for (final Stmt entryPoint : entryPoints) {
+                compileAlone(new Program(classes, entryPoint));
+            }
+            total += System.nanoTime() - start;
+        }
+        return total / rounds / entryPoints.length;
+    }
+
+    public static long runDaemon(final CompilerClient client,
+                                 final byte[] library,
+                                 final byte[][] entryPoints,
+                                 final int rounds) throws Exception {
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            final long start = System.nanoTime();
+            for (final byte[] entryPoint : entryPoints) {
+                client.compile(library, entryPoint, 0);
+            }
+            total += System.nanoTime() - start;
+        }
+        return total / rounds / entryPoints.length;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final ProgramGenerator generator =
+            new ProgramGenerator(new AstBuilder(false), NUM_HIERARCHIES, DEPTH);
+        final ClassDefinition[] classes = generator.classes();
+        final Stmt[] entryPoints = entryPoints(generator);
+        final byte[] library = AstCodec.encodeClasses(classes);
+        final byte[][] encoded = new byte[entryPoints.length][];
+        for (int index = 0; index < entryPoints.length; index++) {
+            encoded[index] = AstCodec.encodeStmt(entryPoints[index]);
+        }
+        if (args.length > 0) {
+            Files.write(Paths.get(args[0]),
+                        AstCodec.encodeProgram(new Program(classes, entryPoints[0])));
+        }
+
+        final Path directory = Files.createTempDirectory("daemon");
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final CompilerDaemon daemon =
+            new CompilerDaemon(directory.resolve("socket"), executor, CompilerDaemon.DEFAULT_CACHE_SIZE);
+        final Future<?> serving = executor.submit(() -> {
+            daemon.serve();
+            return null;
+        });
+        try {
+            final CompilerClient client = new CompilerClient(daemon.socket());
+            final long firstStart = System.nanoTime();
+            client.compile(library, encoded[0], 0);
+            final long first = System.nanoTime() - firstStart;
+
+            runAlone(classes, entryPoints, WARMUP_ROUNDS);
+            runDaemon(client, library, encoded, WARMUP_ROUNDS);
+            final long alone = runAlone(classes, entryPoints, ROUNDS);
+            final long cached = runDaemon(client, library, encoded, ROUNDS);
+            System.out.println("compile\tms/entry point");
+            System.out.println("first request\t" + (first / 1000000.0));
+            System.out.println("from scratch\t" + (alone / 1000000.0));
+            System.out.println("daemon\t" + (cached / 1000000.0));
+            System.out.println("(library hits " + daemon.cacheHits() +
+                               ", misses " + daemon.cacheMisses() + ")");
+        } finally {
+            daemon.close();
+            serving.get();
+            executor.shutdown();
+            Files.deleteIfExists(directory);
+        }
+    } // main
+} // DaemonBenchmark
@@ -0,0 +1,58 @@
+package vtables_example.benchmark;
+
+import vtables_example.codegen.ClassMetadata;
+import vtables_example.syntax.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Measures the heap retained by the metadata for one deep inheritance
+// chain.  Each of the first NUM_VIRTUALS classes introduces a virtual
+// method, and each class after that overrides one, so every class below
+// the first few hundred inherits hundreds of vtable slots.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.DeepHierarchyBenchmark
+public class DeepHierarchyBenchmark {
+    public static final int DEPTH = 1000;
+    public static final int NUM_VIRTUALS = 500;
+    public static final int COPIES = 5;
+
+    public static ClassName className(final int level) {
+        return ClassName.intern("D" + level);
+    }
+
+    public static Map<ClassName, ClassDefinition> chain() {
+        final Map<ClassName, ClassDefinition> result = new HashMap<ClassName, ClassDefinition>();
+        for (int level = 0; level < DEPTH; level++) {
+            final MethodName name = MethodName.intern("v" + (level % NUM_VIRTUALS));
+            final MethodDefinition method =
+                new MethodDefinition(true,
+                                     TypeFactory.intType(),
+                                     name,
+                                     new VarDec[0],
+                                     new ReturnStmt(new IntExp(level)));
+            result.put(className(level),
+                       new ClassDefinition(className(level),
+                                           (level == 0) ? null : className(level - 1),
+                                           new VarDec[0],
+                                           new Constructor(new VarDec[0], new EmptyStmt()),
+                                           new MethodDefinition[] { method }));
+        }
+        return result;
+    }
+
+    public static void main(final String[] args) {
+        final Map<ClassName, ClassDefinition> classes = chain();
+        final ClassMetadata[] snapshots = new ClassMetadata[COPIES];
+        final long before = HashConsingBenchmark.usedHeap();
+        for (int copy = 0; copy < COPIES; copy++) {
+            snapshots[copy] = ClassMetadata.compute(classes);
+        }
+        final long after = HashConsingBenchmark.usedHeap();
+        System.out.println("classes\tvirtuals\tKB retained");
+        System.out.println(DEPTH + "\t" +
+                           snapshots[COPIES - 1].dispatchTableOf(className(DEPTH - 1)).numSlots() + "\t" +
+                           ((after - before) / COPIES / 1024));
+    }
+} // DeepHierarchyBenchmark
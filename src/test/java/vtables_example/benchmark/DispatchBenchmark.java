@@ -0,0 +1,236 @@
+package vtables_example.benchmark;
+
+import vtables_example.syntax.*;
+
+import java.util.Random;
+
+// Compares instanceof ladders, in the order the typechecker and code
+// generator used to test them, with accept/visitor double dispatch.  Both
+// walk the same shuffled mix of every statement kind, down through the
+// expressions and lhses, doing a trivial amount of work per node, so
+// what's measured is mostly the dispatch.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.DispatchBenchmark
+public class DispatchBenchmark {
+    public static final int WARMUP_ROUNDS = 20;
+    public static final int ROUNDS = 20;
+    public static final int NUM_STMTS = 200000;
+
+    // ---BEGIN WORKLOAD---
+    public static Lhs randomLhs(final Random random) {
+        final int choice = random.nextInt(3);
+        if (choice == 0) {
+            return new VariableLhs(Variable.intern("x"));
+        } else if (choice == 1) {
+            return new ThisLhs();
+        } else {
+            return new FieldAccessLhs(new ThisLhs(), Variable.intern("f"));
+        }
+    }
+
+    public static Exp randomExp(final Random random) {
+        if (random.nextBoolean()) {
+            return new IntExp(random.nextInt(100));
+        } else {
+            return new LhsExp(randomLhs(random));
+        }
+    }
+
+    public static Stmt randomStmt(final Random random) {
+        final VarDec vardec = new VarDec(TypeFactory.intType(), Variable.intern("y"));
+        final Exp[] params = new Exp[] { randomExp(random) };
+        switch (random.nextInt(7)) {
+        case 0: return new NewStmt(vardec, ClassName.intern("Foo"), params);
+        case 1: return new MethodCallStmt(vardec, randomExp(random), MethodName.intern("m"), params);
+        case 2: return new PrintStmt(randomExp(random));
+        case 3: return new ReturnStmt(randomExp(random));
+        case 4: return new AssignStmt(randomLhs(random), randomExp(random));
+        case 5: return new SuperStmt(params);
+        default: return new EmptyStmt();
+        }
+    }
+
+    public static Stmt[] workload(final int size) {
+        final Random random = new Random(430);
+        final Stmt[] result = new Stmt[size];
+        for (int index = 0; index < size; index++) {
+            result[index] = randomStmt(random);
+        }
+        return result;
+    }
+    // ---END WORKLOAD---
+
+    // ---BEGIN LADDERS---
+    // Both counters accumulate into a field, so neither boxes results.
+    public static class LadderCounter {
+        public int total = 0;
+
+        public void lhs(final Lhs lhs) {
+            if (lhs instanceof VariableLhs) {
+                total += 1;
+            } else if (lhs instanceof FieldAccessLhs) {
+                total += 2;
+                lhs(((FieldAccessLhs)lhs).lhs);
+            } else if (lhs instanceof ThisLhs) {
+                total += 3;
+            } else {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        public void exp(final Exp exp) {
+            if (exp instanceof IntExp) {
+                total += ((IntExp)exp).value;
+            } else if (exp instanceof LhsExp) {
+                lhs(((LhsExp)exp).lhs);
+            } else {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        public void stmt(final Stmt stmt) {
+            if (stmt instanceof NewStmt) {
+                total += 4;
+                exp(((NewStmt)stmt).params[0]);
+            } else if (stmt instanceof MethodCallStmt) {
+                total += 5;
+                exp(((MethodCallStmt)stmt).exp);
+            } else if (stmt instanceof PrintStmt) {
+                total += 6;
+                exp(((PrintStmt)stmt).exp);
+            } else if (stmt instanceof ReturnStmt) {
+                total += 7;
+                exp(((ReturnStmt)stmt).exp);
+            } else if (stmt instanceof AssignStmt) {
+                total += 8;
+                lhs(((AssignStmt)stmt).lhs);
+                exp(((AssignStmt)stmt).exp);
+            } else if (stmt instanceof SuperStmt) {
+                total += 9;
+                exp(((SuperStmt)stmt).params[0]);
+            } else if (stmt instanceof SequenceStmt) {
+                stmt(((SequenceStmt)stmt).first);
+                stmt(((SequenceStmt)stmt).second);
+            } else if (stmt instanceof EmptyStmt) {
+                total += 10;
+            } else {
+                throw new IllegalArgumentException();
+            }
+        }
+    } // LadderCounter
+    // ---END LADDERS---
+
+    // ---BEGIN VISITORS---
+    public static class VisitorCounter implements StmtVisitor<Void, Void, RuntimeException>,
+                                                  ExpVisitor<Void, Void, RuntimeException>,
+                                                  LhsVisitor<Void, Void, RuntimeException> {
+        public int total = 0;
+
+        public Void visitVariableLhs(final VariableLhs lhs, final Void arg) {
+            total += 1;
+            return null;
+        }
+        public Void visitFieldAccessLhs(final FieldAccessLhs lhs, final Void arg) {
+            total += 2;
+            return lhs.lhs.accept(this, arg);
+        }
+        public Void visitThisLhs(final ThisLhs lhs, final Void arg) {
+            total += 3;
+            return null;
+        }
+
+        public Void visitIntExp(final IntExp exp, final Void arg) {
+            total += exp.value;
+            return null;
+        }
+        public Void visitLhsExp(final LhsExp exp, final Void arg) {
+            return exp.lhs.accept(this, arg);
+        }
+
+        public Void visitNewStmt(final NewStmt stmt, final Void arg) {
+            total += 4;
+            return stmt.params[0].accept(this, arg);
+        }
+        public Void visitMethodCallStmt(final MethodCallStmt stmt, final Void arg) {
+            total += 5;
+            return stmt.exp.accept(this, arg);
+        }
+        public Void visitPrintStmt(final PrintStmt stmt, final Void arg) {
+            total += 6;
+            return stmt.exp.accept(this, arg);
+        }
+        public Void visitReturnStmt(final ReturnStmt stmt, final Void arg) {
+            total += 7;
+            return stmt.exp.accept(this, arg);
+        }
+        public Void visitAssignStmt(final AssignStmt stmt, final Void arg) {
+            total += 8;
+            stmt.lhs.accept(this, arg);
+            return stmt.exp.accept(this, arg);
+        }
+        public Void visitSuperStmt(final SuperStmt stmt, final Void arg) {
+            total += 9;
+            return stmt.params[0].accept(this, arg);
+        }
+        public Void visitSequenceStmt(final SequenceStmt stmt, final Void arg) {
+            stmt.first.accept(this, arg);
+            return stmt.second.accept(this, arg);
+        }
+        public Void visitBlockStmt(final BlockStmt stmt, final Void arg) {
+            for (final Stmt inner : stmt.stmts) {
+                inner.accept(this, arg);
+            }
+            return null;
+        }
+        public Void visitEmptyStmt(final EmptyStmt stmt, final Void arg) {
+            total += 10;
+            return null;
+        }
+    } // VisitorCounter
+    // ---END VISITORS---
+
+    public static int runLadder(final Stmt[] stmts) {
+        final LadderCounter counter = new LadderCounter();
+        for (final Stmt stmt : stmts) {
+            counter.stmt(stmt);
+        }
+        return counter.total;
+    }
+
+    public static int runVisitor(final Stmt[] stmts) {
+        final VisitorCounter counter = new VisitorCounter();
+        for (final Stmt stmt : stmts) {
+            stmt.accept(counter, null);
+        }
+        return counter.total;
+    }
+
+    public static void main(final String[] args) {
+        final Stmt[] stmts = workload(NUM_STMTS);
+        if (runLadder(stmts) != runVisitor(stmts)) {
+            throw new IllegalStateException("ladder and visitor disagree");
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            runLadder(stmts);
+            runVisitor(stmts);
+        }
+
+        long ladderTime = 0;
+        long visitorTime = 0;
+        int sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long ladderStart = System.nanoTime();
+            sink += runLadder(stmts);
+            ladderTime += System.nanoTime() - ladderStart;
+            final long visitorStart = System.nanoTime();
+            sink += runVisitor(stmts);
+            visitorTime += System.nanoTime() - visitorStart;
+        }
+        final long totalStmts = (long)NUM_STMTS * ROUNDS;
+        System.out.println("dispatch\tns/statement");
+        System.out.println("ladder\t" + ((double)ladderTime / totalStmts));
+        System.out.println("visitor\t" + ((double)visitorTime / totalStmts));
+        System.out.println("(checksum " + sink + ")");
+    }
+} // DispatchBenchmark
@@ -0,0 +1,102 @@
+package vtables_example.benchmark;
+
+import vtables_example.syntax.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// Builds the same generated program with and without hash-consing, and
+// compares the number of distinct AST objects reachable from each, along
+// with the heap each one retains.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.HashConsingBenchmark
+public class HashConsingBenchmark {
+    public static final int NUM_HIERARCHIES = 10;
+    public static final int DEPTH = 5;
+    public static final int COPIES = 5;
+    public static final int[] SIZES = new int[] { 10000, 20000, 40000 };
+
+    public static Program build(final boolean hashConsing, final int numGroups) {
+        return new ProgramGenerator(new AstBuilder(hashConsing),
+                                    NUM_HIERARCHIES,
+                                    DEPTH).program(numGroups);
+    }
+
+    // counts the distinct AST nodes and arrays reachable from root;
+    // names and types are interned either way, so they aren't counted
+    public static int countNodes(final Object root) throws IllegalAccessException {
+        final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        final Deque<Object> pending = new ArrayDeque<Object>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            final Object current = pending.pop();
+            if (current instanceof Name ||
+                current instanceof Type ||
+                !seen.add(current)) {
+                continue;
+            }
+            if (current instanceof Object[]) {
+                for (final Object element : (Object[])current) {
+                    if (element != null) {
+                        pending.push(element);
+                    }
+                }
+            } else {
+                for (final Field field : current.getClass().getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) &&
+                        !field.getType().isPrimitive()) {
+                        field.setAccessible(true);
+                        final Object value = field.get(current);
+                        if (value != null) {
+                            pending.push(value);
+                        }
+                    }
+                }
+            }
+        }
+        return seen.size();
+    }
+
+    public static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int round = 0; round < 3; round++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // returns approximate bytes retained by a program, averaged over
+    // several copies held at once to smooth out collector noise
+    public static long retainedBytes(final boolean hashConsing, final int numGroups) {
+        final Program[] programs = new Program[COPIES];
+        final long before = usedHeap();
+        for (int copy = 0; copy < COPIES; copy++) {
+            programs[copy] = build(hashConsing, numGroups);
+        }
+        final long after = usedHeap();
+        // keep the programs alive until after measuring
+        if (programs[COPIES - 1].hashCode() == 42) {
+            System.out.print("");
+        }
+        return (after - before) / COPIES;
+    }
+
+    public static void main(final String[] args) throws IllegalAccessException {
+        System.out.println("groups\tplain nodes\tshared nodes\tplain KB\tshared KB");
+        for (final int size : SIZES) {
+            final int plainNodes = countNodes(build(false, size));
+            final int sharedNodes = countNodes(build(true, size));
+            System.out.println(size + "\t" +
+                               plainNodes + "\t" +
+                               sharedNodes + "\t" +
+                               (retainedBytes(false, size) / 1024) + "\t" +
+                               (retainedBytes(true, size) / 1024));
+        }
+    }
+} // HashConsingBenchmark
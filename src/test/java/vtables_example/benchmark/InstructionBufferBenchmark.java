@@ -0,0 +1,81 @@
+package vtables_example.benchmark;
+
+import vtables_example.codegen.ClassMetadata;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+// Compiles one large generated program repeatedly, reporting time taken,
+// bytes allocated, collections and collection time per compile, and the
+// heap the compiled code retains.
+//
+// Run with:
+// java -Xms2g -Xmx2g -cp target/classes:target/test-classes vtables_example.benchmark.InstructionBufferBenchmark
+public class InstructionBufferBenchmark {
+    public static final int WARMUP_ROUNDS = 3;
+    public static final int ROUNDS = 5;
+    public static final int NUM_HIERARCHIES = 2000;
+    public static final int DEPTH = 5;
+    public static final int NUM_GROUPS = 50000;
+
+    public static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+            .getCurrentThreadAllocatedBytes();
+    }
+
+    public static long[] gcCountAndMillis() {
+        final long[] result = new long[2];
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result[0] += gc.getCollectionCount();
+            result[1] += gc.getCollectionTime();
+        }
+        return result;
+    }
+
+    public static MIPSCodeGenerator compile(final Program program,
+                                            final ClassMetadata metadata,
+                                            final boolean offHeap) {
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(metadata, offHeap);
+        gen.compileProgram(program);
+        return gen;
+    }
+
+    public static void main(final String[] args) throws TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), NUM_HIERARCHIES, DEPTH).program(NUM_GROUPS);
+        Typechecker.typecheckProgram(program);
+        final ClassMetadata metadata =
+            ClassMetadata.compute(ParallelCodegenBenchmark.mapping(program));
+
+        System.out.println("buffer\tms\tMB allocated\tcollections\tGC ms\tMB retained");
+        for (final boolean offHeap : new boolean[] { false, true }) {
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                compile(program, metadata, offHeap);
+            }
+            final long[] gcBefore = gcCountAndMillis();
+            final long allocatedBefore = allocatedBytes();
+            final long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++) {
+                compile(program, metadata, offHeap);
+            }
+            final long time = System.nanoTime() - start;
+            final long allocated = allocatedBytes() - allocatedBefore;
+            final long[] gcAfter = gcCountAndMillis();
+
+            final long heapBefore = HashConsingBenchmark.usedHeap();
+            final MIPSCodeGenerator kept = compile(program, metadata, offHeap);
+            final long retained = HashConsingBenchmark.usedHeap() - heapBefore;
+            System.out.println(((offHeap) ? "off-heap" : "heap") + "\t" +
+                               (time / ROUNDS / 1000000.0) + "\t" +
+                               (allocated / ROUNDS / (1024 * 1024)) + "\t" +
+                               ((gcAfter[0] - gcBefore[0]) / (double)ROUNDS) + "\t" +
+                               ((gcAfter[1] - gcBefore[1]) / (double)ROUNDS) + "\t" +
+                               (retained / (1024 * 1024)) +
+                               ((kept.hashCode() == 42) ? " " : ""));
+        }
+    }
+} // InstructionBufferBenchmark
@@ -0,0 +1,66 @@
+package vtables_example.benchmark;
+
+import vtables_example.codegen.ClassMetadata;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+
+import java.io.File;
+import java.io.IOException;
+
+// Compiles a tiny entry point against a generated 10000 class library,
+// with eager and with lazy metadata, and compares the time taken (from
+// computing metadata through writing the file) along with the size of
+// the file written.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.LazyMetadataBenchmark
+public class LazyMetadataBenchmark {
+    public static final int WARMUP_ROUNDS = 5;
+    public static final int ROUNDS = 10;
+    public static final int NUM_HIERARCHIES = 2000;
+    public static final int DEPTH = 5;
+    public static final int NUM_GROUPS = 12;
+
+    // returns average elapsed nanoseconds
+    public static long run(final Program program,
+                           final boolean lazy,
+                           final File file,
+                           final int rounds) throws IOException {
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            final long start = System.nanoTime();
+            final ClassMetadata metadata =
+                (lazy) ?
+                ClassMetadata.lazy(ParallelCodegenBenchmark.mapping(program)) :
+                ClassMetadata.compute(ParallelCodegenBenchmark.mapping(program));
+            final MIPSCodeGenerator gen = new MIPSCodeGenerator(metadata);
+            gen.compileProgram(program);
+            gen.writeCompleteFile(file);
+            total += System.nanoTime() - start;
+        }
+        return total / rounds;
+    }
+
+    public static void main(final String[] args) throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), NUM_HIERARCHIES, DEPTH).program(NUM_GROUPS);
+        // fills in the annotations the code generator needs
+        Typechecker.typecheckProgram(program);
+
+        final File file = File.createTempFile("lazy", ".asm");
+        try {
+            System.out.println("metadata\tms\tKB written");
+            for (final boolean lazy : new boolean[] { false, true }) {
+                run(program, lazy, file, WARMUP_ROUNDS);
+                final long time = run(program, lazy, file, ROUNDS);
+                System.out.println(((lazy) ? "lazy" : "eager") + "\t" +
+                                   (time / 1000000.0) + "\t" +
+                                   (file.length() / 1024));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+} // LazyMetadataBenchmark
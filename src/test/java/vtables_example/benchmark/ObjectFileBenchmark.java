@@ -0,0 +1,69 @@
+package vtables_example.benchmark;
+
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+
+import java.io.File;
+import java.io.IOException;
+
+// Writes one compiled program over and over, as assembly and as an ELF
+// object, comparing the size of each file and the time taken to write it.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.ObjectFileBenchmark
+public class ObjectFileBenchmark {
+    public static final int WARMUP_ROUNDS = 10;
+    public static final int ROUNDS = 10;
+    public static final int NUM_HIERARCHIES = 2000;
+    public static final int DEPTH = 5;
+    public static final int NUM_GROUPS = 5000;
+
+    public static void write(final MIPSCodeGenerator gen,
+                             final boolean object,
+                             final File file) throws IOException {
+        if (object) {
+            gen.writeObjectFile(file);
+        } else {
+            gen.writeCompleteFile(file);
+        }
+    }
+
+    // returns average elapsed nanoseconds
+    public static long run(final MIPSCodeGenerator gen,
+                           final boolean object,
+                           final File file,
+                           final int rounds) throws IOException {
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            final long start = System.nanoTime();
+            write(gen, object, file);
+            total += System.nanoTime() - start;
+        }
+        return total / rounds;
+    }
+
+    public static void main(final String[] args) throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), NUM_HIERARCHIES, DEPTH).program(NUM_GROUPS);
+        Typechecker.typecheckProgram(program);
+        final MIPSCodeGenerator gen =
+            new MIPSCodeGenerator(ParallelCodegenBenchmark.mapping(program));
+        gen.compileProgram(program);
+
+        final File file = File.createTempFile("object", ".out");
+        try {
+            System.out.println("output\tKB\twrite ms");
+            for (final boolean object : new boolean[] { false, true }) {
+                run(gen, object, file, WARMUP_ROUNDS);
+                final long time = run(gen, object, file, ROUNDS);
+                System.out.println(((object) ? "ELF object" : "assembly") + "\t" +
+                                   (file.length() / 1024) + "\t" +
+                                   (time / 1000000.0));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+} // ObjectFileBenchmark
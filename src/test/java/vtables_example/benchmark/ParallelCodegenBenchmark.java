@@ -0,0 +1,68 @@
+package vtables_example.benchmark;
+
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Compiles a generated 5000 class library on the calling thread, and then
+// on fixed thread pools of 1, 2, 4, ... up to the number of cores.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.ParallelCodegenBenchmark
+public class ParallelCodegenBenchmark {
+    public static final int WARMUP_ROUNDS = 5;
+    public static final int ROUNDS = 5;
+    public static final int NUM_HIERARCHIES = 1000;
+    public static final int DEPTH = 5;
+    public static final int NUM_GROUPS = 1000;
+
+    public static Map<ClassName, ClassDefinition> mapping(final Program program) {
+        final Map<ClassName, ClassDefinition> result = new HashMap<ClassName, ClassDefinition>();
+        for (final ClassDefinition def : program.classes) {
+            result.put(def.myName, def);
+        }
+        return result;
+    }
+
+    // returns average elapsed nanoseconds; executor is null for the
+    // calling thread
+    public static long run(final Program program,
+                           final ExecutorService executor,
+                           final int rounds) {
+        final Map<ClassName, ClassDefinition> classes = mapping(program);
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            final long start = System.nanoTime();
+            new MIPSCodeGenerator(classes).compileProgram(program, executor);
+            total += System.nanoTime() - start;
+        }
+        return total / rounds;
+    }
+
+    public static void main(final String[] args) throws TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), NUM_HIERARCHIES, DEPTH).program(NUM_GROUPS);
+        // fills in the annotations the code generator needs
+        Typechecker.typecheckProgram(program);
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        run(program, null, WARMUP_ROUNDS);
+        System.out.println("workers\tms");
+        System.out.println("calling thread\t" + (run(program, null, ROUNDS) / 1000000.0));
+        for (int workers = 1; workers <= cores; workers *= 2) {
+            final ExecutorService executor = Executors.newFixedThreadPool(workers);
+            try {
+                run(program, executor, WARMUP_ROUNDS);
+                System.out.println(workers + "\t" + (run(program, executor, ROUNDS) / 1000000.0));
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+} // ParallelCodegenBenchmark
@@ -0,0 +1,58 @@
+package vtables_example.benchmark;
+
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+
+import java.util.concurrent.ForkJoinPool;
+
+// Typechecks the classes of a generated 5000 class library, sequentially
+// and then in parallel with increasing numbers of workers.  Each run gets
+// freshly built classes, since checking annotates them.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.ParallelTypecheckBenchmark
+public class ParallelTypecheckBenchmark {
+    public static final int WARMUP_ROUNDS = 5;
+    public static final int ROUNDS = 5;
+    public static final int NUM_HIERARCHIES = 1000;
+    public static final int DEPTH = 5;
+
+    public static Typechecker freshChecker() throws TypeErrorException {
+        final ProgramGenerator generator =
+            new ProgramGenerator(new AstBuilder(false), NUM_HIERARCHIES, DEPTH);
+        return new Typechecker(Typechecker.classMapping(generator.classes()));
+    }
+
+    // returns average elapsed nanoseconds; pool is null for sequential
+    public static long run(final ForkJoinPool pool, final int rounds) throws TypeErrorException {
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            final Typechecker typechecker = freshChecker();
+            final long start = System.nanoTime();
+            if (pool == null) {
+                typechecker.typecheckAllClasses();
+            } else {
+                typechecker.typecheckAllClasses(pool);
+            }
+            total += System.nanoTime() - start;
+        }
+        return total / rounds;
+    }
+
+    public static void main(final String[] args) throws TypeErrorException {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        run(null, WARMUP_ROUNDS);
+        System.out.println("workers\tms");
+        System.out.println("sequential\t" + (run(null, ROUNDS) / 1000000.0));
+        for (int workers = 1; workers <= cores; workers *= 2) {
+            final ForkJoinPool pool = new ForkJoinPool(workers);
+            try {
+                run(pool, WARMUP_ROUNDS);
+                System.out.println(workers + "\t" + (run(pool, ROUNDS) / 1000000.0));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+} // ParallelTypecheckBenchmark
@@ -0,0 +1,145 @@
+package vtables_example.benchmark;
+
+import vtables_example.syntax.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Generates large, well-typed synthetic programs for the benchmarks.
+// There are numHierarchies inheritance chains of the given depth:
+//
+// class H0C0 {
+//   int f0;
+//   init(int v) { this.f0 = v; }
+//   virtual int get(int x) { print(x); return this.f0; }
+//   int m0(int x) { print(x); return x; }
+// }
+// class H0C1 extends H0C0 {
+//   int f1;
+//   init(int v) { super(v); this.f1 = v; }
+//   virtual int get(int x) { print(x); return this.f1; }
+//   int m1(int x) { print(x); return x; }
+// }
+// ...
+//
+// The entry point repeats groups of statements cycling through every
+// class, with small constants so that there's plenty to share:
+//
+// H0C0 o0 = new H0C0(0);
+// int r0 = o0.get(1);
+// print(r0);
+// ...
+public class ProgramGenerator {
+    public static final int STATEMENTS_PER_GROUP = 3;
+    public static final int NUM_CONSTANTS = 10;
+
+    private final AstBuilder builder;
+    public final int numHierarchies;
+    public final int depth;
+
+    public ProgramGenerator(final AstBuilder builder,
+                            final int numHierarchies,
+                            final int depth) {
+        this.builder = builder;
+        this.numHierarchies = numHierarchies;
+        this.depth = depth;
+    }
+
+    public static ClassName className(final int hierarchy, final int level) {
+        return ClassName.intern("H" + hierarchy + "C" + level);
+    }
+
+    public int numClasses() {
+        return numHierarchies * depth;
+    }
+
+    // class number classNumber, going through each level of one hierarchy
+    // before moving on to the next
+    public ClassName className(final int classNumber) {
+        return className(classNumber / depth, classNumber % depth);
+    }
+
+    private Exp variableExp(final Variable variable) {
+        return builder.lhsExp(builder.variableLhs(variable));
+    }
+
+    private Lhs thisField(final Variable field) {
+        return builder.fieldAccessLhs(builder.thisLhs(), field);
+    }
+
+    public ClassDefinition classDefinition(final int hierarchy, final int level) {
+        final Variable field = builder.variable("f" + level);
+        final Variable v = builder.variable("v");
+        final Variable x = builder.variable("x");
+        final VarDec[] params = new VarDec[] { builder.varDec(builder.intType(), x) };
+
+        final Stmt initField = builder.assignStmt(thisField(field), variableExp(v));
+        final Stmt constructorBody =
+            (level == 0) ? initField : builder.sequence(builder.superStmt(new Exp[] { variableExp(v) }),
+                                                        initField);
+
+        final MethodDefinition get =
+            new MethodDefinition(true,
+                                 builder.intType(),
+                                 builder.methodName("get"),
+                                 params,
+                                 builder.sequence(builder.printStmt(variableExp(x)),
+                                                  builder.returnStmt(builder.lhsExp(thisField(field)))));
+        final MethodDefinition own =
+            new MethodDefinition(false,
+                                 builder.intType(),
+                                 builder.methodName("m" + level),
+                                 params,
+                                 builder.sequence(builder.printStmt(variableExp(x)),
+                                                  builder.returnStmt(variableExp(x))));
+
+        return new ClassDefinition(className(hierarchy, level),
+                                   (level == 0) ? null : className(hierarchy, level - 1),
+                                   new VarDec[] { builder.varDec(builder.intType(), field) },
+                                   new Constructor(new VarDec[] { builder.varDec(builder.intType(), v) },
+                                                   constructorBody),
+                                   new MethodDefinition[] { get, own });
+    } // classDefinition
+
+    public ClassDefinition[] classes() {
+        final ClassDefinition[] result = new ClassDefinition[numClasses()];
+        for (int hierarchy = 0; hierarchy < numHierarchies; hierarchy++) {
+            for (int level = 0; level < depth; level++) {
+                result[hierarchy * depth + level] = classDefinition(hierarchy, level);
+            }
+        }
+        return result;
+    }
+
+    // the statements of group number group in the entry point
+    public List<Stmt> group(final int group) {
+        final ClassName name = className(group % numClasses());
+        final Variable object = builder.variable("o" + group);
+        final Variable result = builder.variable("r" + group);
+        final List<Stmt> stmts = new ArrayList<Stmt>(STATEMENTS_PER_GROUP);
+        stmts.add(builder.newStmt(builder.varDec(builder.classType(name.toString()), object),
+                                  name,
+                                  new Exp[] { builder.intExp(group % NUM_CONSTANTS) }));
+        stmts.add(builder.methodCallStmt(builder.varDec(builder.intType(), result),
+                                         variableExp(object),
+                                         builder.methodName("get"),
+                                         new Exp[] { builder.intExp(1) }));
+        stmts.add(builder.printStmt(variableExp(result)));
+        return stmts;
+    }
+
+    // the entry point's statements, with numGroups groups
+    public List<Stmt> entryPointStmts(final int numGroups) {
+        final List<Stmt> result = new ArrayList<Stmt>(numGroups * STATEMENTS_PER_GROUP);
+        for (int group = 0; group < numGroups; group++) {
+            result.addAll(group(group));
+        }
+        return result;
+    }
+
+    public Program program(final int numGroups) {
+        final List<Stmt> stmts = entryPointStmts(numGroups);
+        return new Program(classes(),
+                           builder.sequence(stmts.toArray(new Stmt[stmts.size()])));
+    }
+} // ProgramGenerator
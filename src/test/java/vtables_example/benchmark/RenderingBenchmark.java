@@ -0,0 +1,113 @@
+package vtables_example.benchmark;
+
+import vtables_example.codegen.AsciiWriter;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// Writes one compiled program over and over, through a PrintWriter with
+// a String per entry, and through an AsciiWriter rendering straight into
+// bytes.  Each is written both to a file and to nowhere at all, the
+// latter measuring rendering alone.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.RenderingBenchmark
+public class RenderingBenchmark {
+    public static final int WARMUP_ROUNDS = 10;
+    public static final int ROUNDS = 10;
+    public static final int NUM_HIERARCHIES = 2000;
+    public static final int DEPTH = 5;
+    public static final int NUM_GROUPS = 5000;
+
+    public static class NullOutputStream extends OutputStream {
+        public void write(final int b) {}
+        public void write(final byte[] bytes, final int offset, final int length) {}
+    }
+
+    public static class NullChannel implements WritableByteChannel {
+        public int write(final ByteBuffer buffer) {
+            final int amount = buffer.remaining();
+            buffer.position(buffer.limit());
+            return amount;
+        }
+        public boolean isOpen() { return true; }
+        public void close() {}
+    }
+
+    public static void write(final MIPSCodeGenerator gen,
+                             final boolean ascii,
+                             final File file) throws IOException {
+        if (ascii) {
+            if (file == null) {
+                final AsciiWriter output = new AsciiWriter(new NullChannel());
+                gen.writeTo(output);
+                output.flush();
+            } else {
+                gen.writeCompleteFile(file);
+            }
+        } else {
+            final PrintWriter output =
+                new PrintWriter(new BufferedWriter((file == null) ?
+                                                   new OutputStreamWriter(new NullOutputStream()) :
+                                                   new FileWriter(file)));
+            try {
+                gen.writeTo(output);
+            } finally {
+                output.close();
+            }
+        }
+    }
+
+    // returns average elapsed nanoseconds
+    public static long run(final MIPSCodeGenerator gen,
+                           final boolean ascii,
+                           final File file,
+                           final int rounds) throws IOException {
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            final long start = System.nanoTime();
+            write(gen, ascii, file);
+            total += System.nanoTime() - start;
+        }
+        return total / rounds;
+    }
+
+    public static void main(final String[] args) throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), NUM_HIERARCHIES, DEPTH).program(NUM_GROUPS);
+        Typechecker.typecheckProgram(program);
+        final MIPSCodeGenerator gen =
+            new MIPSCodeGenerator(ParallelCodegenBenchmark.mapping(program));
+        gen.compileProgram(program);
+
+        final File file = File.createTempFile("rendering", ".asm");
+        try {
+            gen.writeCompleteFile(file);
+            final double megabytes = file.length() / (1024.0 * 1024.0);
+            System.out.println("target\twriter\tms\tMB/s (" + megabytes + " MB)");
+            for (final File target : new File[] { null, file }) {
+                for (final boolean ascii : new boolean[] { false, true }) {
+                    run(gen, ascii, target, WARMUP_ROUNDS);
+                    final long time = run(gen, ascii, target, ROUNDS);
+                    System.out.println(((target == null) ? "nowhere" : "file") + "\t" +
+                                       ((ascii) ? "AsciiWriter" : "PrintWriter") + "\t" +
+                                       (time / 1000000.0) + "\t" +
+                                       (megabytes / (time / 1000000000.0)));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+} // RenderingBenchmark
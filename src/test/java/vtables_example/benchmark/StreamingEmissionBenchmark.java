@@ -0,0 +1,104 @@
+package vtables_example.benchmark;
+
+import vtables_example.codegen.ChannelSink;
+import vtables_example.codegen.ClassMetadata;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// Compiles generated libraries of increasing size to a file, first by
+// building every entry and then writing the file, and then by streaming
+// to the file as functions are compiled.  Reports time taken, and how far
+// the heap grew past what the program itself takes, as the sum of the
+// peaks of every heap pool that objects survive into.  Eden is left out:
+// its peak is just its size, whatever is live.
+//
+// Run with a fixed heap and a small young generation, so that anything
+// live for long gets promoted, and shows up:
+// java -Xms1g -Xmx1g -Xmn8m -XX:+UseSerialGC -cp target/classes:target/test-classes vtables_example.benchmark.StreamingEmissionBenchmark
+public class StreamingEmissionBenchmark {
+    public static final int[] NUM_HIERARCHIES = new int[] { 500, 1000, 2000, 4000 };
+    public static final int DEPTH = 5;
+    public static final int NUM_GROUPS = 100;
+
+    public static long peakHeapSinceReset() {
+        long total = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && !pool.getName().contains("Eden")) {
+                total += pool.getPeakUsage().getUsed();
+            }
+        }
+        return total;
+    }
+
+    // returns the heap in use, with peaks reset to it
+    public static long resetPeaks() {
+        final long used = HashConsingBenchmark.usedHeap();
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        return used;
+    }
+
+    public static void compile(final Program program,
+                               final ClassMetadata metadata,
+                               final boolean streaming,
+                               final File file) throws IOException {
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(metadata);
+        if (streaming) {
+            gen.compileProgramTo(program,
+                                 null,
+                                 new ChannelSink(FileChannel.open(file.toPath(),
+                                                                  StandardOpenOption.WRITE,
+                                                                  StandardOpenOption.TRUNCATE_EXISTING)));
+        } else {
+            gen.compileProgram(program);
+            gen.writeCompleteFile(file);
+        }
+    }
+
+    public static void main(final String[] args) throws IOException, TypeErrorException {
+        final File file = File.createTempFile("streaming", ".asm");
+        try {
+            System.out.println("classes\tKB written\tbatch ms\tbatch peak KB\tstreaming ms\tstreaming peak KB");
+            for (final int numHierarchies : NUM_HIERARCHIES) {
+                final Program program =
+                    new ProgramGenerator(new AstBuilder(false), numHierarchies, DEPTH).program(NUM_GROUPS);
+                Typechecker.typecheckProgram(program);
+                // metadata grows with the program however code is written,
+                // so it's computed outside what's measured
+                final ClassMetadata metadata =
+                    ClassMetadata.compute(ParallelCodegenBenchmark.mapping(program));
+                // warm up both
+                compile(program, metadata, false, file);
+                compile(program, metadata, true, file);
+
+                final StringBuilder line = new StringBuilder();
+                line.append(numHierarchies * DEPTH);
+                for (final boolean streaming : new boolean[] { false, true }) {
+                    final long baseline = resetPeaks();
+                    final long start = System.nanoTime();
+                    compile(program, metadata, streaming, file);
+                    final long time = System.nanoTime() - start;
+                    final long peak = peakHeapSinceReset() - baseline;
+                    if (!streaming) {
+                        line.append("\t" + (file.length() / 1024));
+                    }
+                    line.append("\t" + (time / 1000000.0) + "\t" + (peak / 1024));
+                }
+                System.out.println(line);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+} // StreamingEmissionBenchmark
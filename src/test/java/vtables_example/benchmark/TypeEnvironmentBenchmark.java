@@ -0,0 +1,51 @@
+package vtables_example.benchmark;
+
+import vtables_example.syntax.*;
+import vtables_example.typechecker.TypeEnvironment;
+import vtables_example.typechecker.TypeErrorException;
+
+// Builds up environments with N declarations, as the typechecker does
+// for an entry point with N new/method call statements, and looks up
+// every variable once.  Time per declaration should stay flat as N grows.
+//
+// Run with:
+// java -cp target/classes:target/test-classes vtables_example.benchmark.TypeEnvironmentBenchmark
+public class TypeEnvironmentBenchmark {
+    public static final int WARMUP_ROUNDS = 5;
+    public static final int[] SIZES = new int[] { 10000, 20000, 40000, 80000, 160000 };
+
+    public static Variable[] makeVariables(final int count) {
+        final Variable[] result = new Variable[count];
+        for (int index = 0; index < count; index++) {
+            result[index] = new Variable("x" + index);
+        }
+        return result;
+    }
+
+    // returns elapsed nanoseconds
+    public static long run(final Variable[] variables) throws TypeErrorException {
+        final Type type = new IntType();
+        final long start = System.nanoTime();
+        TypeEnvironment env = TypeEnvironment.initialEnv(new VarDec[0], null);
+        for (final Variable variable : variables) {
+            env = env.addVariable(variable, type);
+        }
+        for (final Variable variable : variables) {
+            env.lookup(variable);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(final String[] args) throws TypeErrorException {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            run(makeVariables(SIZES[SIZES.length - 1]));
+        }
+        System.out.println("declarations\ttotal ms\tns/declaration");
+        for (final int size : SIZES) {
+            final long elapsed = run(makeVariables(size));
+            System.out.println(size + "\t" +
+                               (elapsed / 1000000) + "\t" +
+                               (elapsed / size));
+        }
+    }
+} // TypeEnvironmentBenchmark
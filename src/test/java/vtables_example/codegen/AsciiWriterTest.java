@@ -0,0 +1,80 @@
+package vtables_example.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class AsciiWriterTest {
+    public static final MIPSLabel LABEL = new MIPSLabel("Foo_bar");
+
+    // one of each kind of entry
+    public static List<MIPSEntry> everyEntry() {
+        return Arrays.<MIPSEntry>asList(LABEL,
+                                        new MIPSComment("a comment"),
+                                        new MIPSWordLabel(LABEL),
+                                        new Addi(MIPSRegister.SP, MIPSRegister.SP, -4),
+                                        new Lw(MIPSRegister.RA, 8, MIPSRegister.SP),
+                                        new Sw(MIPSRegister.T0, -12, MIPSRegister.SP),
+                                        new La(MIPSRegister.T0, LABEL),
+                                        new Li(MIPSRegister.A0, Integer.MIN_VALUE),
+                                        new Li(MIPSRegister.A0, Integer.MAX_VALUE),
+                                        new Li(MIPSRegister.A0, 0),
+                                        new Jal(LABEL),
+                                        new Jalr(MIPSRegister.T1),
+                                        new Jr(MIPSRegister.RA),
+                                        new Syscall());
+    }
+
+    public static String viaToString(final List<MIPSEntry> entries) {
+        final StringBuilder result = new StringBuilder();
+        for (final MIPSEntry entry : entries) {
+            result.append(entry.toString()).append(System.lineSeparator());
+        }
+        return result.toString();
+    }
+
+    public static String viaWriter(final List<MIPSEntry> entries,
+                                   final int capacity) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final AsciiWriter writer =
+            new AsciiWriter(Channels.newChannel(bytes), null, capacity);
+        writer.appendLines(entries);
+        writer.flush();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMatchesToString() throws IOException {
+        assertEquals(viaToString(everyEntry()),
+                     viaWriter(everyEntry(), AsciiWriter.DEFAULT_CAPACITY));
+    }
+
+    @Test
+    public void testSmallBuffer() throws IOException {
+        // flushes partway through nearly every entry
+        assertEquals(viaToString(everyEntry()), viaWriter(everyEntry(), 11));
+    }
+
+    @Test
+    public void testNonAscii() throws IOException {
+        final List<MIPSEntry> entries =
+            Arrays.<MIPSEntry>asList(new MIPSComment("caf\u00e9 \u2603"), LABEL);
+        assertEquals(viaToString(entries), viaWriter(entries, 11));
+    }
+
+    @Test
+    public void testToSink() throws IOException {
+        final MemorySink sink = new MemorySink();
+        final AsciiWriter writer = new AsciiWriter(null, sink, 16);
+        writer.appendLines(everyEntry());
+        writer.flush();
+        assertEquals(viaToString(everyEntry()),
+                     new String(sink.toByteArray(), StandardCharsets.UTF_8));
+    }
+} // AsciiWriterTest
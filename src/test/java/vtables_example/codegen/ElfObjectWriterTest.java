@@ -0,0 +1,148 @@
+package vtables_example.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class ElfObjectWriterTest {
+    public static byte[] bytesOf(final ElfObjectWriter object) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        object.writeTo(Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static String stringAt(final ByteBuffer elf, final int offset) {
+        int end = offset;
+        while (elf.get(end) != 0) {
+            end++;
+        }
+        return new String(elf.array(), offset, end - offset, StandardCharsets.US_ASCII);
+    }
+
+    // the contents of the named section
+    public static ByteBuffer section(final byte[] bytes,
+                                     final ByteOrder order,
+                                     final String name) {
+        final ByteBuffer elf = ByteBuffer.wrap(bytes).order(order);
+        final int sectionHeaders = elf.getInt(32);
+        final int numSections = elf.getShort(48);
+        final int namesHeader = sectionHeaders + 40 * elf.getShort(50);
+        final int names = elf.getInt(namesHeader + 16);
+        for (int section = 0; section < numSections; section++) {
+            final int header = sectionHeaders + 40 * section;
+            if (stringAt(elf, names + elf.getInt(header)).equals(name)) {
+                final int offset = elf.getInt(header + 16);
+                final int size = elf.getInt(header + 20);
+                return ByteBuffer.wrap(bytes, offset, size).slice().order(order);
+            }
+        }
+        throw new IllegalArgumentException("No section " + name);
+    }
+
+    public static int[] words(final ByteBuffer section) {
+        final int[] result = new int[section.remaining() / 4];
+        for (int index = 0; index < result.length; index++) {
+            result[index] = section.getInt(index * 4);
+        }
+        return result;
+    }
+
+    public static int[] encode(final InstructionBuffer code) throws IOException {
+        final ElfObjectWriter object = new ElfObjectWriter(code.labels());
+        object.addText(code);
+        return words(section(bytesOf(object), ByteOrder.LITTLE_ENDIAN, ".text"));
+    }
+
+    @Test
+    public void testEncodings() throws IOException {
+        final InstructionBuffer code = new InstructionBuffer();
+        code.comment("not encoded");
+        code.addi(MIPSRegister.SP, MIPSRegister.SP, -4);
+        code.lw(MIPSRegister.RA, 8, MIPSRegister.SP);
+        code.sw(MIPSRegister.T0, -12, MIPSRegister.SP);
+        code.li(MIPSRegister.V0, 10);
+        code.syscall();
+        code.jr(MIPSRegister.RA);
+        code.jalr(MIPSRegister.T1);
+        assertArrayEquals(new int[] { 0x23BDFFFC,
+                                      0x8FBF0008,
+                                      0xAFA8FFF4,
+                                      0x2402000A,
+                                      0x0000000C,
+                                      0x03E00008, 0,
+                                      0x0120F809, 0 },
+                          encode(code));
+    }
+
+    @Test
+    public void testExpandsLargeImmediates() throws IOException {
+        final InstructionBuffer code = new InstructionBuffer();
+        code.li(MIPSRegister.A0, Integer.MIN_VALUE);
+        code.li(MIPSRegister.A0, 0x12345);
+        code.li(MIPSRegister.A0, 0xFFFF);
+        code.lw(MIPSRegister.T0, 0x18000, MIPSRegister.SP);
+        code.addi(MIPSRegister.SP, MIPSRegister.SP, 0x10000);
+        assertArrayEquals(new int[] { 0x3C048000,
+                                      0x3C040001, 0x34842345,
+                                      0x3404FFFF,
+                                      // lui $at, 2; addu $at, $at, $sp; lw $t0, -32768($at)
+                                      0x3C010002, 0x003D0821, 0x8C288000,
+                                      // lui $at, 1; add $sp, $sp, $at
+                                      0x3C010001, 0x03A1E820 },
+                          encode(code));
+    }
+
+    @Test
+    public void testStructure() throws IOException {
+        final LabelTable labels = new LabelTable();
+        final ElfObjectWriter object = new ElfObjectWriter(labels, ByteOrder.BIG_ENDIAN);
+        object.addAsciiz(labels.label("newline"), "\n");
+        final InstructionBuffer data = new InstructionBuffer(labels, false);
+        data.label("table");
+        data.wordLabel(labels.label("main"));
+        object.addData(data);
+        final InstructionBuffer text = new InstructionBuffer(labels, false);
+        text.label("main");
+        text.la(MIPSRegister.A0, labels.label("table"));
+        text.jal(labels.label("elsewhere"));
+        object.addText(text);
+        final byte[] bytes = bytesOf(object);
+
+        final ByteBuffer elf = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+        assertEquals(0x7F454C46, elf.getInt(0));
+        assertEquals(2, elf.get(5)); // big-endian
+        assertEquals(1, elf.getShort(16)); // relocatable
+        assertEquals(8, elf.getShort(18)); // MIPS
+
+        // lui, addiu, jal, and the jal's delay slot
+        assertArrayEquals(new int[] { 0x3C040000, 0x24840000, 0x0C000000, 0 },
+                          words(section(bytes, ByteOrder.BIG_ENDIAN, ".text")));
+        // the string, padded, then the vtable's word
+        assertEquals(8, section(bytes, ByteOrder.BIG_ENDIAN, ".data").remaining());
+        assertEquals(3 * 8, section(bytes, ByteOrder.BIG_ENDIAN, ".rel.text").remaining());
+        assertEquals(1 * 8, section(bytes, ByteOrder.BIG_ENDIAN, ".rel.data").remaining());
+
+        // null, two sections, newline and table locally, then main and
+        // elsewhere, which is undefined
+        final ByteBuffer symbols = section(bytes, ByteOrder.BIG_ENDIAN, ".symtab");
+        assertEquals(7 * 16, symbols.remaining());
+        final ByteBuffer names = section(bytes, ByteOrder.BIG_ENDIAN, ".strtab");
+        final String[] expected = new String[] { "newline", "table", "main", "elsewhere" };
+        for (int index = 0; index < expected.length; index++) {
+            final int symbol = (index + 3) * 16;
+            final byte[] name = new byte[expected[index].length()];
+            names.position(symbols.getInt(symbol));
+            names.get(name);
+            assertEquals(expected[index], new String(name, StandardCharsets.US_ASCII));
+            assertEquals((index < 2) ? 0 : 1, symbols.get(symbol + 12) >> 4);
+        }
+        assertEquals(0, symbols.getShort(6 * 16 + 14)); // undefined
+    }
+} // ElfObjectWriterTest
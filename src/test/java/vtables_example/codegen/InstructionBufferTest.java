@@ -0,0 +1,99 @@
+package vtables_example.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class InstructionBufferTest {
+    public static InstructionBuffer packed(final List<MIPSEntry> entries,
+                                           final boolean offHeap) {
+        final InstructionBuffer result = new InstructionBuffer(offHeap);
+        for (final MIPSEntry entry : entries) {
+            result.add(entry);
+        }
+        return result;
+    }
+
+    public static String rendered(final InstructionBuffer code) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final AsciiWriter writer = new AsciiWriter(Channels.newChannel(bytes), null, 11);
+        code.writeTo(writer);
+        writer.flush();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // everyEntry, over and over, so buffers have to grow
+    public static List<MIPSEntry> manyEntries() {
+        final List<MIPSEntry> result = new ArrayList<MIPSEntry>();
+        for (int copy = 0; copy < 50; copy++) {
+            result.addAll(AsciiWriterTest.everyEntry());
+        }
+        return result;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        assertEquals(manyEntries(), packed(manyEntries(), false).toEntries());
+    }
+
+    @Test
+    public void testRoundTripOffHeap() {
+        assertEquals(manyEntries(), packed(manyEntries(), true).toEntries());
+    }
+
+    @Test
+    public void testRendersLikeEntries() throws IOException {
+        final String expected = AsciiWriterTest.viaToString(manyEntries());
+        assertEquals(expected, rendered(packed(manyEntries(), false)));
+        assertEquals(expected, rendered(packed(manyEntries(), true)));
+    }
+
+    @Test
+    public void testAccessors() {
+        final InstructionBuffer code = new InstructionBuffer();
+        code.lw(MIPSRegister.RA, -8, MIPSRegister.SP);
+        code.jal(code.labels().label("Foo_bar"));
+        assertEquals(2, code.size());
+        assertEquals(InstructionBuffer.Opcode.LW, code.opcode(0));
+        assertEquals(MIPSRegister.RA, code.first(0));
+        assertEquals(MIPSRegister.SP, code.second(0));
+        assertEquals(-8, code.immediate(0));
+        assertEquals(InstructionBuffer.Opcode.JAL, code.opcode(1));
+        assertEquals("Foo_bar", code.string(1));
+    }
+
+    @Test
+    public void testAddAllRenumbersComments() {
+        final LabelTable labels = new LabelTable();
+        final InstructionBuffer first = new InstructionBuffer(labels, true);
+        first.comment("first");
+        first.label("shared");
+        final InstructionBuffer second = new InstructionBuffer(labels, false);
+        second.comment("second");
+        second.li(MIPSRegister.V0, 10);
+        second.la(MIPSRegister.A0, labels.label("shared"));
+        first.addAll(second);
+
+        final List<MIPSEntry> expected = new ArrayList<MIPSEntry>();
+        expected.add(new MIPSComment("first"));
+        expected.add(new MIPSLabel("shared"));
+        expected.addAll(second.toEntries());
+        assertEquals(expected, first.toEntries());
+    }
+
+    @Test
+    public void testClear() {
+        final InstructionBuffer code = packed(manyEntries(), true);
+        code.clear();
+        assertEquals(0, code.size());
+        code.syscall();
+        assertEquals(1, code.size());
+        assertEquals(new Syscall(), code.entry(0));
+    }
+} // InstructionBufferTest
@@ -0,0 +1,104 @@
+package vtables_example.codegen;
+
+import vtables_example.syntax.ClassName;
+import vtables_example.syntax.MethodName;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import org.junit.Test;
+
+public class LabelTableTest {
+    public static final ClassName FOO = ClassName.intern("Foo");
+    public static final MethodName BAR = MethodName.intern("bar");
+
+    @Test
+    public void testNames() {
+        final LabelTable labels = new LabelTable();
+        assertEquals("new_Foo", labels.name(labels.constructorLabel(FOO)));
+        assertEquals("Foo_bar", labels.name(labels.methodLabel(FOO, BAR)));
+        assertEquals("$Foo_vtable", labels.name(labels.vtableLabel(FOO)));
+        assertEquals("main", labels.name(labels.label("main")));
+    }
+
+    @Test
+    public void testCompactNames() {
+        final LabelTable labels = new LabelTable(true);
+        final int main = labels.label("main");
+        final int method = labels.methodLabel(FOO, BAR);
+        assertEquals("main", labels.name(main));
+        assertEquals("_" + Integer.toString(method, 36), labels.name(method));
+        assertEquals("Foo_bar", labels.readableName(method));
+
+        final StringWriter map = new StringWriter();
+        final PrintWriter output = new PrintWriter(map);
+        labels.writeSymbolMap(output);
+        output.flush();
+        assertEquals("_1 Foo_bar" + System.lineSeparator(), map.toString());
+    }
+
+    @Test
+    public void testIdsAreStable() {
+        final LabelTable labels = new LabelTable();
+        final int method = labels.methodLabel(FOO, BAR);
+        final int constructor = labels.constructorLabel(FOO);
+        assertNotEquals(method, constructor);
+        assertEquals(method, labels.methodLabel(new ClassName("Foo"), new MethodName("bar")));
+        assertEquals(constructor, labels.constructorLabel(FOO));
+        // the same label, however it's asked for
+        assertEquals(method, labels.label("Foo_bar"));
+        assertEquals(2, labels.size());
+    }
+
+    @Test
+    public void testGrows() {
+        final LabelTable labels = new LabelTable();
+        for (int index = 0; index < 1000; index++) {
+            final ClassName name = ClassName.intern("LabelTableTest" + index);
+            assertEquals(index, labels.vtableLabel(name));
+        }
+        for (int index = 0; index < 1000; index++) {
+            final ClassName name = ClassName.intern("LabelTableTest" + index);
+            assertEquals(index, labels.vtableLabel(name));
+            assertEquals("$LabelTableTest" + index + "_vtable", labels.name(index));
+        }
+    }
+
+    @Test
+    public void testConcurrentCallersAgree() throws Exception {
+        final LabelTable labels = new LabelTable();
+        final List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+        for (int task = 0; task < 4; task++) {
+            tasks.add(() -> {
+                    final int[] ids = new int[500];
+                    for (int index = 0; index < ids.length; index++) {
+                        ids[index] = labels.methodLabel(FOO, MethodName.intern("m" + index));
+                    }
+                    return ids;
+                });
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<int[]>> results = executor.invokeAll(tasks);
+            final int[] first = results.get(0).get();
+            for (final Future<int[]> result : results) {
+                final int[] ids = result.get();
+                for (int index = 0; index < ids.length; index++) {
+                    assertEquals(first[index], ids[index]);
+                    assertEquals("Foo_m" + index, labels.name(ids[index]));
+                }
+            }
+            assertEquals(500, labels.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+} // LabelTableTest
@@ -1,13 +1,36 @@
 package vtables_example.codegen;
 
 import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import vtables_example.typechecker.TypeErrorException;
+import vtables_example.benchmark.ProgramGenerator;
 import static vtables_example.typechecker.TypecheckerClassTest.stmts;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 public class MIPSCodeGeneratorClassTest extends MIPSCodeGeneratorTestBase<Program> {
@@ -979,4 +1002,470 @@ public class MIPSCodeGeneratorClassTest extends MIPSCodeGeneratorTestBase<Progra
                                                                    new PrintStmt(new IntExp(4)))
                                           }));
     }
+
+    @Test
+    public void testLongEntryPoint() throws IOException {
+        // class Foo {
+        //   int x;
+        //   init() {}
+        // }
+        // Foo f = new Foo();
+        // f.x = 0;
+        // f.x = 1;
+        // ...
+        // print(f.x);
+
+        final int numAssignments = 50000;
+        final ClassName fooClass = new ClassName("Foo");
+        final Variable f = new Variable("f");
+        final Variable x = new Variable("x");
+        final FieldAccessLhs lhs = new FieldAccessLhs(new VariableLhs(f), x);
+        lhs.setLhsClass(fooClass);
+
+        final Stmt[] entryPoint = new Stmt[numAssignments + 2];
+        entryPoint[0] = new NewStmt(new VarDec(new ClassType(fooClass), f),
+                                    fooClass,
+                                    new Exp[0]);
+        for (int index = 0; index < numAssignments; index++) {
+            entryPoint[index + 1] = new AssignStmt(lhs, new IntExp(index));
+        }
+        entryPoint[numAssignments + 1] = new PrintStmt(new LhsExp(lhs));
+
+        assertResultC(numAssignments - 1,
+                      stmts(entryPoint),
+                      new ClassDefinition(fooClass,
+                                          null,
+                                          new VarDec[] {
+                                              new VarDec(new IntType(), x)
+                                          },
+                                          new Constructor(new VarDec[0],
+                                                          new EmptyStmt()),
+                                          new MethodDefinition[0]));
+    }
+
+    // returns the complete file generated for program
+    public static byte[] compileToBytes(final Program program,
+                                        final ExecutorService executor) throws IOException {
+        return compileToBytes(program,
+                              ClassMetadata.compute(makeMapping(program.classes)),
+                              executor);
+    }
+
+    public static byte[] compileToBytes(final Program program,
+                                        final ClassMetadata metadata,
+                                        final ExecutorService executor) throws IOException {
+        return compileToBytes(program, metadata, new LabelTable(), executor);
+    }
+
+    public static byte[] compileToBytes(final Program program,
+                                        final ClassMetadata metadata,
+                                        final LabelTable labels,
+                                        final ExecutorService executor) throws IOException {
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(metadata, labels, false);
+        gen.compileProgram(program, executor);
+        final File file = File.createTempFile("parallel", ".asm");
+        try {
+            gen.writeCompleteFile(file);
+            return Files.readAllBytes(file.toPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testParallelOutputMatchesSequential() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 20, 5).program(100);
+        Typechecker.typecheckProgram(program);
+        final byte[] expected = compileToBytes(program, null);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 5; round++) {
+                assertArrayEquals(expected, compileToBytes(program, executor));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static String[] runBytes(final byte[] asm) throws IOException {
+        return runBytes("lazy", asm);
+    }
+
+    public static String[] runBytes(final String prefix, final byte[] asm) throws IOException {
+        final File file = File.createTempFile(prefix, ".asm", new File("testPrograms"));
+        try {
+            Files.write(file.toPath(), asm);
+            return SPIMRunner.runFile(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLazyMetadataSkipsUnreachedClasses() throws IOException, TypeErrorException {
+        // one group only reaches the first hierarchy
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 20, 5).program(1);
+        Typechecker.typecheckProgram(program);
+        final byte[] eager = compileToBytes(program, null);
+        final byte[] lazy =
+            compileToBytes(program, ClassMetadata.lazy(makeMapping(program.classes)), null);
+        assertTrue(lazy.length < eager.length);
+        assertArrayEquals(runBytes(eager), runBytes(lazy));
+    }
+
+    // class A { int x; init() {} int get() { return 1; } virtual int v() { return 2; } }
+    // class B { A a; init() {} int m() { int g = this.a.get(); int w = this.a.v(); return 0; } }
+    // B b = new B(); print(1);
+    //
+    // A is never instantiated, but B's code calls A's methods through a
+    // field typed as A.
+    public static Program calledThroughField() throws TypeErrorException {
+        final AstBuilder b = new AstBuilder(false);
+        final ClassDefinition classA =
+            new ClassDefinition(b.className("A"),
+                                null,
+                                new VarDec[] { b.varDec(b.intType(), b.variable("x")) },
+                                new Constructor(new VarDec[0], b.emptyStmt()),
+                                new MethodDefinition[] {
+                                    new MethodDefinition(false, b.intType(), b.methodName("get"),
+                                                         new VarDec[0], b.returnStmt(b.intExp(1))),
+                                    new MethodDefinition(true, b.intType(), b.methodName("v"),
+                                                         new VarDec[0], b.returnStmt(b.intExp(2)))
+                                });
+        final ClassDefinition classB =
+            new ClassDefinition(b.className("B"),
+                                null,
+                                new VarDec[] { b.varDec(b.classType("A"), b.variable("a")) },
+                                new Constructor(new VarDec[0], b.emptyStmt()),
+                                new MethodDefinition[] {
+                                    new MethodDefinition(false, b.intType(), b.methodName("m"),
+                                                         new VarDec[0],
+                                                         b.sequence(b.methodCallStmt(b.varDec(b.intType(), b.variable("g")),
+                                                                                     b.lhsExp(b.fieldAccessLhs(b.thisLhs(), b.variable("a"))),
+                                                                                     b.methodName("get"),
+                                                                                     new Exp[0]),
+                                                                    b.methodCallStmt(b.varDec(b.intType(), b.variable("w")),
+                                                                                     b.lhsExp(b.fieldAccessLhs(b.thisLhs(), b.variable("a"))),
+                                                                                     b.methodName("v"),
+                                                                                     new Exp[0]),
+                                                                    b.returnStmt(b.intExp(0))))
+                                });
+        final Program program =
+            new Program(new ClassDefinition[] { classA, classB },
+                        b.sequence(b.newStmt(b.varDec(b.classType("B"), b.variable("b")),
+                                             b.className("B"),
+                                             new Exp[0]),
+                                   b.printStmt(b.intExp(1))));
+        Typechecker.typecheckProgram(program);
+        return program;
+    } // calledThroughField
+
+    private static final Pattern LABEL_USE = Pattern.compile("(?:jal|\\.word|la\\s+\\$\\w+,)\\s+(\\S+)");
+
+    // every label the assembly uses, it also defines
+    public static void assertLabelsDefined(final byte[] asm) {
+        final Set<String> defined = new HashSet<String>();
+        final Set<String> used = new HashSet<String>();
+        for (final String line : new String(asm, StandardCharsets.UTF_8).split("\n")) {
+            final String trimmed = line.trim();
+            final int colon = trimmed.indexOf(':');
+            if (colon > 0) {
+                defined.add(trimmed.substring(0, colon));
+            }
+            final Matcher use = LABEL_USE.matcher(trimmed);
+            if (use.find()) {
+                used.add(use.group(1));
+            }
+        }
+        used.removeAll(defined);
+        assertTrue("undefined labels: " + used, used.isEmpty());
+    }
+
+    @Test
+    public void testLazyMetadataKeepsClassesUsedThroughFields() throws IOException, TypeErrorException {
+        final Program program = calledThroughField();
+        final Map<ClassName, ClassDefinition> mapping = makeMapping(program.classes);
+        final byte[] lazy = compileToBytes(program, ClassMetadata.lazy(mapping), null);
+        assertLabelsDefined(lazy);
+        assertTrue(new String(lazy, StandardCharsets.UTF_8).contains("A_get:"));
+        assertArrayEquals(lazy, streamToBytes(program, ClassMetadata.lazy(mapping), null));
+        assertArrayEquals(runBytes("eagerfield", compileToBytes(program, null)),
+                          runBytes("lazyfield", lazy));
+    }
+
+    @Test
+    public void testSharedLazyMetadataMatchesFresh() throws IOException, TypeErrorException {
+        // two programs over the same classes, one reaching only the first
+        // hierarchy and the other only the last
+        final AstBuilder builder = new AstBuilder(false);
+        final ProgramGenerator generator = new ProgramGenerator(builder, 4, 3);
+        final ClassDefinition[] classes = generator.classes();
+        final Program first =
+            new Program(classes, builder.sequence(generator.group(0).toArray(new Stmt[0])));
+        final Program last =
+            new Program(classes, builder.sequence(generator.group(9).toArray(new Stmt[0])));
+        // checking annotates the classes, so they're only checked once
+        final Typechecker typechecker = new Typechecker(Typechecker.classMapping(classes));
+        typechecker.typecheckAllClasses();
+        typechecker.typecheckEntryPoint(first.entryPoint);
+        typechecker.typecheckEntryPoint(last.entryPoint);
+        final Map<ClassName, ClassDefinition> mapping = makeMapping(classes);
+
+        final ClassMetadata shared = ClassMetadata.lazy(mapping);
+        for (final Program program : new Program[] { first, last }) {
+            final byte[] fresh = compileToBytes(program, ClassMetadata.lazy(mapping), null);
+            final byte[] reused = compileToBytes(program, shared, null);
+            assertLabelsDefined(reused);
+            assertArrayEquals(fresh, reused);
+            assertArrayEquals(fresh, streamToBytes(program, shared, null));
+        }
+    }
+
+    public static byte[] streamToBytes(final Program program,
+                                       final ClassMetadata metadata,
+                                       final ExecutorService executor) throws IOException {
+        final MemorySink sink = new MemorySink();
+        new MIPSCodeGenerator(metadata).compileProgramTo(program, executor, sink);
+        return sink.toByteArray();
+    }
+
+    @Test
+    public void testStreamingMatchesCompleteFile() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 20, 5).program(100);
+        Typechecker.typecheckProgram(program);
+        final Map<ClassName, ClassDefinition> mapping = makeMapping(program.classes);
+        final byte[] expected = compileToBytes(program, null);
+        assertArrayEquals(expected, streamToBytes(program, ClassMetadata.compute(mapping), null));
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertArrayEquals(expected,
+                              streamToBytes(program, ClassMetadata.compute(mapping), executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamingLazyMatchesCompleteFile() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 20, 5).program(3);
+        Typechecker.typecheckProgram(program);
+        final Map<ClassName, ClassDefinition> mapping = makeMapping(program.classes);
+        assertArrayEquals(compileToBytes(program, ClassMetadata.lazy(mapping), null),
+                          streamToBytes(program, ClassMetadata.lazy(mapping), null));
+    }
+
+    @Test
+    public void testStreamingToChannel() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 5, 3).program(10);
+        Typechecker.typecheckProgram(program);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new MIPSCodeGenerator(makeMapping(program.classes))
+            .compileProgramTo(program, null, new ChannelSink(Channels.newChannel(bytes)));
+        assertArrayEquals(compileToBytes(program, null), bytes.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamingReportsSinkFailure() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 5, 3).program(10);
+        Typechecker.typecheckProgram(program);
+        final AsmSink failing = new AsmSink() {
+                public void write(final ByteBuffer chunk) throws IOException {
+                    throw new IOException("disk full");
+                }
+                public void close() {}
+            };
+        new MIPSCodeGenerator(makeMapping(program.classes)).compileProgramTo(program, null, failing);
+    }
+
+    @Test
+    public void testStreamingKeepsFailureOverCloseFailure() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 5, 3).program(10);
+        Typechecker.typecheckProgram(program);
+        final AsmSink failingClose = new AsmSink() {
+                public void write(final ByteBuffer chunk) {}
+                public void close() throws IOException {
+                    throw new IOException("close failed");
+                }
+            };
+        // shut down, so compiling classes fails part way through
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        try {
+            new MIPSCodeGenerator(makeMapping(program.classes)).compileProgramTo(program, executor, failingClose);
+            fail("compiled on a shut down executor");
+        } catch (final RejectedExecutionException e) {
+            assertEquals(1, e.getSuppressed().length);
+            assertEquals("close failed", e.getSuppressed()[0].getMessage());
+        }
+    }
+
+    @Test
+    public void testPrintWriterMatchesCompleteFile() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 5, 3).program(10);
+        Typechecker.typecheckProgram(program);
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(makeMapping(program.classes));
+        gen.compileProgram(program);
+        final StringWriter text = new StringWriter();
+        final PrintWriter output = new PrintWriter(text);
+        gen.writeTo(output);
+        output.flush();
+        assertArrayEquals(compileToBytes(program, null),
+                          text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testOffHeapMatchesHeap() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 20, 5).program(100);
+        Typechecker.typecheckProgram(program);
+        final MIPSCodeGenerator gen =
+            new MIPSCodeGenerator(ClassMetadata.compute(makeMapping(program.classes)), true);
+        gen.compileProgram(program, null);
+        final File file = File.createTempFile("offheap", ".asm");
+        try {
+            gen.writeCompleteFile(file);
+            assertArrayEquals(compileToBytes(program, null), Files.readAllBytes(file.toPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public static byte[] compileCompact(final Program program,
+                                        final ExecutorService executor) throws IOException {
+        return compileToBytes(program,
+                              ClassMetadata.compute(makeMapping(program.classes)),
+                              new LabelTable(true),
+                              executor);
+    }
+
+    @Test
+    public void testCompactLabelsRunTheSame() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 5, 3).program(10);
+        Typechecker.typecheckProgram(program);
+        final byte[] readable = compileToBytes(program, null);
+        final byte[] compact = compileCompact(program, null);
+        assertTrue(compact.length < readable.length);
+        assertArrayEquals(runBytes(readable), runBytes("compact", compact));
+    }
+
+    @Test
+    public void testCompactParallelMatchesSequential() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 20, 5).program(100);
+        Typechecker.typecheckProgram(program);
+        final byte[] expected = compileCompact(program, null);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 5; round++) {
+                assertArrayEquals(expected, compileCompact(program, executor));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSymbolMapRestoresReadableNames() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 20, 5).program(100);
+        Typechecker.typecheckProgram(program);
+        final MIPSCodeGenerator gen =
+            new MIPSCodeGenerator(ClassMetadata.compute(makeMapping(program.classes)),
+                                  new LabelTable(true),
+                                  false);
+        gen.compileProgram(program);
+        final File asm = File.createTempFile("compact", ".asm");
+        final File map = File.createTempFile("compact", ".map");
+        try {
+            gen.writeCompleteFile(asm);
+            gen.writeSymbolMap(map);
+            final Map<String, String> symbols = new HashMap<String, String>();
+            for (final String line : Files.readAllLines(map.toPath())) {
+                final String[] parts = line.split(" ");
+                assertEquals(2, parts.length);
+                assertEquals(null, symbols.put(parts[0], parts[1]));
+            }
+            final Matcher matcher =
+                Pattern.compile("(?<![\\w$])_[0-9a-z]+\\b")
+                .matcher(new String(Files.readAllBytes(asm.toPath()), StandardCharsets.UTF_8));
+            final StringBuffer restored = new StringBuffer();
+            while (matcher.find()) {
+                matcher.appendReplacement(restored, Matcher.quoteReplacement(symbols.get(matcher.group())));
+            }
+            matcher.appendTail(restored);
+            assertEquals(new String(compileToBytes(program, null), StandardCharsets.UTF_8),
+                         restored.toString());
+        } finally {
+            asm.delete();
+            map.delete();
+        }
+    }
+
+    @Test
+    public void testObjectFileRelocatesEveryLabelUse() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 20, 5).program(100);
+        Typechecker.typecheckProgram(program);
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(makeMapping(program.classes));
+        gen.compileProgram(program);
+        final File file = File.createTempFile("object", ".o");
+        try {
+            gen.writeObjectFile(file);
+            final byte[] bytes = Files.readAllBytes(file.toPath());
+            int words = 0;
+            int textLabelUses = 0;
+            for (final String line : new String(compileToBytes(program, null),
+                                                StandardCharsets.UTF_8).split("\n")) {
+                final String trimmed = line.trim();
+                if (trimmed.startsWith(".word")) {
+                    words++;
+                } else if (trimmed.startsWith("la ")) {
+                    // lui and addiu
+                    textLabelUses += 2;
+                } else if (trimmed.startsWith("jal ")) {
+                    textLabelUses++;
+                }
+            }
+            assertEquals(words * 8,
+                         ElfObjectWriterTest.section(bytes, ByteOrder.LITTLE_ENDIAN, ".rel.data").remaining());
+            assertEquals(textLabelUses * 8,
+                         ElfObjectWriterTest.section(bytes, ByteOrder.LITTLE_ENDIAN, ".rel.text").remaining());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSplitCompilationMatchesWhole() throws IOException, TypeErrorException {
+        final Program program =
+            new ProgramGenerator(new AstBuilder(false), 8, 3).program(20);
+        Typechecker.typecheckProgram(program);
+        final ClassMetadata metadata = ClassMetadata.compute(makeMapping(program.classes));
+        for (final boolean compact : new boolean[] { false, true }) {
+            final MIPSCodeGenerator entryPoint =
+                new MIPSCodeGenerator(metadata, new LabelTable(compact), false);
+            entryPoint.compileEntryPointOnly(program);
+            final MIPSCodeGenerator classes =
+                new MIPSCodeGenerator(metadata, new LabelTable(compact), false);
+            classes.compileClassesOnly(program, null);
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final AsciiWriter output = new AsciiWriter(Channels.newChannel(bytes));
+            entryPoint.writeHeaderTo(output);
+            entryPoint.writeCodeTo(output);
+            classes.writeCodeTo(output);
+            output.flush();
+            assertArrayEquals((compact) ? compileCompact(program, null) : compileToBytes(program, null),
+                              bytes.toByteArray());
+        }
+    }
 }
@@ -0,0 +1,227 @@
+package vtables_example.codegen;
+
+import vtables_example.syntax.*;
+import vtables_example.benchmark.ProgramGenerator;
+import static vtables_example.codegen.MIPSCodeGeneratorClassTest.makeMapping;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class MIPSCodeGeneratorMetadataTest {
+    public static ClassName chainName(final int depth) {
+        return new ClassName("C" + depth);
+    }
+
+    // class C0 { int f0; init() {} }
+    // class C1 extends C0 { int f1; init() {} }
+    // ...
+    // The class at virtualFrom declares a virtual method, so it and
+    // everything beneath it have a vtable.
+    public static ClassDefinition[] chain(final int depth, final int virtualFrom) {
+        final ClassDefinition[] result = new ClassDefinition[depth];
+        for (int index = 0; index < depth; index++) {
+            final MethodDefinition[] methods;
+            if (index == virtualFrom) {
+                methods = new MethodDefinition[] {
+                    new MethodDefinition(true,
+                                         new IntType(),
+                                         new MethodName("get"),
+                                         new VarDec[0],
+                                         new ReturnStmt(new IntExp(index)))
+                };
+            } else {
+                methods = new MethodDefinition[0];
+            }
+            result[index] = new ClassDefinition(chainName(index),
+                                                (index == 0) ? null : chainName(index - 1),
+                                                new VarDec[] {
+                                                    new VarDec(new IntType(), new Variable("f" + index))
+                                                },
+                                                new Constructor(new VarDec[0], new EmptyStmt()),
+                                                methods);
+        }
+        return result;
+    }
+
+    @Test
+    public void testLayoutWithoutVTable() {
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(makeMapping(chain(3, -1)));
+        assertFalse(gen.hasVtableEntries(chainName(2)));
+        assertEquals(12, gen.sizeofClass(chainName(2)));
+        assertEquals(0, gen.fieldOffset(chainName(2), new Variable("f0")));
+        assertEquals(8, gen.fieldOffset(chainName(2), new Variable("f2")));
+    }
+
+    @Test
+    public void testLayoutWithVTableFromRoot() {
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(makeMapping(chain(3, 0)));
+        assertTrue(gen.hasVtableEntries(chainName(2)));
+        assertEquals(16, gen.sizeofClass(chainName(2)));
+        assertEquals(4, gen.fieldOffset(chainName(2), new Variable("f0")));
+        assertEquals(12, gen.fieldOffset(chainName(2), new Variable("f2")));
+    }
+
+    @Test
+    public void testLayoutWithVTableIntroducedInSubclass() {
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(makeMapping(chain(3, 1)));
+        assertEquals(4, gen.sizeofClass(chainName(0)));
+        assertEquals(12, gen.sizeofClass(chainName(1)));
+        assertEquals(8, gen.fieldOffset(chainName(1), new Variable("f1")));
+        assertEquals(12, gen.fieldOffset(chainName(2), new Variable("f2")));
+    }
+
+    @Test
+    public void testDeepChain() {
+        final int depth = 10000;
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(makeMapping(chain(depth, 0)));
+        final ClassName deepest = chainName(depth - 1);
+        assertEquals(depth * 4 + 4, gen.sizeofClass(deepest));
+        assertEquals(4, gen.fieldOffset(deepest, new Variable("f0")));
+        assertEquals(depth * 4, gen.fieldOffset(deepest, new Variable("f" + (depth - 1))));
+    }
+
+    @Test
+    public void testDispatchTableOverrides() {
+        // chain(3, 0) has C0 introduce virtual get; make C2 override it
+        // and add a non-virtual method of its own
+        final ClassDefinition[] classes = chain(3, 0);
+        final ClassDefinition old = classes[2];
+        classes[2] = new ClassDefinition(old.myName,
+                                         old.extendsName,
+                                         old.instanceVariables,
+                                         old.constructor,
+                                         new MethodDefinition[] {
+                                             new MethodDefinition(true,
+                                                                  new IntType(),
+                                                                  new MethodName("get"),
+                                                                  new VarDec[0],
+                                                                  new ReturnStmt(new IntExp(2))),
+                                             new MethodDefinition(false,
+                                                                  new IntType(),
+                                                                  new MethodName("plain"),
+                                                                  new VarDec[0],
+                                                                  new ReturnStmt(new IntExp(2)))
+                                         });
+        final MIPSCodeGenerator gen = new MIPSCodeGenerator(makeMapping(classes));
+
+        final DispatchTable middle = gen.dispatchTableOf(chainName(1));
+        assertEquals(1, middle.numSlots());
+        assertEquals(chainName(0), middle.slotImplementation(0));
+
+        final DispatchTable bottom = gen.dispatchTableOf(chainName(2));
+        assertEquals(1, bottom.numSlots());
+        assertEquals(chainName(2), bottom.slotImplementation(0));
+        assertEquals(0, bottom.methodOffset(new MethodName("get")));
+        assertEquals(-1, bottom.methodOffset(new MethodName("plain")));
+        assertFalse(gen.findMethod(chainName(2), new MethodName("plain")).isVirtual);
+    }
+
+    public static void assertSameMetadata(final ClassMetadata expected,
+                                          final ClassMetadata actual) {
+        for (final ClassDefinition def : expected.classDefinitions()) {
+            final DispatchTable expectedTable = expected.dispatchTableOf(def.myName);
+            final DispatchTable actualTable = actual.dispatchTableOf(def.myName);
+            assertEquals(expectedTable.numSlots(), actualTable.numSlots());
+            for (int slot = 0; slot < expectedTable.numSlots(); slot++) {
+                assertEquals(expectedTable.slotMethod(slot), actualTable.slotMethod(slot));
+                assertEquals(expectedTable.slotImplementation(slot), actualTable.slotImplementation(slot));
+            }
+            final ClassLayout expectedLayout = expected.layoutOf(def.myName);
+            final ClassLayout actualLayout = actual.layoutOf(def.myName);
+            assertEquals(expectedLayout.size, actualLayout.size);
+            for (final VarDec field : def.instanceVariables) {
+                assertEquals(expectedLayout.fieldOffset(field.variable),
+                             actualLayout.fieldOffset(field.variable));
+            }
+        }
+    }
+
+    @Test
+    public void testForkJoinMatchesSequential() {
+        // a wide forest, plus one very deep chain
+        final ClassDefinition[] forest =
+            new ProgramGenerator(new AstBuilder(false), 200, 5).classes();
+        final ClassDefinition[] deep = chain(10000, 0);
+        final ClassDefinition[] classes = Arrays.copyOf(forest, forest.length + deep.length);
+        System.arraycopy(deep, 0, classes, forest.length, deep.length);
+        final Map<ClassName, ClassDefinition> mapping = makeMapping(classes);
+
+        final ClassMetadata expected = ClassMetadata.compute(mapping);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertSameMetadata(expected, ClassMetadata.compute(mapping, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSnapshotShared() {
+        final ClassMetadata metadata = ClassMetadata.compute(makeMapping(chain(3, 0)));
+        final MIPSCodeGenerator first = new MIPSCodeGenerator(metadata);
+        final MIPSCodeGenerator second = new MIPSCodeGenerator(metadata);
+        assertSame(first.dispatchTableOf(chainName(2)), second.dispatchTableOf(chainName(2)));
+        assertSame(first.layoutOf(chainName(2)), second.layoutOf(chainName(2)));
+    }
+
+    @Test
+    public void testDeepChainSharesSlots() {
+        // every class overrides get, so no slots are added below C0
+        final ClassDefinition[] classes = chain(100, 0);
+        for (int index = 1; index < classes.length; index++) {
+            final ClassDefinition def = classes[index];
+            classes[index] = new ClassDefinition(def.myName,
+                                                 def.extendsName,
+                                                 def.instanceVariables,
+                                                 def.constructor,
+                                                 new MethodDefinition[] {
+                                                     new MethodDefinition(true,
+                                                                          new IntType(),
+                                                                          new MethodName("get"),
+                                                                          new VarDec[0],
+                                                                          new ReturnStmt(new IntExp(index)))
+                                                 });
+        }
+        final ClassMetadata metadata = ClassMetadata.compute(makeMapping(classes));
+        final DispatchTable top = metadata.dispatchTableOf(chainName(0));
+        for (int index = 1; index < classes.length; index++) {
+            final DispatchTable table = metadata.dispatchTableOf(chainName(index));
+            assertTrue(table.sharesSlotsWith(top));
+            assertEquals(1, table.numSlots());
+            assertEquals(chainName(index), table.slotImplementation(0));
+        }
+        assertEquals(chainName(0), top.slotImplementation(0));
+    }
+
+    @Test
+    public void testLazyComputesOnlyWhatIsAsked() {
+        final ClassDefinition[] forest =
+            new ProgramGenerator(new AstBuilder(false), 2, 3).classes();
+        final ClassDefinition[] deep = chain(5, 0);
+        final ClassDefinition[] classes = Arrays.copyOf(forest, forest.length + deep.length);
+        System.arraycopy(deep, 0, classes, forest.length, deep.length);
+        final Map<ClassName, ClassDefinition> mapping = makeMapping(classes);
+
+        final ClassMetadata lazy = ClassMetadata.lazy(mapping);
+        assertTrue(lazy.isLazy());
+        assertFalse(lazy.isComputed(chainName(0)));
+        lazy.layoutOf(chainName(2));
+        // the class asked for and its ancestors, but nothing else
+        assertTrue(lazy.isComputed(chainName(0)));
+        assertTrue(lazy.isComputed(chainName(1)));
+        assertTrue(lazy.isComputed(chainName(2)));
+        assertFalse(lazy.isComputed(chainName(3)));
+        for (final ClassDefinition def : forest) {
+            assertFalse(lazy.isComputed(def.myName));
+        }
+
+        assertSameMetadata(ClassMetadata.compute(mapping), lazy);
+    }
+} // MIPSCodeGeneratorMetadataTest
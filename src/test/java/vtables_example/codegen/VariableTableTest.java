@@ -0,0 +1,73 @@
+package vtables_example.codegen;
+
+import vtables_example.syntax.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class VariableTableTest {
+    // ---BEGIN CONSTANTS---
+    public static final Variable X = new Variable("x");
+    public static final Variable Y = new Variable("y");
+    // ---END CONSTANTS---
+
+    @Test
+    public void testOffsetsCountFromTop() {
+        final VariableTable table = new VariableTable();
+        table.pushVariable(X, new IntType(), 4);
+        table.pushVariable(Y, new IntType(), 8);
+        assertEquals(0, table.variableOffset(Y));
+        assertEquals(8, table.variableOffset(X));
+        assertEquals(8, table.variableSize(Y));
+        assertEquals(12, table.totalSizeOfAllVariables());
+    }
+
+    @Test
+    public void testShadowingUsesMostRecent() {
+        final VariableTable table = new VariableTable();
+        table.pushVariable(X, new IntType(), 4);
+        final VariableTableResetPoint resetPoint = table.makeResetPoint();
+        table.pushVariable(Y, new IntType(), 4);
+        table.pushVariable(X, new IntType(), 4);
+        assertEquals(0, table.variableOffset(X));
+        assertEquals(8, table.sizeAllocatedSinceResetPoint(resetPoint));
+        assertEquals(8, table.resetTo(resetPoint));
+        assertEquals(0, table.variableOffset(X));
+        assertEquals(4, table.totalSizeOfAllVariables());
+    }
+
+    @Test
+    public void testDummiesTakeSpace() {
+        final VariableTable table = new VariableTable();
+        table.pushVariable(X, new IntType(), 4);
+        for (int index = 0; index < 100; index++) {
+            table.pushDummy(4);
+        }
+        assertEquals(400, table.variableOffset(X));
+        table.clear();
+        assertTrue(table.isEmpty());
+        assertEquals(0, table.totalSizeOfAllVariables());
+    }
+
+    @Test
+    public void testClearForgetsNames() {
+        // a few names per function, but different ones every time
+        final VariableTable table = new VariableTable();
+        for (int function = 0; function < 1000; function++) {
+            for (int index = 0; index < 4; index++) {
+                table.pushVariable(new Variable("f" + function + "v" + index), new IntType(), 4);
+            }
+            assertEquals(0, table.variableOffset(new Variable("f" + function + "v3")));
+            table.clear();
+        }
+        assertEquals(16, table.topCapacity());
+
+        // names from before the clear are gone, and shadowing still works
+        table.pushVariable(X, new IntType(), 4);
+        table.pushVariable(Y, new IntType(), 4);
+        table.pushVariable(X, new IntType(), 4);
+        assertEquals(0, table.variableOffset(X));
+        assertEquals(4, table.variableOffset(Y));
+    }
+} // VariableTableTest
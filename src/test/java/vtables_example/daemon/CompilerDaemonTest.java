@@ -0,0 +1,251 @@
+package vtables_example.daemon;
+
+import vtables_example.batch.BatchCompilerTest;
+import vtables_example.codegen.ClassMetadata;
+import vtables_example.codegen.MIPSCodeGenerator;
+import vtables_example.syntax.*;
+import vtables_example.typechecker.Typechecker;
+import static vtables_example.codegen.MIPSCodeGeneratorClassTest.compileCompact;
+import static vtables_example.codegen.MIPSCodeGeneratorClassTest.compileToBytes;
+import static vtables_example.codegen.MIPSCodeGeneratorClassTest.makeMapping;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class CompilerDaemonTest {
+    // A daemon serving on a socket in a directory of its own, on a thread
+    // of its own.
+    public static class RunningDaemon {
+        public final Path directory;
+        public final ExecutorService executor;
+        public final CompilerDaemon daemon;
+        public final Future<?> serving;
+        public final CompilerClient client;
+
+        public RunningDaemon() throws Exception {
+            directory = Files.createTempDirectory("daemon");
+            executor = Executors.newFixedThreadPool(3);
+            daemon = new CompilerDaemon(directory.resolve("socket"), executor, 2);
+            serving = executor.submit(() -> {
+                daemon.serve();
+                return null;
+            });
+            client = new CompilerClient(daemon.socket());
+        }
+
+        public void stop() throws Exception {
+            daemon.close();
+            serving.get();
+            executor.shutdown();
+            Files.deleteIfExists(directory);
+        }
+    } // RunningDaemon
+
+    @Test
+    public void testCompilesLikeInProcess() throws Exception {
+        final Program program = BatchCompilerTest.generated(6, 10);
+        Typechecker.typecheckProgram(program);
+        final RunningDaemon running = new RunningDaemon();
+        try {
+            assertArrayEquals(compileToBytes(program, null),
+                              running.client.compile(program, 0));
+            assertArrayEquals(compileCompact(program, null),
+                              running.client.compile(program, Protocol.COMPACT_LABELS));
+
+            final MIPSCodeGenerator gen =
+                new MIPSCodeGenerator(ClassMetadata.compute(makeMapping(program.classes)));
+            gen.compileProgram(program);
+            final ByteArrayOutputStream object = new ByteArrayOutputStream();
+            gen.writeObjectTo(Channels.newChannel(object));
+            assertArrayEquals(object.toByteArray(),
+                              running.client.compile(program, Protocol.OBJECT_FILE));
+        } finally {
+            running.stop();
+        }
+    }
+
+    @Test
+    public void testLibrariesCachedByContent() throws Exception {
+        final Program first = BatchCompilerTest.generated(3, 4);
+        final Program second = BatchCompilerTest.generated(3, 9);
+        final byte[] library = AstCodec.encodeClasses(first.classes);
+        final RunningDaemon running = new RunningDaemon();
+        try {
+            running.client.compile(library, AstCodec.encodeStmt(first.entryPoint), 0);
+            // a new entry point, and the classes encoded afresh
+            final byte[] asm = running.client.compile(second, 0);
+            assertEquals(1, running.daemon.cacheMisses());
+            assertEquals(1, running.daemon.cacheHits());
+            Typechecker.typecheckProgram(second);
+            assertArrayEquals(compileToBytes(second, null), asm);
+
+            // any change to the library is a miss
+            running.client.compile(BatchCompilerTest.generated(4, 4), 0);
+            assertEquals(2, running.daemon.cacheMisses());
+            running.client.compile(first, 0);
+            assertEquals(2, running.daemon.cacheHits());
+        } finally {
+            running.stop();
+        }
+    }
+
+    public static String diagnosticFor(final CompilerClient client,
+                                       final byte[] library,
+                                       final byte[] entryPoint,
+                                       final int options) throws Exception {
+        try {
+            client.compile(library, entryPoint, options);
+        } catch (final CompileFailedException e) {
+            return e.getMessage();
+        }
+        fail("compiled without a diagnostic");
+        return null;
+    }
+
+    @Test
+    public void testDiagnostics() throws Exception {
+        final Program illTyped = BatchCompilerTest.illTyped();
+        final byte[] library = AstCodec.encodeClasses(illTyped.classes);
+        final byte[] entryPoint = AstCodec.encodeStmt(illTyped.entryPoint);
+        final RunningDaemon running = new RunningDaemon();
+        try {
+            assertTrue(diagnosticFor(running.client, library, entryPoint, 0).startsWith("Type error"));
+            assertTrue(diagnosticFor(running.client, library, new byte[] { 99 }, 0).startsWith("Malformed"));
+            assertTrue(diagnosticFor(running.client, library, entryPoint, 64).startsWith("Unknown options"));
+            // still serving after all that
+            final Program program = BatchCompilerTest.generated(1, 1);
+            Typechecker.typecheckProgram(program);
+            assertArrayEquals(compileToBytes(program, null), running.client.compile(program, 0));
+        } finally {
+            running.stop();
+        }
+    }
+
+    // five classes in a chain, each with a field and a method, and an entry
+    // point calling the last; every name is new to round
+    public static Program uniqueNames(final int round) {
+        final AstBuilder b = new AstBuilder(false);
+        final ClassDefinition[] classes = new ClassDefinition[5];
+        for (int index = 0; index < classes.length; index++) {
+            final String prefix = "round" + round + "_" + index;
+            final Variable field = b.variable(prefix + "f");
+            classes[index] =
+                new ClassDefinition(b.className(prefix + "C"),
+                                    (index == 0) ? null : classes[index - 1].myName,
+                                    new VarDec[] { b.varDec(b.intType(), field) },
+                                    new Constructor(new VarDec[0],
+                                                    (index == 0) ? b.emptyStmt() : b.superStmt(new Exp[0])),
+                                    new MethodDefinition[] {
+                                        new MethodDefinition(true,
+                                                             b.intType(),
+                                                             b.methodName(prefix + "m"),
+                                                             new VarDec[0],
+                                                             b.returnStmt(b.lhsExp(b.fieldAccessLhs(b.thisLhs(), field))))
+                                    });
+        }
+        final ClassDefinition last = classes[classes.length - 1];
+        final Variable object = b.variable("round" + round + "o");
+        final Variable result = b.variable("round" + round + "r");
+        final Stmt entryPoint =
+            b.sequence(b.newStmt(b.varDec(b.classType(last.myName.name), object), last.myName, new Exp[0]),
+                       b.methodCallStmt(b.varDec(b.intType(), result),
+                                        b.lhsExp(b.variableLhs(object)),
+                                        last.methods[0].name,
+                                        new Exp[0]),
+                       b.printStmt(b.lhsExp(b.variableLhs(result))));
+        return new Program(classes, entryPoint);
+    } // uniqueNames
+
+    public static void compileRounds(final CompilerClient client,
+                                     final int start,
+                                     final int end) throws Exception {
+        for (int round = start; round < end; round++) {
+            client.compile(uniqueNames(round), 0);
+            if (round % 10 == 9) {
+                System.gc();
+            }
+        }
+    }
+
+    @Test
+    public void testEvictedLibrariesNamesReused() throws Exception {
+        // only two libraries are cached, so names from the rest can go, and
+        // their IDs be handed out again; without that, each round would
+        // add five class names, five method names, and seven variables
+        final RunningDaemon running = new RunningDaemon();
+        try {
+            compileRounds(running.client, 0, 20);
+            final int classNames = ClassName.TABLE.size();
+            final int methodNames = MethodName.TABLE.size();
+            final int variables = Variable.TABLE.size();
+            compileRounds(running.client, 20, 200);
+            assertTrue(ClassName.TABLE.size() - classNames < 100);
+            assertTrue(MethodName.TABLE.size() - methodNames < 100);
+            assertTrue(Variable.TABLE.size() - variables < 140);
+            assertEquals(200, running.daemon.cacheMisses());
+        } finally {
+            running.stop();
+        }
+    }
+
+    @Test
+    public void testSocketInUse() throws Exception {
+        final RunningDaemon running = new RunningDaemon();
+        try {
+            new CompilerDaemon(running.daemon.socket(), running.executor, 1);
+            fail("started a second daemon on a live socket");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("already listening"));
+        } finally {
+            running.stop();
+        }
+    }
+
+    @Test
+    public void testSocketOwnerOnly() throws Exception {
+        final RunningDaemon running = new RunningDaemon();
+        try {
+            assertEquals(PosixFilePermissions.fromString("rw-------"),
+                         Files.getPosixFilePermissions(running.daemon.socket()));
+            // nothing left over from binding
+            final Stream<Path> files = Files.list(running.directory);
+            try {
+                assertEquals(1, files.count());
+            } finally {
+                files.close();
+            }
+            final Program program = BatchCompilerTest.generated(1, 1);
+            Typechecker.typecheckProgram(program);
+            assertArrayEquals(compileToBytes(program, null), running.client.compile(program, 0));
+        } finally {
+            running.stop();
+        }
+    }
+
+    @Test
+    public void testShutdownRequest() throws Exception {
+        final RunningDaemon running = new RunningDaemon();
+        try {
+            running.client.shutdown();
+            running.serving.get();
+            assertFalse(Files.exists(running.daemon.socket()));
+        } finally {
+            running.stop();
+        }
+    }
+} // CompilerDaemonTest
@@ -0,0 +1,59 @@
+package vtables_example.syntax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class AstBuilderTest {
+    public static Stmt printX(final AstBuilder builder) {
+        return builder.printStmt(builder.lhsExp(builder.variableLhs(builder.variable("x"))));
+    }
+
+    public static Lhs thisField(final AstBuilder builder) {
+        return builder.fieldAccessLhs(builder.thisLhs(), builder.variable("f"));
+    }
+
+    @Test
+    public void testEqualNodesShared() {
+        final AstBuilder builder = new AstBuilder(true);
+        assertSame(printX(builder), printX(builder));
+        assertSame(builder.intExp(3), builder.intExp(3));
+        assertSame(builder.sequence(printX(builder), builder.returnStmt(null)),
+                   builder.sequence(printX(builder), builder.returnStmt(null)));
+    }
+
+    @Test
+    public void testNothingSharedWithoutHashConsing() {
+        final AstBuilder builder = new AstBuilder(false);
+        assertNotSame(printX(builder), printX(builder));
+        assertEquals(printX(builder), printX(builder));
+        assertEquals(0, builder.numShared());
+    }
+
+    @Test
+    public void testAnnotatedNodesNotShared() {
+        final AstBuilder builder = new AstBuilder(true);
+        assertNotSame(thisField(builder), thisField(builder));
+        assertNotSame(builder.printStmt(builder.lhsExp(thisField(builder))),
+                      builder.printStmt(builder.lhsExp(thisField(builder))));
+
+        final VarDec vardec = builder.varDec(builder.intType(), builder.variable("y"));
+        final Exp[] params = new Exp[] { builder.intExp(1) };
+        final Stmt first = builder.methodCallStmt(vardec, builder.intExp(0), builder.methodName("m"), params);
+        final Stmt second = builder.methodCallStmt(vardec, builder.intExp(0), builder.methodName("m"), params);
+        assertNotSame(first, second);
+        assertEquals(first, second);
+        assertNotSame(builder.sequenceStmt(first, printX(builder)),
+                      builder.sequenceStmt(first, printX(builder)));
+    }
+
+    @Test
+    public void testCachedHashMatchesEquality() {
+        final AstBuilder builder = new AstBuilder(false);
+        final Stmt first = builder.sequence(builder.superStmt(new Exp[] { builder.intExp(1) }), printX(builder));
+        final Stmt second = builder.sequence(builder.superStmt(new Exp[] { builder.intExp(1) }), printX(builder));
+        assertEquals(first.hashCode(), second.hashCode());
+        assertEquals(first, second);
+    }
+} // AstBuilderTest
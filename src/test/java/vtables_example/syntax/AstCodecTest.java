@@ -0,0 +1,128 @@
+package vtables_example.syntax;
+
+import vtables_example.benchmark.ProgramGenerator;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class AstCodecTest {
+    public static Program roundTrip(final Program program) throws IOException {
+        return AstCodec.decodeProgram(new AstBuilder(false), AstCodec.encodeProgram(program));
+    }
+
+    // every kind of type, statement, expression, and lhs
+    public static Program everyKind() {
+        final AstBuilder b = new AstBuilder(false);
+        final Lhs field = b.fieldAccessLhs(b.fieldAccessLhs(b.thisLhs(), b.variable("next")),
+                                           b.variable("value"));
+        final ClassDefinition base =
+            new ClassDefinition(b.className("Base"),
+                                null,
+                                new VarDec[] { b.varDec(b.intType(), b.variable("value")) },
+                                new Constructor(new VarDec[0], b.emptyStmt()),
+                                new MethodDefinition[] {
+                                    new MethodDefinition(true,
+                                                         b.voidType(),
+                                                         b.methodName("run"),
+                                                         new VarDec[0],
+                                                         b.returnStmt(null))
+                                });
+        final ClassDefinition sub =
+            new ClassDefinition(b.className("Sub"),
+                                b.className("Base"),
+                                new VarDec[] { b.varDec(b.classType("Sub"), b.variable("next")) },
+                                new Constructor(new VarDec[] { b.varDec(b.intType(), b.variable("x")) },
+                                                b.blockStmt(b.superStmt(new Exp[0]),
+                                                            b.assignStmt(field, b.intExp(-7)))),
+                                new MethodDefinition[] {
+                                    new MethodDefinition(false,
+                                                         b.intType(),
+                                                         b.methodName("get"),
+                                                         new VarDec[] { b.varDec(b.intType(), b.variable("x")) },
+                                                         b.returnStmt(b.lhsExp(field)))
+                                });
+        final Stmt entryPoint =
+            b.sequence(b.newStmt(b.varDec(b.classType("Sub"), b.variable("s")),
+                                 b.className("Sub"),
+                                 new Exp[] { b.intExp(Integer.MIN_VALUE) }),
+                       b.methodCallStmt(b.varDec(b.intType(), b.variable("y")),
+                                        b.lhsExp(b.variableLhs(b.variable("s"))),
+                                        b.methodName("get"),
+                                        new Exp[] { b.intExp(3) }),
+                       b.sequenceStmt(b.printStmt(b.lhsExp(b.variableLhs(b.variable("y")))),
+                                      b.emptyStmt()),
+                       b.printStmt(b.intExp(0)));
+        return new Program(new ClassDefinition[] { base, sub }, entryPoint);
+    } // everyKind
+
+    @Test
+    public void testRoundTripEveryKind() throws IOException {
+        final Program program = everyKind();
+        assertEquals(program, roundTrip(program));
+    }
+
+    @Test
+    public void testRoundTripGenerated() throws IOException {
+        final Program program = new ProgramGenerator(new AstBuilder(false), 10, 4).program(50);
+        assertEquals(program, roundTrip(program));
+    }
+
+    @Test
+    public void testLongSequenceChain() throws IOException {
+        // far deeper than recursion could go
+        final AstBuilder builder = new AstBuilder(true);
+        final Stmt[] stmts = new Stmt[200000];
+        for (int index = 0; index < stmts.length; index++) {
+            stmts[index] = builder.printStmt(builder.intExp(index % 100));
+        }
+        final byte[] encoded = AstCodec.encodeStmt(builder.sequence(stmts));
+        final Stmt decoded = AstCodec.decodeStmt(builder, encoded);
+        assertTrue(decoded instanceof SequenceStmt);
+        assertArrayEquals(stmts, BlockStmt.flatten(decoded).stmts);
+        // decoding with hash-consing shares repeated nodes
+        assertSame(stmts[0], BlockStmt.flatten(decoded).stmts[100]);
+    }
+
+    @Test
+    public void testNamesWrittenOnce() throws IOException {
+        final AstBuilder builder = new AstBuilder(false);
+        final String name = "aVariableWithAFairlyLongName";
+        final Stmt[] stmts = new Stmt[100];
+        Arrays.fill(stmts, builder.printStmt(builder.lhsExp(builder.variableLhs(builder.variable(name)))));
+        assertTrue(AstCodec.encodeStmt(builder.blockStmt(stmts)).length < 4 * stmts.length + name.length() + 8);
+    }
+
+    public static void assertMalformed(final byte[] bytes) {
+        try {
+            AstCodec.decodeProgram(new AstBuilder(false), bytes);
+            fail("decoded malformed input");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMalformedInputRejected() throws IOException {
+        final byte[] encoded = AstCodec.encodeProgram(everyKind());
+        for (int length = 0; length < encoded.length; length += 7) {
+            assertMalformed(Arrays.copyOf(encoded, length));
+        }
+        assertMalformed(Arrays.copyOf(encoded, encoded.length + 1));
+        // a statement tag past the last
+        final byte[] badTag = AstCodec.encodeStmt(new EmptyStmt());
+        badTag[0] = 42;
+        try {
+            AstCodec.decodeStmt(new AstBuilder(false), badTag);
+            fail("decoded an unknown tag");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("42"));
+        }
+    }
+} // AstCodecTest
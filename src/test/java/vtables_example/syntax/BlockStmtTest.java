@@ -0,0 +1,38 @@
+package vtables_example.syntax;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class BlockStmtTest {
+    public static Stmt print(final int value) {
+        return new PrintStmt(new IntExp(value));
+    }
+
+    @Test
+    public void testNestingSpliced() {
+        final BlockStmt block =
+            new BlockStmt(new SequenceStmt(new SequenceStmt(print(0), print(1)),
+                                           new BlockStmt(print(2), new EmptyStmt())),
+                          print(3));
+        assertArrayEquals(new Stmt[] { print(0), print(1), print(2), new EmptyStmt(), print(3) },
+                          block.stmts);
+        assertEquals(block, new BlockStmt(block.stmts));
+        assertSame(block, BlockStmt.flatten(block));
+    }
+
+    @Test
+    public void testLongSequenceFlattened() {
+        final int length = 100000;
+        Stmt sequence = print(length - 1);
+        for (int index = length - 2; index >= 0; index--) {
+            sequence = new SequenceStmt(print(index), sequence);
+        }
+        final BlockStmt block = BlockStmt.flatten(sequence);
+        assertEquals(length, block.stmts.length);
+        for (int index = 0; index < length; index++) {
+            assertEquals(print(index), block.stmts[index]);
+        }
+    }
+} // BlockStmtTest
@@ -0,0 +1,70 @@
+package vtables_example.syntax;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class NameTableTest {
+    @Test
+    public void testCanonicalInstanceShared() {
+        final ClassName fresh = new ClassName("NameTableTestFresh");
+        final ClassName interned = ClassName.intern("NameTableTestFresh");
+        assertNotSame(fresh, interned);
+        assertSame(interned, fresh.canonical());
+        assertEquals(interned.id(), fresh.id());
+        assertEquals(interned, fresh);
+    }
+
+    @Test
+    public void testKindsKeptApart() {
+        final Variable variable = Variable.intern("NameTableTestKind");
+        final MethodName method = MethodName.intern("NameTableTestKind");
+        assertEquals(false, variable.equals(method));
+    }
+
+    @Test
+    public void testParallelInterningIsDense() throws Exception {
+        final int numNames = 1000;
+        final NameTable<Variable> table = new NameTable<Variable>(Variable::new);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Variable[]>> results = new ArrayList<Future<Variable[]>>();
+            for (int thread = 0; thread < 8; thread++) {
+                results.add(executor.submit(new Callable<Variable[]>() {
+                    public Variable[] call() {
+                        final Variable[] result = new Variable[numNames];
+                        for (int index = 0; index < numNames; index++) {
+                            result[index] = table.intern("v" + index);
+                        }
+                        return result;
+                    }
+                }));
+            }
+            final Variable[] first = results.get(0).get();
+            for (final Future<Variable[]> result : results) {
+                final Variable[] current = result.get();
+                for (int index = 0; index < numNames; index++) {
+                    assertSame(first[index], current[index]);
+                }
+            }
+            final Set<Integer> ids = new HashSet<Integer>();
+            for (final Variable variable : first) {
+                ids.add(variable.id());
+            }
+            assertEquals(numNames, ids.size());
+            assertEquals(numNames, table.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+} // NameTableTest
@@ -9,7 +9,13 @@ import static vtables_example.typechecker.TypecheckerExpTest.FIELD_CLASS;
 import static vtables_example.typechecker.TypecheckerExpTest.mkChecker;
 import static vtables_example.typechecker.TypecheckerExpTest.initialEnv;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.Assert.fail;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 public class TypecheckerClassTest {
@@ -229,5 +235,238 @@ public class TypecheckerClassTest {
                                  withMethod()));
     }
 
+    public void assertIllTypedWith(final String expectedMessage,
+                                   final Program program) {
+        try {
+            Typechecker.typecheckProgram(program);
+            fail("expected ill-typed");
+        } catch (final TypeErrorException e) {
+            assertEquals(expectedMessage, e.getMessage());
+        }
+    }
+
+    // class name extends parent { init() { super(); } }
+    public static ClassDefinition emptySubclass(final ClassName name,
+                                                final ClassName parent,
+                                                final VarDec[] instanceVariables,
+                                                final MethodDefinition... methods) {
+        return new ClassDefinition(name,
+                                   parent,
+                                   instanceVariables,
+                                   new Constructor(new VarDec[0],
+                                                   new SuperStmt(new Exp[0])),
+                                   methods);
+    }
+
+    public static MethodDefinition returnsZero(final boolean isVirtual) {
+        return new MethodDefinition(isVirtual,
+                                    new IntType(),
+                                    new MethodName("zero"),
+                                    new VarDec[0],
+                                    new ReturnStmt(new IntExp(0)));
+    }
+
+    @Test
+    public void testIllTypedCyclicInheritance() {
+        final ClassName a = new ClassName("A");
+        final ClassName b = new ClassName("B");
+        assertIllTypedWith("Cyclic inheritance on " + a,
+                           mkProgram(new EmptyStmt(),
+                                     emptySubclass(a, b, new VarDec[0]),
+                                     emptySubclass(b, a, new VarDec[0])));
+    }
+
+    @Test
+    public void testIllTypedRedefinedInstanceVariable() {
+        assertIllTypedWith("Instance variable seen: b",
+                           mkProgram(new EmptyStmt(),
+                                     baseClass(),
+                                     emptySubclass(SUB_CLASS_NAME,
+                                                   BASE_CLASS_NAME,
+                                                   new VarDec[] {
+                                                       new VarDec(new IntType(), new Variable("b"))
+                                                   })));
+    }
+
+    @Test
+    public void testIllTypedVirtualDisagreement() {
+        final ClassName middle = new ClassName("Middle");
+        final ClassName bottom = new ClassName("Bottom");
+        final ClassDefinition base = baseClass();
+        final ClassDefinition withVirtual =
+            new ClassDefinition(BASE_CLASS_NAME,
+                                null,
+                                base.instanceVariables,
+                                base.constructor,
+                                new MethodDefinition[] { returnsZero(true) });
+        assertIllTypedWith("virtual disagreement on zero",
+                           mkProgram(new EmptyStmt(),
+                                     withVirtual,
+                                     emptySubclass(middle, BASE_CLASS_NAME, new VarDec[0]),
+                                     emptySubclass(bottom, middle, new VarDec[0], returnsZero(false))));
+    }
+
+    @Test
+    public void testMemberCacheReused() throws TypeErrorException {
+        final Typechecker typechecker =
+            new Typechecker(Typechecker.classMapping(new ClassDefinition[] { baseClass(), subClass() }));
+        typechecker.typecheckAllClasses();
+        final long misses = typechecker.memberCacheMisses();
+        for (int index = 0; index < 10; index++) {
+            assertEquals(new IntType(), typechecker.typeofField(SUB_CLASS_NAME, new Variable("b")));
+        }
+        assertEquals(misses, typechecker.memberCacheMisses());
+        assertTrue(typechecker.memberCacheHits() >= 10);
+    }
+
+    public static Stmt printOnes(final int count) {
+        final Stmt[] result = new Stmt[count];
+        for (int index = 0; index < count; index++) {
+            result[index] = new PrintStmt(new IntExp(1));
+        }
+        return stmts(result);
+    }
+
+    @Test
+    public void testWellTypedLongEntryPoint() {
+        assertWellTyped(mkProgram(printOnes(50000)));
+    }
+
+    @Test
+    public void testIllTypedReturnInEntryPoint() {
+        assertIllTypedWith("return in entry point",
+                           mkProgram(stmts(new PrintStmt(new IntExp(1)),
+                                           new ReturnStmt(new IntExp(0)))));
+    }
+
+    @Test
+    public void testIllTypedEarlyReturnInBlock() {
+        final MethodDefinition method =
+            new MethodDefinition(false,
+                                 new IntType(),
+                                 new MethodName("zero"),
+                                 new VarDec[0],
+                                 new BlockStmt(new ReturnStmt(new IntExp(0)),
+                                               stmts(new PrintStmt(new IntExp(1)),
+                                                     new ReturnStmt(new IntExp(0)))));
+        assertIllTypedWith("Early return in method",
+                           mkProgram(new EmptyStmt(),
+                                     new ClassDefinition(new ClassName("Early"),
+                                                         null,
+                                                         new VarDec[0],
+                                                         new Constructor(new VarDec[0],
+                                                                         new EmptyStmt()),
+                                                         new MethodDefinition[] { method })));
+    }
+
+    // class BadN { init() {} int bad() { return this.missingN; } }
+    public static ClassDefinition badClass(final int number) {
+        return new ClassDefinition(new ClassName("Bad" + number),
+                                   null,
+                                   new VarDec[0],
+                                   new Constructor(new VarDec[0], new EmptyStmt()),
+                                   new MethodDefinition[] {
+                                       new MethodDefinition(false,
+                                                            new IntType(),
+                                                            new MethodName("bad"),
+                                                            new VarDec[0],
+                                                            new ReturnStmt(new LhsExp(new FieldAccessLhs(new ThisLhs(),
+                                                                                                         new Variable("missing" + number)))))
+                                   });
+    }
+
+    // every seventh class is ill-typed; rebuilt each time, as checking
+    // annotates the classes
+    public static ClassDefinition[] mostlyGoodClasses(final int count) {
+        final ClassDefinition[] result = new ClassDefinition[count + 1];
+        for (int index = 0; index < count; index++) {
+            result[index] = (index % 7 == 3) ? badClass(index) : emptySubclass(new ClassName("Good" + index),
+                                                                               BASE_CLASS_NAME,
+                                                                               new VarDec[0]);
+        }
+        result[count] = baseClass();
+        return result;
+    }
+
+    @Test
+    public void testParallelReportsSameError() throws TypeErrorException {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int round = 0; round < 10; round++) {
+                String expected = null;
+                try {
+                    new Typechecker(Typechecker.classMapping(mostlyGoodClasses(200))).typecheckAllClasses();
+                    fail("expected ill-typed");
+                } catch (final TypeErrorException e) {
+                    expected = e.getMessage();
+                }
+                try {
+                    new Typechecker(Typechecker.classMapping(mostlyGoodClasses(200))).typecheckAllClasses(pool);
+                    fail("expected ill-typed");
+                } catch (final TypeErrorException e) {
+                    assertEquals(expected, e.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Base; Bad<number>, with an ill-typed body; and Sub, redefining one of
+    // Base's instance variables
+    public static ClassDefinition[] bodyAndHierarchyErrors(final int number) {
+        return new ClassDefinition[] {
+            baseClass(),
+            badClass(number),
+            emptySubclass(SUB_CLASS_NAME,
+                          BASE_CLASS_NAME,
+                          new VarDec[] { new VarDec(new IntType(), new Variable("b")) })
+        };
+    }
+
+    // checks in parallel if pool isn't null
+    public static String errorFrom(final ClassDefinition[] classes,
+                                   final ForkJoinPool pool) throws TypeErrorException {
+        final Typechecker typechecker = new Typechecker(Typechecker.classMapping(classes));
+        try {
+            if (pool == null) {
+                typechecker.typecheckAllClasses();
+            } else {
+                typechecker.typecheckAllClasses(pool);
+            }
+        } catch (final TypeErrorException e) {
+            return e.getMessage();
+        }
+        fail("expected ill-typed");
+        return null;
+    }
+
+    @Test
+    public void testBodyAndHierarchyErrorsReportedInOrder() throws TypeErrorException {
+        // whichever class comes first reports its error, as when each class
+        // was checked in full before the next; the bad class is renamed
+        // until it has come both before and after Sub
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            boolean seenBodyFirst = false;
+            boolean seenHierarchyFirst = false;
+            for (int number = 0; number < 100 && !(seenBodyFirst && seenHierarchyFirst); number++) {
+                final List<ClassName> order =
+                    new ArrayList<ClassName>(Typechecker.classMapping(bodyAndHierarchyErrors(number)).keySet());
+                final boolean bodyFirst =
+                    order.indexOf(new ClassName("Bad" + number)) < order.indexOf(SUB_CLASS_NAME);
+                final String expected =
+                    (bodyFirst) ? errorFrom(new ClassDefinition[] { badClass(number) }, null) : "Instance variable seen: b";
+                assertEquals(expected, errorFrom(bodyAndHierarchyErrors(number), null));
+                assertEquals(expected, errorFrom(bodyAndHierarchyErrors(number), pool));
+                seenBodyFirst |= bodyFirst;
+                seenHierarchyFirst |= !bodyFirst;
+            }
+            assertTrue(seenBodyFirst && seenHierarchyFirst);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     // TODO: most tests are missing, particularly those dealing with ill-typed programs
 } // TypecheckerClassTest
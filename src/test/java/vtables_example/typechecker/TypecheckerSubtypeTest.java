@@ -0,0 +1,97 @@
+package vtables_example.typechecker;
+
+import vtables_example.syntax.*;
+
+import static vtables_example.typechecker.TypecheckerClassTest.BASE_CLASS_NAME;
+import static vtables_example.typechecker.TypecheckerClassTest.SUB_CLASS_NAME;
+import static vtables_example.typechecker.TypecheckerClassTest.baseClass;
+import static vtables_example.typechecker.TypecheckerClassTest.subClass;
+import static vtables_example.typechecker.TypecheckerExpTest.EMPTY_CLASS;
+import static vtables_example.typechecker.TypecheckerExpTest.EMPTY_CLASS_NAME;
+import static vtables_example.typechecker.TypecheckerExpTest.mkChecker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class TypecheckerSubtypeTest {
+    public void assertSubtype(final Typechecker typechecker,
+                              final ClassName base,
+                              final ClassName sub) {
+        try {
+            typechecker.typesOk(new ClassType(base), new ClassType(sub));
+        } catch (final TypeErrorException e) {
+            fail("expected subtype; " + e.getMessage());
+        }
+    }
+
+    // returns the error message
+    public String assertNotSubtype(final Typechecker typechecker,
+                                   final ClassName base,
+                                   final ClassName sub) {
+        try {
+            typechecker.typesOk(new ClassType(base), new ClassType(sub));
+            fail("expected not a subtype");
+            return null;
+        } catch (final TypeErrorException e) {
+            return e.getMessage();
+        }
+    }
+
+    public static ClassName chainName(final int depth) {
+        return new ClassName("C" + depth);
+    }
+
+    // class C0 { init() {} }
+    // class C1 extends C0 { init() { super(); } }
+    // ...
+    public static ClassDefinition[] chain(final int depth) {
+        final ClassDefinition[] result = new ClassDefinition[depth];
+        for (int index = 0; index < depth; index++) {
+            result[index] = new ClassDefinition(chainName(index),
+                                                (index == 0) ? null : chainName(index - 1),
+                                                new VarDec[0],
+                                                new Constructor(new VarDec[0],
+                                                                (index == 0) ? new EmptyStmt() : new SuperStmt(new Exp[0])),
+                                                new MethodDefinition[0]);
+        }
+        return result;
+    }
+
+    @Test
+    public void testSubclassOfBase() {
+        final Typechecker typechecker = mkChecker(new ClassDefinition[] { baseClass(), subClass(), EMPTY_CLASS });
+        assertSubtype(typechecker, BASE_CLASS_NAME, SUB_CLASS_NAME);
+        assertSubtype(typechecker, SUB_CLASS_NAME, SUB_CLASS_NAME);
+        assertEquals("Base is not a subtype of Sub",
+                     assertNotSubtype(typechecker, SUB_CLASS_NAME, BASE_CLASS_NAME));
+        // the message names the root the search ended at
+        assertEquals("Base is not a subtype of Empty",
+                     assertNotSubtype(typechecker, EMPTY_CLASS_NAME, SUB_CLASS_NAME));
+    }
+
+    @Test
+    public void testMissingParent() {
+        final Typechecker typechecker = mkChecker(new ClassDefinition[] { subClass(), EMPTY_CLASS });
+        assertSubtype(typechecker, BASE_CLASS_NAME, SUB_CLASS_NAME);
+        assertEquals("No such class defined: Base",
+                     assertNotSubtype(typechecker, EMPTY_CLASS_NAME, SUB_CLASS_NAME));
+    }
+
+    @Test
+    public void testClassesRebuilt() {
+        final Typechecker typechecker = mkChecker(new ClassDefinition[] { baseClass(), EMPTY_CLASS });
+        assertNotSubtype(typechecker, BASE_CLASS_NAME, EMPTY_CLASS_NAME);
+        typechecker.classes.put(SUB_CLASS_NAME, subClass());
+        assertSubtype(typechecker, BASE_CLASS_NAME, SUB_CLASS_NAME);
+    }
+
+    @Test
+    public void testDeepChain() throws TypeErrorException {
+        final int depth = 10000;
+        final Typechecker typechecker = mkChecker(chain(depth));
+        assertSubtype(typechecker, chainName(0), chainName(depth - 1));
+        assertSubtype(typechecker, chainName(depth / 2), chainName(depth - 1));
+        assertNotSubtype(typechecker, chainName(depth - 1), chainName(depth / 2));
+    }
+} // TypecheckerSubtypeTest
@@ -0,0 +1,81 @@
+package vtables_example.util;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+public class PersistentMapTest {
+    // distinct keys which all share the same hash
+    public static class CollidingKey {
+        public final int id;
+
+        public CollidingKey(final int id) {
+            this.id = id;
+        }
+
+        public int hashCode() { return 42; }
+        public boolean equals(final Object other) {
+            return (other instanceof CollidingKey &&
+                    ((CollidingKey)other).id == id);
+        }
+    }
+
+    @Test
+    public void testPutDoesNotChangeOriginal() {
+        final PersistentMap<String, Integer> empty = PersistentMap.empty();
+        final PersistentMap<String, Integer> one = empty.put("a", 1);
+        final PersistentMap<String, Integer> two = one.put("b", 2);
+        assertTrue(empty.isEmpty());
+        assertEquals(1, one.size());
+        assertNull(one.get("b"));
+        assertEquals(Integer.valueOf(2), two.get("b"));
+        assertEquals(2, two.size());
+    }
+
+    @Test
+    public void testReplaceKeepsSize() {
+        final PersistentMap<String, Integer> first = PersistentMap.<String, Integer>empty().put("a", 1);
+        final PersistentMap<String, Integer> second = first.put("a", 2);
+        assertEquals(1, second.size());
+        assertEquals(Integer.valueOf(1), first.get("a"));
+        assertEquals(Integer.valueOf(2), second.get("a"));
+        assertSame(second, second.putIfAbsent("a", 3));
+    }
+
+    @Test
+    public void testCollisions() {
+        PersistentMap<Object, Integer> map = PersistentMap.empty();
+        for (int index = 0; index < 10; index++) {
+            map = map.put(new CollidingKey(index), index);
+        }
+        // a key with a different hash has to split the collision node
+        map = map.put("other", 100);
+        assertEquals(11, map.size());
+        for (int index = 0; index < 10; index++) {
+            assertEquals(Integer.valueOf(index), map.get(new CollidingKey(index)));
+        }
+        assertEquals(Integer.valueOf(100), map.get("other"));
+        assertFalse(map.containsKey(new CollidingKey(10)));
+    }
+
+    @Test
+    public void testAgreesWithHashMap() {
+        final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        PersistentMap<Integer, Integer> map = PersistentMap.empty();
+        for (int index = 0; index < 50000; index++) {
+            final int key = (index * 7919) % 20011;
+            expected.put(key, index);
+            map = map.put(key, index);
+        }
+        assertEquals(expected.size(), map.size());
+        final Map<Integer, Integer> actual = new HashMap<Integer, Integer>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+} // PersistentMapTest
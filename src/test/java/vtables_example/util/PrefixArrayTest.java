@@ -0,0 +1,73 @@
+package vtables_example.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class PrefixArrayTest {
+    public static List<String> contents(final PrefixArray<String> array) {
+        final String[] result = new String[array.length()];
+        for (int index = 0; index < array.length(); index++) {
+            result[index] = array.get(index);
+        }
+        return Arrays.asList(result);
+    }
+
+    @Test
+    public void testAppendDoesNotChangeOriginal() {
+        final PrefixArray<String> empty = PrefixArray.empty();
+        final PrefixArray<String> one = empty.append(Arrays.asList("a"));
+        final PrefixArray<String> three = one.append(Arrays.asList("b", "c"));
+        assertTrue(empty.isEmpty());
+        assertEquals(Arrays.asList("a"), contents(one));
+        assertEquals(Arrays.asList("a", "b", "c"), contents(three));
+        assertSame(three, three.append(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void testChainSharesStorage() {
+        PrefixArray<String> current = PrefixArray.<String>empty().append(Arrays.asList("0"));
+        final PrefixArray<String> first = current;
+        for (int index = 1; index < 1000; index++) {
+            current = current.append(Arrays.asList(Integer.toString(index)));
+        }
+        assertEquals(1000, current.length());
+        assertEquals("999", current.get(999));
+        assertEquals(1, first.length());
+        // the storage was grown by copying, but the earlier prefixes
+        // still see the same elements
+        assertEquals("0", first.get(0));
+        assertTrue(current.sharesWith(current.append(Arrays.asList("x"))));
+    }
+
+    @Test
+    public void testSiblingsDoNotInterfere() {
+        // appending one at a time leaves spare room after c
+        final PrefixArray<String> parent =
+            PrefixArray.<String>empty()
+            .append(Arrays.asList("a"))
+            .append(Arrays.asList("b"))
+            .append(Arrays.asList("c"));
+        final PrefixArray<String> left = parent.append(Arrays.asList("l"));
+        final PrefixArray<String> right = parent.append(Arrays.asList("r"));
+        assertTrue(left.sharesWith(parent));
+        assertFalse(right.sharesWith(parent));
+        assertEquals(Arrays.asList("a", "b", "c"), contents(parent));
+        assertEquals(Arrays.asList("a", "b", "c", "l"), contents(left));
+        assertEquals(Arrays.asList("a", "b", "c", "r"), contents(right));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testPastPrefixRejected() {
+        final PrefixArray<String> parent = PrefixArray.<String>empty().append(Arrays.asList("a"));
+        parent.append(Arrays.asList("b"));
+        // present in the shared storage, but not part of parent
+        parent.get(1);
+    }
+} // PrefixArrayTest